@@ -0,0 +1,31 @@
+package transaction.client;
+
+import transaction.server.replication.CommitRecord;
+
+import java.util.Map;
+
+/**
+ * Interface [ChangeFeedListener] receives the committed changes streamed to a {@link ChangeFeedSubscriber},
+ * in commit order and on the subscriber's thread. A listener that takes long holds up the feed of its own
+ * subscriber only, never the server's commits.
+ */
+public interface ChangeFeedListener {
+
+    /**
+     * Receives the committed balances of all accounts, when subscribing from position 0 or after falling
+     * behind the changes the server retains. Changes between the previous position and the snapshot are lost,
+     * the balances replace whatever was derived from them.
+     *
+     * @param sequence the position of the snapshot in the commit order
+     * @param balances the committed balance of every account
+     */
+    void onSnapshot(long sequence, Map<Integer, Integer> balances);
+
+    /**
+     * Receives the changes of one committed transaction: its id, position in the commit order, and the
+     * balances before and after of every account it changed, and the accounts it closed.
+     *
+     * @param record the changes of the transaction
+     */
+    void onChange(CommitRecord record);
+}
@@ -0,0 +1,208 @@
+package transaction.client;
+
+import transaction.comm.Connection;
+import transaction.comm.Message;
+import transaction.comm.MessageTypes;
+import transaction.server.replication.CommitRecord;
+import utils.PropertyHandler;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Class [ChangeFeedSubscriber] follows the committed changes of a primary server over a dedicated connection
+ * and hands them to a {@link ChangeFeedListener}. The subscriber remembers the position of the last change it
+ * handed over, and after a lost connection resumes from there. The server streams the changes from its commit
+ * log without ever waiting for the subscriber, a subscriber that can't keep up is sent a snapshot instead of the
+ * changes no longer retained.
+ */
+public class ChangeFeedSubscriber extends Thread implements MessageTypes {
+
+    // time in milliseconds to wait before reconnecting to the server
+    private static final long RECONNECT_DELAY = 1000;
+
+    // network related fields
+    private final String host;
+    private final int port;
+    private final String unixSocketPath;
+    private volatile Connection connection;
+
+    // receives the changes
+    private final ChangeFeedListener listener;
+
+    // sequence number of the last change or snapshot handed to the listener
+    private volatile long position;
+
+    // flag for leaving the loop once the subscriber is shut down
+    private volatile boolean keepGoing = true;
+
+    /**
+     * Creates a new subscriber, resuming after the given position.
+     *
+     * @param host the host name of the server
+     * @param port the port number of the server
+     * @param unixSocketPath the path of the server's Unix domain socket, or null to connect over TCP
+     * @param position the sequence number of the last change consumed before, 0 to start with a snapshot
+     * @param listener receives the changes
+     */
+    public ChangeFeedSubscriber(String host, int port, String unixSocketPath, long position, ChangeFeedListener listener) {
+        super("change-feed-subscriber");
+        this.host = host;
+        this.port = port;
+        this.unixSocketPath = unixSocketPath;
+        this.position = position;
+        this.listener = listener;
+        setDaemon(true);
+    }
+
+    /**
+     * Returns the position to resume from, the sequence number of the last change handed to the listener.
+     *
+     * @return the position in the commit order
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Stops following the server.
+     */
+    public void shutDown() {
+        keepGoing = false;
+        interrupt();
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (IOException e) {
+            // we don't care
+        }
+    }
+
+    /**
+     * Thread entry point, follows the server until shut down.
+     */
+    @Override
+    public void run() {
+        while (keepGoing) {
+            try (Connection connection = Connection.open(host, port, unixSocketPath)) {
+                this.connection = connection;
+                ObjectOutputStream writeToNet = new ObjectOutputStream(connection.getOutputStream());
+                writeToNet.writeObject(new Message(SUBSCRIBE_CHANGES, position));
+                writeToNet.flush();
+                ObjectInputStream readFromNet = new ObjectInputStream(connection.getInputStream());
+
+                System.out.println("[ChangeFeedSubscriber.run] following changes from sequence #" + position);
+                while (keepGoing) {
+                    process((Message) readFromNet.readObject());
+                }
+            } catch (IOException | ClassNotFoundException ex) {
+                if (keepGoing) {
+                    System.out.println("[ChangeFeedSubscriber.run] lost connection to server, reconnecting ...");
+                }
+            }
+
+            try {
+                Thread.sleep(RECONNECT_DELAY);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Processes one message of the server's change stream.
+     *
+     * @param message a snapshot, record or heartbeat message
+     */
+    @SuppressWarnings("unchecked")
+    private void process(Message message) {
+        switch (message.getType()) {
+            case CHANGE_SNAPSHOT:
+                Object[] content = (Object[]) message.getContent();
+                long sequence = (long) content[0];
+                if (position > sequence) {
+                    System.out.println("[ChangeFeedSubscriber.process] server log restarted before sequence #"
+                            + position + ", resynchronizing from a snapshot at #" + sequence);
+                } else if (position > 0) {
+                    System.out.println("[ChangeFeedSubscriber.process] fell behind, changes after sequence #" + position
+                            + " up to #" + sequence + " replaced by a snapshot");
+                }
+
+                listener.onSnapshot(sequence, (Map<Integer, Integer>) content[1]);
+                position = sequence;
+                break;
+
+            case CHANGE_RECORD:
+                CommitRecord record = (CommitRecord) message.getContent();
+
+                // records arrive in commit order, skip anything already covered by a snapshot
+                if (record.getSequence() <= position) {
+                    break;
+                }
+                listener.onChange(record);
+                position = record.getSequence();
+                break;
+
+            case CHANGE_HEARTBEAT:
+                long serverSequence = ((long[]) message.getContent())[0];
+                if (serverSequence > position) {
+                    System.out.println("[ChangeFeedSubscriber.process] " + (serverSequence - position)
+                            + " changes behind");
+                }
+                break;
+        }
+    }
+
+    // entry point of a subscriber printing the changes, resuming after CHANGE_FEED_POSITION
+    public static void main(String[] args) {
+        String propertiesFile;
+
+        try {
+            propertiesFile = args[0];
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            propertiesFile = "resources/transaction_client.properties";
+        }
+
+        Properties properties = null;
+        try {
+            properties = new PropertyHandler(propertiesFile);
+        } catch (IOException e) {
+            System.out.println("[ChangeFeedSubscriber.main] couldn't read properties file");
+            System.exit(1);
+        }
+
+        String unixSocketPath = properties.getProperty("UNIX_SOCKET_PATH");
+        ChangeFeedSubscriber subscriber = new ChangeFeedSubscriber(properties.getProperty("SERVER_IP"),
+                Integer.parseInt(properties.getProperty("SERVER_PORT")),
+                unixSocketPath != null && !unixSocketPath.isEmpty() ? unixSocketPath : null,
+                Long.parseLong(properties.getProperty("CHANGE_FEED_POSITION", "0")),
+                new ChangeFeedListener() {
+                    @Override
+                    public void onSnapshot(long sequence, Map<Integer, Integer> balances) {
+                        System.out.println("#" + sequence + " snapshot " + balances);
+                    }
+
+                    @Override
+                    public void onChange(CommitRecord record) {
+                        System.out.println("#" + record.getSequence() + " transaction #" + record.getTransactionId()
+                                + " accounts " + Arrays.toString(record.getAccountNumbers())
+                                + " from " + Arrays.toString(record.getOldBalances())
+                                + " to " + Arrays.toString(record.getNewBalances())
+                                + (record.getClosedAccounts().length > 0
+                                        ? " closing " + Arrays.toString(record.getClosedAccounts()) : ""));
+                    }
+                });
+        subscriber.start();
+
+        try {
+            subscriber.join();
+        } catch (InterruptedException e) {
+            // we don't care
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package transaction.client;
+
+import transaction.comm.MessageTypes;
+import transaction.server.EmbeddedTransactionServer;
+import transaction.server.lock.LockType;
+import transaction.server.lock.TransactionAbortedException;
+import transaction.server.transaction.IsolationLevel;
+import transaction.server.transaction.Priority;
+import transaction.server.transaction.TransactionExecutor;
+import transaction.server.transaction.TransactionManager;
+
+import java.util.Map;
+
+/**
+ * The class [EmbeddedTransactionProxy] runs transactions on an engine embedded in the same JVM, see
+ * {@link EmbeddedTransactionServer}. Every request is executed on the calling thread by the same
+ * {@link TransactionExecutor} the server's worker executes it with, so transactions behave exactly like
+ * those of a {@link TransactionServerProxy}, minus the sockets and the serialization.
+ */
+public class EmbeddedTransactionProxy implements TransactionProxy, MessageTypes {
+
+    // executes the requests of this proxy's transactions
+    private final TransactionExecutor executor;
+
+    // timestamp of the first run of a transaction that is being restarted after an abort, null otherwise
+    private Integer restartTimestamp = null;
+
+    // isolation level of the transactions opened by this proxy
+    private IsolationLevel isolationLevel = IsolationLevel.SERIALIZABLE;
+
+    // priority of the transactions opened by this proxy in the lock scheduler
+    private Priority priority = Priority.NORMAL;
+
+    /**
+     * Creates a proxy running transactions on the given server, one transaction at a time. Proxies are not
+     * thread safe, every thread uses its own.
+     *
+     * @param server the embedded server
+     */
+    public EmbeddedTransactionProxy(EmbeddedTransactionServer server) {
+        executor = server.newExecutor();
+    }
+
+    /**
+     * Opens a new transaction and returns its ID.
+     *
+     * @return the ID of the opened transaction
+     */
+    @Override
+    public int openTransaction() {
+        return openTransaction(null);
+    }
+
+    /**
+     * Opens a new transaction that declares the accounts and lock types it will use,
+     * all of them are acquired before returning the ID. A transaction still open is aborted first.
+     *
+     * @param declaredLocks the account numbers and lock types, or null to lock on access
+     * @return the ID of the opened transaction
+     */
+    @Override
+    public int openTransaction(Map<Integer, LockType> declaredLocks) {
+        int transactionId = executor.open(restartTimestamp, declaredLocks, isolationLevel, priority).getTransactionId();
+
+        // a restarted transaction keeps the timestamp of its first run, so it is not starved by younger ones
+        restartTimestamp = executor.getTransaction().getTimestamp();
+        return transactionId;
+    }
+
+    /**
+     * Sets the timestamp the next transaction is opened with, as if it was the restart of an aborted one.
+     *
+     * @param restartTimestamp the timestamp, or null for a new one
+     */
+    public void setRestartTimestamp(Integer restartTimestamp) {
+        this.restartTimestamp = restartTimestamp;
+    }
+
+    /**
+     * Sets the isolation level of the transactions opened from now on.
+     *
+     * @param isolationLevel the isolation level deciding how long read locks are held
+     */
+    @Override
+    public void setIsolationLevel(IsolationLevel isolationLevel) {
+        this.isolationLevel = isolationLevel;
+    }
+
+    /**
+     * Sets the priority of the transactions opened from now on in the lock scheduler.
+     *
+     * @param priority the lane of the transactions in the lock scheduler
+     */
+    @Override
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Ignored, reads never cross a network here and there is nothing to save by caching them.
+     *
+     * @param readLeases true to read under leases, false otherwise
+     */
+    @Override
+    public void setReadLeases(boolean readLeases) {
+    }
+
+    /**
+     * Commits the current transaction.
+     *
+     * @return the status of the transaction, either TRANSACTION_COMMITTED or TRANSACTION_ABORTED
+     */
+    @Override
+    public int closeTransaction() {
+        if (!executor.commit("CLOSE_TRANSACTION")) {
+            return TRANSACTION_ABORTED;
+        }
+
+        restartTimestamp = null;
+        return TRANSACTION_COMMITTED;
+    }
+
+    /**
+     * Aborts the current transaction, discarding its changes.
+     *
+     * @return the status of the transaction, TRANSACTION_ABORTED
+     */
+    @Override
+    public int abortTransaction() {
+        executor.abort("ABORT", false);
+        return TRANSACTION_ABORTED;
+    }
+
+    /**
+     * Reads the balance of the account with the specified account number.
+     *
+     * @param accountNumber the account number to read from
+     * @return the balance of the account
+     *
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    @Override
+    public int read(int accountNumber) throws TransactionAbortedException {
+        return executor.read(accountNumber);
+    }
+
+    /**
+     * Writes the specified amount to the account with the given account number.
+     *
+     * @param accountNumber the account number to write to
+     * @param amount the amount to write
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    @Override
+    public void write(int accountNumber, int amount) throws TransactionAbortedException {
+        executor.write(accountNumber, amount);
+    }
+
+    /**
+     * Adds the specified amount to the balance of the account with the given account number at commit.
+     *
+     * @param accountNumber the account number to increment
+     * @param amount the amount to add, negative to withdraw
+     * @return true if the increment is pending, false if the balance doesn't cover the withdrawal
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    @Override
+    public boolean increment(int accountNumber, int amount) throws TransactionAbortedException {
+        return executor.increment(accountNumber, amount);
+    }
+
+    /**
+     * Creates an account with the given initial balance, on commit of the current transaction.
+     *
+     * @param initialBalance the initial balance, not negative
+     * @return the number of the new account, or null if the initial balance was rejected
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    @Override
+    public Integer createAccount(int initialBalance) throws TransactionAbortedException {
+        return executor.createAccount(initialBalance);
+    }
+
+    /**
+     * Closes the account with the given account number, on commit of the current transaction.
+     *
+     * @param accountNumber the account number to close
+     * @return true if the account is closed at commit, false if it doesn't exist or has a balance
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    @Override
+    public boolean closeAccount(int accountNumber) throws TransactionAbortedException {
+        return executor.closeAccount(accountNumber);
+    }
+
+    /**
+     * Sets a savepoint in the current transaction.
+     *
+     * @return the id of the savepoint, 0 if no transaction is open
+     */
+    @Override
+    public int setSavepoint() {
+        return executor.setSavepoint();
+    }
+
+    /**
+     * Rolls the current transaction back to a savepoint.
+     *
+     * @param savepointId the id of the savepoint
+     * @throws TransactionAbortedException if the transaction was aborted instead
+     */
+    @Override
+    public void rollbackTo(int savepointId) throws TransactionAbortedException {
+        if (!executor.rollbackTo(savepointId)) {
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Waits until the given transaction completed, or the timeout elapses.
+     *
+     * @param transactionId the id of the transaction to wait for
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true if the transaction completed, false otherwise
+     */
+    @Override
+    public boolean awaitTransaction(int transactionId, long timeout) {
+        return TransactionManager.awaitTransaction(transactionId, timeout);
+    }
+}
@@ -0,0 +1,39 @@
+package transaction.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The class [ExponentialBackoffRetryPolicy] restarts aborted transactions after a random delay
+ * between 0 and an exponentially growing bound ("full jitter"), so transactions colliding on
+ * a hot account spread out instead of colliding again. It gives up after a maximum number of retries.
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int maxRetries;
+
+    /**
+     * Constructs a new backoff policy.
+     *
+     * @param baseDelay the delay bound of the first retry in milliseconds
+     * @param maxDelay the upper limit of the delay bound in milliseconds
+     * @param maxRetries the maximum number of retries, 0 for no limit
+     */
+    public ExponentialBackoffRetryPolicy(long baseDelay, long maxDelay, int maxRetries) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxRetries = maxRetries;
+    }
+
+    @Override
+    public long getRetryDelay(int attempt) {
+        if (maxRetries > 0 && attempt > maxRetries) {
+            return -1;
+        }
+
+        // double the bound with every attempt, without overflowing the shift
+        long bound = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+}
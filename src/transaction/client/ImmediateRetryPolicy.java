@@ -0,0 +1,12 @@
+package transaction.client;
+
+/**
+ * The class [ImmediateRetryPolicy] restarts aborted transactions right away, and never gives up.
+ */
+public class ImmediateRetryPolicy implements RetryPolicy {
+
+    @Override
+    public long getRetryDelay(int attempt) {
+        return 0;
+    }
+}
@@ -0,0 +1,67 @@
+package transaction.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class [LeaseCache] holds the balances read under a lease, shared by all proxies of this client connecting
+ * to the same server. A cached balance is served without a round trip until its lease expires, the server
+ * doesn't change it before then.
+ */
+public class LeaseCache {
+
+    // the caches of all servers, by "host:port"
+    private static final Map<String, LeaseCache> caches = new ConcurrentHashMap<>();
+
+    // balance and expiry time in milliseconds of each leased account number
+    private final Map<Integer, long[]> leases = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the cache of a server, creating it on first use.
+     *
+     * @param host the host name of the server
+     * @param port the port number of the server
+     * @return the cache of the server
+     */
+    public static LeaseCache forServer(String host, int port) {
+        return caches.computeIfAbsent(host + ":" + port, server -> new LeaseCache());
+    }
+
+    /**
+     * Returns the cached balance and lease expiry of an account, if its lease is still live.
+     *
+     * @param accountNumber the account number
+     * @return the balance and the expiry time in milliseconds, or null if not cached or expired
+     */
+    public long[] get(int accountNumber) {
+        long[] lease = leases.get(accountNumber);
+        if (lease == null) {
+            return null;
+        }
+        if (lease[1] <= System.currentTimeMillis()) {
+            leases.remove(accountNumber, lease);
+            return null;
+        }
+        return lease;
+    }
+
+    /**
+     * Caches the balance of an account under a lease.
+     *
+     * @param accountNumber the account number
+     * @param balance the leased balance
+     * @param expiry the expiry time of the lease in milliseconds
+     */
+    public void put(int accountNumber, int balance, long expiry) {
+        leases.put(accountNumber, new long[]{balance, expiry});
+    }
+
+    /**
+     * Drops the cached balance of an account, e.g. when this client is about to change it.
+     *
+     * @param accountNumber the account number
+     */
+    public void invalidate(int accountNumber) {
+        leases.remove(accountNumber);
+    }
+}
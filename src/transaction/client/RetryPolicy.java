@@ -0,0 +1,15 @@
+package transaction.client;
+
+/**
+ * The interface [RetryPolicy] decides whether and when a client restarts an aborted transaction.
+ */
+public interface RetryPolicy {
+
+    /**
+     * Returns the time to wait before the given retry of an aborted transaction.
+     *
+     * @param attempt the number of the retry, starting with 1 after the first abort
+     * @return the delay in milliseconds, or a negative value to give up
+     */
+    long getRetryDelay(int attempt);
+}
@@ -0,0 +1,423 @@
+package transaction.client;
+
+import transaction.comm.MessageTypes;
+import transaction.server.account.AccountManager;
+import transaction.server.lock.TransactionAbortedException;
+import transaction.server.lock.TransactionRolledBackException;
+import transaction.server.transaction.IsolationLevel;
+import transaction.server.transaction.Priority;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The class [ShardedTransactionServerProxy] coordinates a transaction over several transaction servers,
+ * each owning a partition of the accounts. Requests are routed to the owning shard, a shard joins the
+ * transaction on its first request, and transactions spanning several shards commit with two-phase commit.
+ */
+public class ShardedTransactionServerProxy implements TransactionProxy, MessageTypes {
+
+    // client side counter for global transaction IDs
+    private static final AtomicInteger transactionIdCounter = new AtomicInteger(0);
+
+    // network related fields, shard i listens on basePort + i
+    private final String host;
+    private final int basePort;
+    private final int numberOfShards;
+
+    // path of the shards' Unix domain sockets without the shard suffix, null to connect over TCP
+    private final String unixSocketPath;
+
+    // the shards taking part in the current transaction, ordered by shard id
+    private final Map<Integer, TransactionServerProxy> participants = new TreeMap<>();
+
+    private int transactionID = 0;
+
+    // timestamps of the first run of the global transaction on each shard, kept across restarts until it commits
+    private final Map<Integer, Integer> restartTimestamps = new HashMap<>();
+
+    // savepoints of the global transaction, each mapping the shards taking part at the time to their local savepoint
+    private final List<Map<Integer, Integer>> savepoints = new ArrayList<>();
+
+    // the shard that aborted the last transaction, its transaction ids are the ones hinted at
+    private int abortedShard = 0;
+
+    // isolation level of the transactions opened on the shards
+    private IsolationLevel isolationLevel = IsolationLevel.SERIALIZABLE;
+
+    // priority of the transactions opened on the shards
+    private Priority priority = Priority.NORMAL;
+
+    // whether the transactions on the shards read under leases
+    private boolean readLeases = false;
+
+    /**
+     * Constructs a new ShardedTransactionServerProxy object.
+     *
+     * @param host the host name of the transaction servers
+     * @param basePort the port number of shard 0
+     * @param numberOfShards the total number of shards
+     */
+    public ShardedTransactionServerProxy(String host, int basePort, int numberOfShards) {
+        this(host, basePort, numberOfShards, null);
+    }
+
+    /**
+     * Constructs a new ShardedTransactionServerProxy object connecting over the shards' Unix domain sockets,
+     * shard i listening on unixSocketPath.i.
+     *
+     * @param host the host name of the transaction servers
+     * @param basePort the port number of shard 0
+     * @param numberOfShards the total number of shards
+     * @param unixSocketPath the path of the shards' Unix domain sockets without the suffix, or null for TCP
+     */
+    public ShardedTransactionServerProxy(String host, int basePort, int numberOfShards, String unixSocketPath) {
+        this.host = host;
+        this.basePort = basePort;
+        this.numberOfShards = numberOfShards;
+        this.unixSocketPath = unixSocketPath;
+    }
+
+    /**
+     * Opens a new global transaction. Shards are only contacted when they are first accessed.
+     *
+     * @return the ID of the opened global transaction
+     */
+    @Override
+    public int openTransaction() {
+        participants.clear();
+        savepoints.clear();
+        transactionID = transactionIdCounter.incrementAndGet();
+        return transactionID;
+    }
+
+    /**
+     * Sets the isolation level of the transactions opened on the shards from now on.
+     *
+     * @param isolationLevel the isolation level deciding how long read locks are held
+     */
+    @Override
+    public void setIsolationLevel(IsolationLevel isolationLevel) {
+        this.isolationLevel = isolationLevel;
+    }
+
+    /**
+     * Sets the priority of the transactions opened on the shards from now on.
+     *
+     * @param priority the lane of the transactions in the lock scheduler
+     */
+    @Override
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Enables or disables read leases on the shards from now on.
+     *
+     * @param readLeases true to read under leases, false otherwise
+     */
+    @Override
+    public void setReadLeases(boolean readLeases) {
+        this.readLeases = readLeases;
+    }
+
+    /**
+     * Closes the current transaction, using two-phase commit if more than one shard took part.
+     *
+     * @return the status of the transaction, either TRANSACTION_COMMITTED or TRANSACTION_ABORTED
+     */
+    @Override
+    public int closeTransaction() {
+        int returnStatus = TRANSACTION_COMMITTED;
+
+        if (participants.size() == 1) {
+            // a single shard commits on its own
+            returnStatus = participants.values().iterator().next().closeTransaction();
+        } else if (participants.size() > 1) {
+            // phase one: collect the votes of all participants
+            boolean commit = true;
+            for (TransactionServerProxy participant : participants.values()) {
+                if (!participant.prepareTransaction()) {
+                    commit = false;
+                    break;
+                }
+            }
+
+            // phase two: commit everywhere or abort everywhere
+            for (TransactionServerProxy participant : participants.values()) {
+                int status = commit ? participant.commitTransaction() : participant.abortTransaction();
+                if (status != TRANSACTION_COMMITTED) {
+                    returnStatus = TRANSACTION_ABORTED;
+                }
+            }
+        }
+
+        participants.clear();
+        if (returnStatus == TRANSACTION_COMMITTED) {
+            restartTimestamps.clear();
+        }
+        return returnStatus;
+    }
+
+    /**
+     * Aborts the current transaction on all shards taking part in it.
+     *
+     * @return the status of the transaction, TRANSACTION_ABORTED
+     */
+    @Override
+    public int abortTransaction() {
+        abortOtherParticipants(-1);
+        return TRANSACTION_ABORTED;
+    }
+
+    /**
+     * Reads the balance of the account from the shard owning it.
+     *
+     * @param accountNumber the account number to read from
+     * @return the balance of the account
+     *
+     * @throws TransactionAbortedException if the transaction was aborted on any shard
+     */
+    @Override
+    public int read(int accountNumber) throws TransactionAbortedException {
+        int shard = AccountManager.getShard(accountNumber, numberOfShards);
+
+        try {
+            return getParticipant(shard).read(accountNumber);
+        } catch (TransactionAbortedException ex) {
+            throw resolveConflict(shard, ex);
+        }
+    }
+
+    /**
+     * Writes the balance of the account on the shard owning it.
+     *
+     * @param accountNumber the account number to write to
+     * @param amount the amount to write
+     * @throws TransactionAbortedException if the transaction was aborted on any shard
+     */
+    @Override
+    public void write(int accountNumber, int amount) throws TransactionAbortedException {
+        int shard = AccountManager.getShard(accountNumber, numberOfShards);
+
+        try {
+            getParticipant(shard).write(accountNumber, amount);
+        } catch (TransactionAbortedException ex) {
+            throw resolveConflict(shard, ex);
+        }
+    }
+
+    /**
+     * Increments the balance of the account on the shard owning it.
+     *
+     * @param accountNumber the account number to increment
+     * @param amount the amount to add, negative to withdraw
+     * @return true if the increment is pending, false if the balance doesn't cover the withdrawal
+     * @throws TransactionAbortedException if the transaction was aborted on any shard
+     */
+    @Override
+    public boolean increment(int accountNumber, int amount) throws TransactionAbortedException {
+        int shard = AccountManager.getShard(accountNumber, numberOfShards);
+
+        try {
+            return getParticipant(shard).increment(accountNumber, amount);
+        } catch (TransactionAbortedException ex) {
+            throw resolveConflict(shard, ex);
+        }
+    }
+
+    /**
+     * Creates an account on a random shard, which picks an account number it owns.
+     *
+     * @param initialBalance the initial balance, not negative
+     * @return the number of the new account, or null if the initial balance was rejected
+     * @throws TransactionAbortedException if the transaction was aborted on any shard
+     */
+    @Override
+    public Integer createAccount(int initialBalance) throws TransactionAbortedException {
+        int shard = ThreadLocalRandom.current().nextInt(numberOfShards);
+
+        try {
+            return getParticipant(shard).createAccount(initialBalance);
+        } catch (TransactionAbortedException ex) {
+            throw resolveConflict(shard, ex);
+        }
+    }
+
+    /**
+     * Closes the account on the shard owning it.
+     *
+     * @param accountNumber the account number to close
+     * @return true if the account is closed at commit, false if it doesn't exist or has a balance
+     * @throws TransactionAbortedException if the transaction was aborted on any shard
+     */
+    @Override
+    public boolean closeAccount(int accountNumber) throws TransactionAbortedException {
+        int shard = AccountManager.getShard(accountNumber, numberOfShards);
+
+        try {
+            return getParticipant(shard).closeAccount(accountNumber);
+        } catch (TransactionAbortedException ex) {
+            throw resolveConflict(shard, ex);
+        }
+    }
+
+    /**
+     * Sets a savepoint on every shard taking part in the transaction so far. Shards joining later have
+     * no work before the savepoint, rolling back to it aborts their local transactions.
+     *
+     * @return the id of the global savepoint
+     */
+    @Override
+    public int setSavepoint() {
+        Map<Integer, Integer> localSavepoints = new HashMap<>();
+        for (Map.Entry<Integer, TransactionServerProxy> entry : participants.entrySet()) {
+            localSavepoints.put(entry.getKey(), entry.getValue().setSavepoint());
+        }
+        savepoints.add(localSavepoints);
+        return savepoints.size();
+    }
+
+    /**
+     * Rolls the transaction back to a savepoint on every shard.
+     *
+     * @param savepointId the id of the global savepoint
+     * @throws TransactionAbortedException if the transaction was aborted instead
+     */
+    @Override
+    public void rollbackTo(int savepointId) throws TransactionAbortedException {
+        rollbackParticipants(savepointId, -1);
+    }
+
+    /**
+     * Rolls the participants back to their local savepoints of a global one and aborts the local transactions
+     * of the shards that joined after it. If any participant aborts, the transaction is aborted on all of them.
+     *
+     * @param savepointId the id of the global savepoint
+     * @param skippedShard a shard already rolled back, -1 for none
+     * @throws TransactionAbortedException if the transaction was aborted instead
+     */
+    private void rollbackParticipants(int savepointId, int skippedShard) throws TransactionAbortedException {
+        if (savepointId < 1 || savepointId > savepoints.size()) {
+            abortOtherParticipants(-1);
+            throw new TransactionAbortedException();
+        }
+        Map<Integer, Integer> localSavepoints = savepoints.get(savepointId - 1);
+
+        Iterator<Map.Entry<Integer, TransactionServerProxy>> iterator = participants.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, TransactionServerProxy> entry = iterator.next();
+            if (entry.getKey() == skippedShard) {
+                continue;
+            }
+
+            Integer localSavepointId = localSavepoints.get(entry.getKey());
+            if (localSavepointId == null) {
+                entry.getValue().abortTransaction();
+                iterator.remove();
+                continue;
+            }
+
+            try {
+                entry.getValue().rollbackTo(localSavepointId);
+            } catch (TransactionAbortedException ex) {
+                iterator.remove();
+                abortOtherParticipants(entry.getKey());
+                throw ex;
+            }
+        }
+        savepoints.subList(savepointId, savepoints.size()).clear();
+    }
+
+    /**
+     * Handles a conflict on a shard. If the shard rolled back to its latest savepoint, the other shards are rolled
+     * back to the same global savepoint and the transaction stays open, otherwise it is aborted on all shards.
+     *
+     * @param shard the shard the conflict occurred on
+     * @param ex the exception thrown by the shard
+     * @return the exception to throw to the caller
+     */
+    private TransactionAbortedException resolveConflict(int shard, TransactionAbortedException ex) {
+        abortedShard = shard;
+
+        if (ex instanceof TransactionRolledBackException) {
+            // the shard took part in every savepoint since it joined, so its latest one is the latest global one
+            int savepointId = savepoints.size();
+            try {
+                rollbackParticipants(savepointId, shard);
+                return new TransactionRolledBackException(savepointId, ex.getConflictingTransactionId());
+            } catch (TransactionAbortedException rollbackEx) {
+                return rollbackEx;
+            }
+        }
+
+        abortOtherParticipants(shard);
+        return ex;
+    }
+
+    /**
+     * Waits until the given transaction completed on the shard that aborted the last transaction.
+     *
+     * @param transactionId the id of the conflicting transaction on that shard
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true if the transaction completed, false otherwise
+     */
+    @Override
+    public boolean awaitTransaction(int transactionId, long timeout) {
+        return getShardProxy(abortedShard).awaitTransaction(transactionId, timeout);
+    }
+
+    /**
+     * Returns the proxy of the given shard, opening a local transaction on it if it is not a participant yet.
+     * A restarted transaction reopens on each shard with the timestamp that shard gave its first run.
+     *
+     * @param shard the shard id
+     * @return the proxy connected to the shard
+     */
+    private TransactionServerProxy getParticipant(int shard) {
+        TransactionServerProxy participant = participants.get(shard);
+
+        if (participant == null) {
+            participant = getShardProxy(shard);
+            participant.setIsolationLevel(isolationLevel);
+            participant.setPriority(priority);
+            participant.setReadLeases(readLeases);
+            participant.setRestartTimestamp(restartTimestamps.get(shard));
+            participant.openTransaction();
+            restartTimestamps.put(shard, participant.getRestartTimestamp());
+            participants.put(shard, participant);
+        }
+        return participant;
+    }
+
+    /**
+     * Aborts the transaction on all participants but the given shard, which already aborted it.
+     *
+     * @param abortedShard the shard that aborted the transaction
+     */
+    private void abortOtherParticipants(int abortedShard) {
+        for (Map.Entry<Integer, TransactionServerProxy> entry : participants.entrySet()) {
+            if (entry.getKey() != abortedShard) {
+                entry.getValue().abortTransaction();
+            }
+        }
+        participants.clear();
+    }
+
+    /**
+     * Creates a proxy connected to the given shard, over its Unix domain socket if one is configured.
+     *
+     * @param shard the shard id
+     * @return a new proxy of the shard
+     */
+    private TransactionServerProxy getShardProxy(int shard) {
+        return new TransactionServerProxy(host, basePort + shard,
+                unixSocketPath != null ? unixSocketPath + "." + shard : null);
+    }
+}
@@ -0,0 +1,418 @@
+package transaction.client;
+
+import transaction.comm.MessageTypes;
+import transaction.server.EmbeddedTransactionServer;
+import transaction.server.lock.TransactionAbortedException;
+import transaction.server.transaction.IsolationLevel;
+import utils.PropertyHandler;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The StressChecker class drives a server at full speed with read-modify-write transfers between random accounts,
+ * records the history of the committed ones and checks it for correctness:
+ * <ul>
+ *     <li>conservation: at every checkpoint the committed balances, summed by the range index, still add up
+ *     to the initial total</li>
+ *     <li>lost updates and dirty reads: the committed transfers of every account must chain into one sequence
+ *     of versions, from the initial to the final balance, where each transfer read the balance written by the
+ *     one before. A balance read by two transfers, or never written by a committed one, breaks the chain</li>
+ *     <li>serializability: the orders of the per account chains must not contradict each other, checked as
+ *     cycles in the dependency graph of the transfers</li>
+ * </ul>
+ * Balances don't identify versions uniquely, so the chains are rebuilt as Eulerian trails over the balances.
+ * Amounts are random up to a million to keep repeated balances rare. The order of a chain that repeats a balance
+ * is ambiguous, such a chain is still checked for lost updates but left out of the dependency graph. The history
+ * is kept in primitive arrays, 5 ints per transfer, so millions of transfers fit in memory.
+ * With EMBEDDED_SERVER_PROPERTIES set, the checker starts the engine in its own JVM and drives it directly,
+ * measuring its raw throughput without sockets and serialization.
+ */
+public class StressChecker implements MessageTypes {
+
+    private final String serverIP;
+    private final int serverPort;
+
+    // path of the server's Unix domain socket for a checker on the same host, null to connect over TCP
+    private final String unixSocketPath;
+    private final int numberOfAccounts;
+    private final int initialBalance;
+
+    // number of threads driving transfers
+    private final int numberOfThreads;
+
+    // number of transfers to commit
+    private final int numberOfTransfers;
+
+    // interval between conservation checkpoints in milliseconds
+    private final long checkpointInterval;
+
+    // isolation level of the transfers, anything below SERIALIZABLE is expected to fail the checks
+    private final IsolationLevel isolationLevel;
+
+    // engine running in this JVM, measuring it without the transport, or null to drive the server over the network
+    private EmbeddedTransactionServer embeddedServer = null;
+
+    // transfers claimed by the threads, committed and aborted
+    private final AtomicInteger claimedTransfers = new AtomicInteger();
+    private final AtomicLong abortedAttempts = new AtomicLong();
+
+    // the committed transfers, 5 ints each: from account, to account, from balance read, to balance read, amount
+    private final List<int[]> histories = new ArrayList<>();
+    private final List<Integer> historySizes = new ArrayList<>();
+
+    // conservation checkpoints taken and failed
+    private int checkpoints = 0;
+    private int failedCheckpoints = 0;
+
+    /**
+     * Constructs a new StressChecker with the specified properties file.
+     *
+     * @param propertiesFile the client properties file, with the STRESS_ properties
+     */
+    public StressChecker(String propertiesFile) {
+        Properties properties = null;
+        try {
+            properties = new PropertyHandler(propertiesFile);
+        } catch (IOException e) {
+            System.out.println("[StressChecker.StressChecker] couldn't read properties file");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        serverIP = properties.getProperty("SERVER_IP");
+        serverPort = Integer.parseInt(properties.getProperty("SERVER_PORT"));
+        String unixSocketPath = properties.getProperty("UNIX_SOCKET_PATH");
+        this.unixSocketPath = unixSocketPath != null && !unixSocketPath.isEmpty() ? unixSocketPath : null;
+        numberOfAccounts = Integer.parseInt(properties.getProperty("NUMBER_OF_ACCOUNTS"));
+        initialBalance = Integer.parseInt(properties.getProperty("INITIAL_BALANCE"));
+        numberOfThreads = Integer.parseInt(properties.getProperty("STRESS_THREADS", "16"));
+        numberOfTransfers = Integer.parseInt(properties.getProperty("STRESS_TRANSFERS", "100000"));
+        checkpointInterval = Long.parseLong(properties.getProperty("STRESS_CHECKPOINT_INTERVAL", "1000"));
+        IsolationLevel isolationLevel = IsolationLevel.SERIALIZABLE;
+        try {
+            isolationLevel = IsolationLevel.valueOf(properties.getProperty("ISOLATION_LEVEL", "SERIALIZABLE"));
+        } catch (IllegalArgumentException e) {
+            System.out.println("[StressChecker.StressChecker] couldn't read isolation level");
+            System.exit(1);
+        }
+        this.isolationLevel = isolationLevel;
+
+        String embeddedServerProperties = properties.getProperty("EMBEDDED_SERVER_PROPERTIES");
+        if (embeddedServerProperties != null && !embeddedServerProperties.isEmpty()) {
+            try {
+                embeddedServer = new EmbeddedTransactionServer(embeddedServerProperties);
+            } catch (IOException e) {
+                System.out.println("[StressChecker.StressChecker] couldn't read embedded server properties file");
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Drives the transfers, taking checkpoints until they are done, then checks the history and reports.
+     */
+    public void run() {
+        List<Thread> threads = new ArrayList<>();
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            Thread thread = new Thread(this::transfer);
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join(checkpointInterval);
+                } catch (InterruptedException e) {
+                    // we don't care
+                }
+                if (thread.isAlive()) {
+                    checkpoint();
+                }
+            }
+        }
+        long duration = Math.max(1, System.currentTimeMillis() - start);
+        checkpoint();
+
+        System.out.println("[StressChecker.run] " + numberOfTransfers + " transfers committed in " + duration + " ms, "
+                + (numberOfTransfers * 1000L / duration) + " per second, " + abortedAttempts.get() + " aborted attempts");
+        System.out.println("[StressChecker.run] conservation: " + (checkpoints - failedCheckpoints) + " of "
+                + checkpoints + " checkpoints hold the initial total");
+
+        boolean serializable = check();
+        System.out.println("[StressChecker.run] " + (serializable && failedCheckpoints == 0
+                ? "history is serializable" : "history is NOT serializable"));
+    }
+
+    /**
+     * Thread body, commits transfers between random accounts until all transfers are claimed, retrying
+     * aborted ones, and records the committed ones in a history of its own.
+     */
+    private void transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        TransactionProxy proxy = embeddedServer != null ? new EmbeddedTransactionProxy(embeddedServer)
+                : new TransactionServerProxy(serverIP, serverPort, unixSocketPath);
+        proxy.setIsolationLevel(isolationLevel);
+
+        int[] history = new int[1024];
+        int size = 0;
+
+        while (claimedTransfers.getAndIncrement() < numberOfTransfers) {
+            int fromAccount = random.nextInt(numberOfAccounts) + 1;
+            int toAccount = random.nextInt(numberOfAccounts - 1) + 1;
+            if (toAccount >= fromAccount) {
+                toAccount++;
+            }
+            int amount = random.nextInt(1000000) + 1;
+
+            while (true) {
+                proxy.openTransaction();
+                try {
+                    int fromBalance = proxy.read(fromAccount);
+                    proxy.write(fromAccount, fromBalance - amount);
+                    int toBalance = proxy.read(toAccount);
+                    proxy.write(toAccount, toBalance + amount);
+
+                    if (proxy.closeTransaction() == TRANSACTION_COMMITTED) {
+                        if (size + 5 > history.length) {
+                            history = Arrays.copyOf(history, history.length * 2);
+                        }
+                        history[size++] = fromAccount;
+                        history[size++] = toAccount;
+                        history[size++] = fromBalance;
+                        history[size++] = toBalance;
+                        history[size++] = amount;
+                        break;
+                    }
+                } catch (TransactionAbortedException e) {
+                    // retried below
+                }
+                abortedAttempts.incrementAndGet();
+            }
+        }
+
+        synchronized (histories) {
+            histories.add(history);
+            historySizes.add(size);
+        }
+    }
+
+    /**
+     * Checks that the committed balances, summed by the range index, add up to the initial total.
+     */
+    private void checkpoint() {
+        long sum = rangeQuery(1, numberOfAccounts)[0];
+        checkpoints++;
+        if (sum != (long) numberOfAccounts * initialBalance) {
+            failedCheckpoints++;
+            System.out.println("[StressChecker.checkpoint] total is " + sum + " instead of "
+                    + (long) numberOfAccounts * initialBalance);
+        }
+    }
+
+    /**
+     * Queries the sum and the count of the committed balances in an account number range.
+     *
+     * @param fromAccount the first account number of the range
+     * @param toAccount the last account number of the range
+     * @return an array holding the sum and the count
+     */
+    private long[] rangeQuery(int fromAccount, int toAccount) {
+        return embeddedServer != null ? embeddedServer.rangeQuery(fromAccount, toAccount)
+                : new TransactionServerProxy(serverIP, serverPort, unixSocketPath).rangeQuery(fromAccount, toAccount);
+    }
+
+    /**
+     * Checks the recorded history for broken version chains and for cycles between the chains.
+     *
+     * @return true if the history is serializable
+     */
+    private boolean check() {
+        // flatten the histories, a transfer is identified by its index
+        int count = numberOfTransfers;
+        int[] transfers = new int[count * 5];
+        int offset = 0;
+        for (int i = 0; i < histories.size(); i++) {
+            System.arraycopy(histories.get(i), 0, transfers, offset, historySizes.get(i));
+            offset += historySizes.get(i);
+        }
+
+        // the transfers touching each account, as edges from the balance read to the balance written
+        List<List<Integer>> accountTransfers = new ArrayList<>();
+        for (int account = 0; account <= numberOfAccounts; account++) {
+            accountTransfers.add(new ArrayList<>());
+        }
+        for (int transfer = 0; transfer < count; transfer++) {
+            accountTransfers.get(transfers[transfer * 5]).add(transfer);
+            accountTransfers.get(transfers[transfer * 5 + 1]).add(transfer);
+        }
+
+        // dependency graph: each transfer points at its successor in the chains of both its accounts
+        int[] successors = new int[count * 2];
+        Arrays.fill(successors, -1);
+        int brokenChains = 0;
+        int ambiguousChains = 0;
+
+        for (int account = 1; account <= numberOfAccounts; account++) {
+            int finalBalance = (int) rangeQuery(account, account)[0];
+            int[] chain = chain(account, accountTransfers.get(account), transfers, finalBalance);
+            if (chain == null) {
+                brokenChains++;
+                continue;
+            }
+            if (repeatsBalance(account, chain, transfers)) {
+                ambiguousChains++;
+                continue;
+            }
+            for (int i = 0; i + 1 < chain.length; i++) {
+                int transfer = chain[i];
+                successors[transfer * 2 + (transfers[transfer * 5] == account ? 0 : 1)] = chain[i + 1];
+            }
+        }
+        System.out.println("[StressChecker.check] version chains: " + (numberOfAccounts - brokenChains) + " of "
+                + numberOfAccounts + " accounts free of lost updates and dirty reads, " + ambiguousChains
+                + " of them left out of the dependency graph for repeating a balance");
+
+        // Kahn's algorithm, transfers left over are on or behind a cycle
+        int[] inDegree = new int[count];
+        for (int successor : successors) {
+            if (successor >= 0) {
+                inDegree[successor]++;
+            }
+        }
+        ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int transfer = 0; transfer < count; transfer++) {
+            if (inDegree[transfer] == 0) {
+                ready.add(transfer);
+            }
+        }
+        int ordered = 0;
+        while (!ready.isEmpty()) {
+            int transfer = ready.poll();
+            ordered++;
+            for (int edge = transfer * 2; edge < transfer * 2 + 2; edge++) {
+                if (successors[edge] >= 0 && --inDegree[successors[edge]] == 0) {
+                    ready.add(successors[edge]);
+                }
+            }
+        }
+        System.out.println("[StressChecker.check] dependency graph: " + (count - ordered) + " of " + count
+                + " transfers on or behind a cycle");
+
+        return brokenChains == 0 && ordered == count;
+    }
+
+    /**
+     * Orders the committed transfers of an account into a chain of versions, from the initial to the final
+     * balance, each transfer reading the balance written by the one before.
+     *
+     * @param account the account number
+     * @param accountTransfers the committed transfers touching the account
+     * @param transfers the flattened history
+     * @param finalBalance the committed balance of the account after the run
+     * @return the transfers in chain order, or null if they don't form a chain
+     */
+    private int[] chain(int account, List<Integer> accountTransfers, int[] transfers, int finalBalance) {
+        // edges leaving each balance, and the reads minus the writes of each balance
+        Map<Integer, ArrayDeque<Integer>> edges = new HashMap<>();
+        Map<Integer, Integer> degrees = new HashMap<>();
+        for (int transfer : accountTransfers) {
+            int read = read(account, transfer, transfers);
+            edges.computeIfAbsent(read, balance -> new ArrayDeque<>()).add(transfer);
+            degrees.merge(read, 1, Integer::sum);
+            degrees.merge(written(account, transfer, transfers), -1, Integer::sum);
+        }
+        degrees.merge(initialBalance, -1, Integer::sum);
+        degrees.merge(finalBalance, 1, Integer::sum);
+
+        // every version must be read by exactly one transfer, except the final one
+        for (Map.Entry<Integer, Integer> degree : degrees.entrySet()) {
+            if (degree.getValue() != 0) {
+                System.out.println("[StressChecker.chain] account #" + account + ": balance " + degree.getKey()
+                        + " read " + Math.abs(degree.getValue()) + (degree.getValue() > 0 ? " more" : " fewer")
+                        + " times than written (lost update or dirty read)");
+                return null;
+            }
+        }
+
+        // Hierholzer's algorithm from the initial balance, splicing in the detours around repeated balances
+        ArrayDeque<Integer> balances = new ArrayDeque<>();
+        ArrayDeque<Integer> path = new ArrayDeque<>();
+        ArrayDeque<Integer> chain = new ArrayDeque<>();
+        balances.push(initialBalance);
+        while (!balances.isEmpty()) {
+            ArrayDeque<Integer> leaving = edges.get(balances.peek());
+            if (leaving != null && !leaving.isEmpty()) {
+                int transfer = leaving.poll();
+                path.push(transfer);
+                balances.push(written(account, transfer, transfers));
+            } else {
+                balances.pop();
+                if (!path.isEmpty()) {
+                    chain.push(path.pop());
+                }
+            }
+        }
+
+        if (chain.size() != accountTransfers.size()) {
+            System.out.println("[StressChecker.chain] account #" + account + ": " + (accountTransfers.size() - chain.size())
+                    + " transfers read balances never written by a committed transfer (dirty read)");
+            return null;
+        }
+        return chain.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns whether a chain passes the same balance twice, so its order is not the only possible one.
+     *
+     * @param account the account number
+     * @param chain the transfers of the account in chain order
+     * @param transfers the flattened history
+     * @return true if a balance repeats
+     */
+    private static boolean repeatsBalance(int account, int[] chain, int[] transfers) {
+        Set<Integer> balances = new HashSet<>();
+        for (int transfer : chain) {
+            if (!balances.add(read(account, transfer, transfers))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int read(int account, int transfer, int[] transfers) {
+        return transfers[transfer * 5] == account ? transfers[transfer * 5 + 2] : transfers[transfer * 5 + 3];
+    }
+
+    private static int written(int account, int transfer, int[] transfers) {
+        return transfers[transfer * 5] == account
+                ? transfers[transfer * 5 + 2] - transfers[transfer * 5 + 4]
+                : transfers[transfer * 5 + 3] + transfers[transfer * 5 + 4];
+    }
+
+    public static void main(String[] args) {
+        String propertiesFile;
+
+        try {
+            propertiesFile = args[0];
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            propertiesFile = "resources/transaction_client.properties";
+        }
+
+        new StressChecker(propertiesFile).run();
+    }
+}
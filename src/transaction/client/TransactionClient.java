@@ -2,15 +2,20 @@ package transaction.client;
 
 import transaction.comm.Message;
 import transaction.comm.MessageTypes;
+import transaction.server.lock.LockType;
 import transaction.server.lock.TransactionAbortedException;
+import transaction.server.transaction.IsolationLevel;
+import transaction.server.transaction.Priority;
 import utils.PropertyHandler;
 
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -25,9 +30,37 @@ public class TransactionClient implements Runnable {
     private int initialBalance;
     private final String serverIP;
     private int serverPort;
+
+    // path of the server's Unix domain socket for a client on the same host, null to connect over TCP
+    private final String unixSocketPath;
     private int numberOfTransactions;
+    private int numberOfShards;
     private Properties properties;
 
+    // policy deciding when aborted transactions are restarted
+    private RetryPolicy retryPolicy;
+
+    // maximum time in milliseconds to wait for the conflicting transaction before a restart, 0 to not wait
+    private long restartOnReleaseTimeout;
+
+    // flag for submitting transfers as predeclared transactions, executed by the server in deterministic mode
+    private boolean deterministic;
+
+    // flag for declaring the locks of a transaction when opening it (conservative 2PL)
+    private boolean predeclareLocks;
+
+    // flag for transferring with commutative increments instead of reading and writing the balances
+    private boolean useIncrements;
+
+    // isolation level of the transfers, deciding how long their read locks are held
+    private IsolationLevel isolationLevel;
+
+    // priority of the transfers in the lock scheduler
+    private Priority priority;
+
+    // whether the transfers read under leases, serving repeated reads from a client side cache
+    private boolean readLeases;
+
     /**
      * Constructs a new TransactionClient object with the specified properties file.
      * @param propertiesFile the name of the properties file to read from
@@ -55,6 +88,9 @@ public class TransactionClient implements Runnable {
             System.exit(1);
         }
 
+        String unixSocketPath = properties.getProperty("UNIX_SOCKET_PATH");
+        this.unixSocketPath = unixSocketPath != null && !unixSocketPath.isEmpty() ? unixSocketPath : null;
+
         try {
             numberOfAccounts = Integer.parseInt(properties.getProperty("NUMBER_OF_ACCOUNTS"));
         } catch (NumberFormatException ex) {
@@ -78,6 +114,38 @@ public class TransactionClient implements Runnable {
             ex.printStackTrace();
             System.exit(1);
         }
+
+        try {
+            numberOfShards = Integer.parseInt(properties.getProperty("NUMBER_OF_SHARDS", "1"));
+        } catch (NumberFormatException ex) {
+            System.out.println("[TransactionClient.TransactionClient] couldn't read Number of Shards");
+            ex.printStackTrace();
+            System.exit(1);
+        }
+
+        try {
+            if ("IMMEDIATE".equals(properties.getProperty("RETRY_POLICY", "BACKOFF"))) {
+                retryPolicy = new ImmediateRetryPolicy();
+            } else {
+                retryPolicy = new ExponentialBackoffRetryPolicy(
+                        Long.parseLong(properties.getProperty("RETRY_BASE_DELAY", "10")),
+                        Long.parseLong(properties.getProperty("RETRY_MAX_DELAY", "1000")),
+                        Integer.parseInt(properties.getProperty("MAX_RETRIES", "10")));
+            }
+            restartOnReleaseTimeout = Long.parseLong(properties.getProperty("RESTART_ON_RELEASE_TIMEOUT", "1000"));
+            deterministic = "DETERMINISTIC".equals(properties.getProperty("EXECUTION_MODE", "INTERACTIVE"));
+            predeclareLocks = Boolean.parseBoolean(properties.getProperty("PREDECLARE_LOCKS", "false"));
+            useIncrements = Boolean.parseBoolean(properties.getProperty("USE_INCREMENTS", "false"));
+            isolationLevel = IsolationLevel.valueOf(properties.getProperty("ISOLATION_LEVEL", "SERIALIZABLE"));
+            priority = Priority.valueOf(properties.getProperty("PRIORITY", "NORMAL"));
+            readLeases = Boolean.parseBoolean(properties.getProperty("READ_LEASES", "false"));
+        } catch (IllegalArgumentException ex) {
+            // covers malformed numbers as well as unknown isolation levels and priorities
+            System.out.println("[TransactionClient.TransactionClient] couldn't read Retry Policy, isolation level"
+                    + " or priority");
+            ex.printStackTrace();
+            System.exit(1);
+        }
     }
 
     /*
@@ -86,7 +154,7 @@ public class TransactionClient implements Runnable {
     @Override
     public void run() {
         // Create the transaction server proxy
-        TransactionServerProxy transactionServerProxy;
+        TransactionProxy transactionServerProxy;
 
         List<Thread> transactionThreadList = new ArrayList<>();
 
@@ -105,10 +173,24 @@ public class TransactionClient implements Runnable {
 
             int amount = 5;
 
-            // Create the transaction server proxy
-            transactionServerProxy = new TransactionServerProxy(serverIP, serverPort);
-
-            TransactionThread transaction = new TransactionThread(accountA, accountB, amount, transactionServerProxy);
+            // Create the transaction server proxy, routing to the owning shards if the accounts are partitioned
+            if (numberOfShards > 1) {
+                transactionServerProxy = new ShardedTransactionServerProxy(serverIP, serverPort, numberOfShards,
+                        unixSocketPath);
+            } else {
+                transactionServerProxy = new TransactionServerProxy(serverIP, serverPort, unixSocketPath);
+            }
+            transactionServerProxy.setIsolationLevel(isolationLevel);
+            transactionServerProxy.setPriority(priority);
+            transactionServerProxy.setReadLeases(readLeases);
+
+            Runnable transaction;
+            if (deterministic) {
+                transaction = new DeterministicTransferThread(accountA, accountB, amount,
+                        new TransactionServerProxy(serverIP, serverPort, unixSocketPath));
+            } else {
+                transaction = new TransactionThread(accountA, accountB, amount, transactionServerProxy);
+            }
             Thread transactionThread = new Thread(transaction);
             transactionThread.start();
 
@@ -126,21 +208,24 @@ public class TransactionClient implements Runnable {
             }
         }
 
-        Socket dbConnection = null;
-        ObjectOutputStream writeToNet = null;
+        // shut down every shard
+        for (int shard = 0; shard < numberOfShards; shard++) {
+            Socket dbConnection = null;
+            ObjectOutputStream writeToNet = null;
 
-        try {
-            dbConnection = new Socket(serverIP, serverPort);
-            writeToNet = new ObjectOutputStream(dbConnection.getOutputStream());
-            writeToNet.writeObject(new Message(MessageTypes.SHUTDOWN, null));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } finally {
             try {
-                writeToNet.close();
-                dbConnection.close();
+                dbConnection = new Socket(serverIP, serverPort + shard);
+                writeToNet = new ObjectOutputStream(dbConnection.getOutputStream());
+                writeToNet.writeObject(new Message(MessageTypes.SHUTDOWN, null));
             } catch (IOException e) {
-                // we don't care
+                throw new RuntimeException(e);
+            } finally {
+                try {
+                    writeToNet.close();
+                    dbConnection.close();
+                } catch (IOException e) {
+                    // we don't care
+                }
             }
         }
     }
@@ -165,7 +250,7 @@ public class TransactionClient implements Runnable {
         private final int accountA;
         private final int accountB;
         private final int amount;
-        private final TransactionServerProxy transactionServerProxy;
+        private final TransactionProxy transactionServerProxy;
 
         /**
          * Constructs a transaction executor with the specified parameters.
@@ -174,7 +259,7 @@ public class TransactionClient implements Runnable {
          * @param amount the amount to be transferred in the transaction
          * @param transactionServerProxy the transaction server proxy to use for the transaction
          */
-        public TransactionThread(int accountA, int accountB, int amount, TransactionServerProxy transactionServerProxy) {
+        public TransactionThread(int accountA, int accountB, int amount, TransactionProxy transactionServerProxy) {
             this.accountA = accountA;
             this.accountB = accountB;
             this.amount = amount;
@@ -187,36 +272,121 @@ public class TransactionClient implements Runnable {
          */
         @Override
         public void run() {
+            int attempt = 0;
+
+            // both accounts are read and then written, or only incremented
+            LockType lockType = useIncrements ? LockType.INCREMENT_LOCK : LockType.WRITE_LOCK;
+            Map<Integer, LockType> declaredLocks = new HashMap<>();
+            declaredLocks.put(accountA, lockType);
+            declaredLocks.put(accountB, lockType);
+
             while (true) {
                 // Start a new transaction
-                transactionServerProxy.openTransaction();
+                if (predeclareLocks) {
+                    transactionServerProxy.openTransaction(declaredLocks);
+                } else {
+                    transactionServerProxy.openTransaction();
+                }
+
+                Integer conflictingTransactionId = null;
 
                 try {
-                    // Read the balance of account A
-                    int accountABalance = transactionServerProxy.read(accountA);
-                    int deductedBalance = accountABalance - amount;
+                    if (useIncrements) {
+                        // Withdraw from account A, unless its balance doesn't cover the amount
+                        if (!transactionServerProxy.increment(accountA, -amount)) {
+                            transactionServerProxy.closeTransaction();
+                            System.out.println("Transfer rejected, insufficient balance.");
+                            break;
+                        }
+
+                        // Deposit to account B, unless it was closed meanwhile
+                        if (!transactionServerProxy.increment(accountB, amount)) {
+                            transactionServerProxy.abortTransaction();
+                            System.out.println("Transfer rejected, account #" + accountB + " doesn't exist.");
+                            break;
+                        }
+                    } else {
+                        // Read the balance of account A
+                        int accountABalance = transactionServerProxy.read(accountA);
+                        int deductedBalance = accountABalance - amount;
 
-                    // Write the new balance of account A
-                    transactionServerProxy.write(accountA, deductedBalance);
+                        // Write the new balance of account A
+                        transactionServerProxy.write(accountA, deductedBalance);
 
-                    // Read the balance of account B
-                    int accountBBalance = transactionServerProxy.read(accountB);
+                        // Read the balance of account B
+                        int accountBBalance = transactionServerProxy.read(accountB);
 
-                    // Write the new balance of account B
-                    transactionServerProxy.write(accountB, accountBBalance + amount);
+                        // Write the new balance of account B
+                        transactionServerProxy.write(accountB, accountBBalance + amount);
+                    }
 
                     // Close the transaction
                     int status = transactionServerProxy.closeTransaction();
-                    if (status == TransactionServerProxy.TRANSACTION_COMMITTED) {
+                    if (status == MessageTypes.TRANSACTION_COMMITTED) {
                         System.out.println("Transaction committed successfully.");
                         break;
-                    } else {
-                        System.out.println("Transaction aborted. Retrying...");
                     }
                 } catch (TransactionAbortedException ex) {
-                    // If the transaction is aborted, retry
-                    System.out.println("Transaction aborted. Retrying...");
+                    conflictingTransactionId = ex.getConflictingTransactionId();
+                }
+
+                // The transaction is aborted, ask the retry policy when to retry
+                long delay = retryPolicy.getRetryDelay(++attempt);
+                if (delay < 0) {
+                    System.out.println("Transaction aborted. Giving up after " + attempt + " attempts.");
+                    break;
                 }
+                System.out.println("Transaction aborted. Retrying...");
+
+                // restart only once the transaction we conflicted with released its locks
+                if (conflictingTransactionId != null && restartOnReleaseTimeout > 0) {
+                    transactionServerProxy.awaitTransaction(conflictingTransactionId, restartOnReleaseTimeout);
+                }
+
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    // we don't care
+                }
+            }
+        }
+    }
+
+    /**
+     * This class represents a transfer submitted as a predeclared transaction, which the server orders
+     * and executes in deterministic mode without aborts.
+     */
+    private class DeterministicTransferThread implements Runnable {
+
+        private final int accountA;
+        private final int accountB;
+        private final int amount;
+        private final TransactionServerProxy transactionServerProxy;
+
+        /**
+         * Constructs a transfer executor with the specified parameters.
+         * @param accountA the account to withdraw from
+         * @param accountB the account to deposit to
+         * @param amount the amount to be transferred
+         * @param transactionServerProxy the transaction server proxy to submit the transfer to
+         */
+        public DeterministicTransferThread(int accountA, int accountB, int amount, TransactionServerProxy transactionServerProxy) {
+            this.accountA = accountA;
+            this.accountB = accountB;
+            this.amount = amount;
+            this.transactionServerProxy = transactionServerProxy;
+        }
+
+        /**
+         * Submits the transfer and waits for its result.
+         */
+        @Override
+        public void run() {
+            int status = transactionServerProxy.transfer(accountA, accountB, amount);
+            if (status == MessageTypes.TRANSACTION_COMMITTED) {
+                System.out.println("Transaction committed successfully.");
+            } else {
+                System.out.println("Transfer failed.");
             }
         }
     }
@@ -0,0 +1,149 @@
+package transaction.client;
+
+import transaction.server.lock.LockType;
+import transaction.server.lock.TransactionAbortedException;
+import transaction.server.lock.TransactionRolledBackException;
+import transaction.server.transaction.IsolationLevel;
+import transaction.server.transaction.Priority;
+
+import java.util.Map;
+
+/**
+ * The interface [TransactionProxy] defines the operations a client uses to run a transaction,
+ * independent of how the transaction reaches the server(s).
+ */
+public interface TransactionProxy {
+
+    /**
+     * Opens a new transaction and returns its ID.
+     *
+     * @return the ID of the opened transaction
+     */
+    int openTransaction();
+
+    /**
+     * Opens a new transaction that declares the accounts and lock types it will use. Servers supporting
+     * it acquire all of them up front, so the transaction cannot deadlock. By default the declaration
+     * is ignored and locks are taken on access.
+     *
+     * @param declaredLocks the account numbers and lock types the transaction will use
+     * @return the ID of the opened transaction
+     */
+    default int openTransaction(Map<Integer, LockType> declaredLocks) {
+        return openTransaction();
+    }
+
+    /**
+     * Sets the isolation level of the transactions opened from now on, SERIALIZABLE by default.
+     *
+     * @param isolationLevel the isolation level deciding how long read locks are held
+     */
+    void setIsolationLevel(IsolationLevel isolationLevel);
+
+    /**
+     * Sets the priority of the transactions opened from now on in the lock scheduler, NORMAL by default.
+     *
+     * @param priority the lane of the transactions in the lock scheduler
+     */
+    void setPriority(Priority priority);
+
+    /**
+     * Enables or disables read leases, disabled by default. With leases, repeated reads of a balance
+     * are served from a client side cache until the lease the server granted on it expires.
+     *
+     * @param readLeases true to read under leases, false otherwise
+     */
+    void setReadLeases(boolean readLeases);
+
+    /**
+     * Requests that the current transaction be closed.
+     *
+     * @return the status of the transaction, either TRANSACTION_COMMITTED or TRANSACTION_ABORTED
+     */
+    int closeTransaction();
+
+    /**
+     * Aborts the current transaction, discarding its changes.
+     *
+     * @return the status of the transaction, TRANSACTION_ABORTED
+     */
+    int abortTransaction();
+
+    /**
+     * Reads the balance of the account with the specified account number.
+     *
+     * @param accountNumber the account number to read from
+     * @return the balance of the account
+     *
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    int read(int accountNumber) throws TransactionAbortedException;
+
+    /**
+     * Writes the specified amount to the account with the given account number.
+     *
+     * @param accountNumber the account number to write to
+     * @param amount the amount to write
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    void write(int accountNumber, int amount) throws TransactionAbortedException;
+
+    /**
+     * Adds the specified amount to the balance of the account with the given account number when the transaction
+     * commits. Increments of the same account by concurrent transactions do not conflict with each other.
+     *
+     * @param accountNumber the account number to increment
+     * @param amount the amount to add, negative to withdraw
+     * @return true if the increment is pending, false if the balance doesn't cover the withdrawal
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    boolean increment(int accountNumber, int amount) throws TransactionAbortedException;
+
+    /**
+     * Creates an account with the given initial balance. Other transactions can use it once the current
+     * transaction commits, it is removed again if the transaction aborts.
+     *
+     * @param initialBalance the initial balance, not negative
+     * @return the number of the new account, or null if the initial balance was rejected
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    Integer createAccount(int initialBalance) throws TransactionAbortedException;
+
+    /**
+     * Closes the account with the given account number when the current transaction commits. Only accounts
+     * with a balance of 0, as seen by the transaction, can be closed.
+     *
+     * @param accountNumber the account number to close
+     * @return true if the account is closed at commit, false if it doesn't exist or has a balance
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    boolean closeAccount(int accountNumber) throws TransactionAbortedException;
+
+    /**
+     * Sets a savepoint in the current transaction. Once a transaction has a savepoint, a conflict rolls it back
+     * to its latest savepoint where possible, throwing a {@link TransactionRolledBackException} from the
+     * operation that conflicted; the transaction then stays open and is continued from the savepoint.
+     *
+     * @return the id of the savepoint
+     */
+    int setSavepoint();
+
+    /**
+     * Rolls the current transaction back to a savepoint: the writes and increments made after it are undone
+     * and the locks acquired after it are released. The savepoint stays valid, later ones are discarded.
+     *
+     * @param savepointId the id of the savepoint
+     * @throws TransactionAbortedException if the transaction was aborted instead
+     */
+    void rollbackTo(int savepointId) throws TransactionAbortedException;
+
+    /**
+     * Waits until the given transaction completed on the server, or the timeout elapses.
+     * Used to restart an aborted transaction only after the transaction it conflicted with released its locks.
+     *
+     * @param transactionId the id of the conflicting transaction, as hinted by the abort
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true if the transaction completed, false otherwise
+     */
+    boolean awaitTransaction(int transactionId, long timeout);
+}
@@ -1,13 +1,21 @@
 package transaction.client;
 
+import transaction.comm.Connection;
 import transaction.comm.Message;
 import transaction.comm.MessageTypes;
+import transaction.server.lock.LockType;
 import transaction.server.lock.TransactionAbortedException;
+import transaction.server.lock.TransactionRolledBackException;
+import transaction.server.transaction.IsolationLevel;
+import transaction.server.transaction.Priority;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The class [TransactionServerProxy] represents a client proxy for the Transaction Server that
@@ -15,16 +23,44 @@ import java.net.Socket;
  *
  * @author srinivas
  */
-public class TransactionServerProxy implements MessageTypes {
+public class TransactionServerProxy implements TransactionProxy, MessageTypes {
+
+    // number of times the decision on a transaction is sent, on a new connection after the first one broke
+    private static final int MAX_DECISION_ATTEMPTS = 10;
+
+    // time in milliseconds to wait before reconnecting to deliver a decision
+    private static final long DECISION_RETRY_DELAY = 100;
 
     // network related fields
     private final String host;
     private final int port;
-    private Socket dbConnection;
+    private final String unixSocketPath;
+    private Connection dbConnection;
     private ObjectOutputStream writeToNet;
     private ObjectInputStream readFromNet;
+
+    // whether the server voted to abort the current transaction, ending it and closing the connection
+    private boolean voteAborted;
     private Integer transactionID = 0;
 
+    // timestamp of the first run of a transaction that is being restarted after an abort, null otherwise
+    private Integer restartTimestamp = null;
+
+    // isolation level of the transactions opened by this proxy
+    private IsolationLevel isolationLevel = IsolationLevel.SERIALIZABLE;
+
+    // priority of the transactions opened by this proxy in the lock scheduler
+    private Priority priority = Priority.NORMAL;
+
+    // balances read under a lease, shared with the other proxies of the same server, or null without leases
+    private LeaseCache leaseCache = null;
+
+    // accounts written or incremented by the current transaction, these are never served from the cache
+    private final Set<Integer> writtenAccounts = new HashSet<>();
+
+    // balances and lease expiries the current transaction read from the cache, it must commit before they expire
+    private final Map<Integer, long[]> cachedReads = new HashMap<>();
+
     /**
      * Constructs a new TransactionServerProxy object with the given host and port.
      *
@@ -32,8 +68,21 @@ public class TransactionServerProxy implements MessageTypes {
      * @param port the port number of the transaction server
      */
     public TransactionServerProxy(String host, int port) {
+        this(host, port, null);
+    }
+
+    /**
+     * Constructs a new TransactionServerProxy object connecting over the server's Unix domain socket,
+     * for clients on the same host as the server.
+     *
+     * @param host the host name of the transaction server
+     * @param port the port number of the transaction server
+     * @param unixSocketPath the path of the server's Unix domain socket, or null to connect over TCP
+     */
+    public TransactionServerProxy(String host, int port, String unixSocketPath) {
         this.host = host;
         this.port = port;
+        this.unixSocketPath = unixSocketPath;
     }
 
     /**
@@ -41,9 +90,25 @@ public class TransactionServerProxy implements MessageTypes {
      *
      * @return the ID of the opened transaction
      */
+    @Override
     public int openTransaction() {
+        return openTransaction(null);
+    }
+
+    /**
+     * Opens a new transaction that declares the accounts and lock types it will use,
+     * the server acquires all of them before returning the ID.
+     *
+     * @param declaredLocks the account numbers and lock types, or null to lock on access
+     * @return the ID of the opened transaction
+     */
+    @Override
+    public int openTransaction(Map<Integer, LockType> declaredLocks) {
+        writtenAccounts.clear();
+        cachedReads.clear();
+
         try {
-            dbConnection = new Socket(host, port);
+            dbConnection = Connection.open(host, port, unixSocketPath);
             writeToNet = new ObjectOutputStream(dbConnection.getOutputStream());
             readFromNet = new ObjectInputStream(dbConnection.getInputStream());
         } catch (IOException ex) {
@@ -52,8 +117,18 @@ public class TransactionServerProxy implements MessageTypes {
         }
 
         try {
-            writeToNet.writeObject(new Message(OPEN_TRANSACTION, null));
-            transactionID = (Integer) readFromNet.readObject();
+            if (declaredLocks == null && isolationLevel == IsolationLevel.SERIALIZABLE && priority == Priority.NORMAL) {
+                writeToNet.writeObject(new Message(OPEN_TRANSACTION, restartTimestamp));
+            } else {
+                writeToNet.writeObject(new Message(OPEN_TRANSACTION, new Object[]{restartTimestamp,
+                        declaredLocks != null ? new HashMap<>(declaredLocks) : null, isolationLevel, priority}));
+            }
+            int[] opened = (int[]) readFromNet.readObject();
+            transactionID = opened[0];
+
+            // a restarted transaction keeps the timestamp of its first run, so it is not starved by younger ones,
+            // unless the server refused the claimed timestamp and gave it a new one
+            restartTimestamp = opened[1];
         } catch (IOException | ClassNotFoundException | NullPointerException ex) {
             System.err.println("[TransactionServerProxy.openTransaction] Error occurred when writing/reading messages");
             ex.printStackTrace();
@@ -61,17 +136,109 @@ public class TransactionServerProxy implements MessageTypes {
         return transactionID;
     }
 
+    /**
+     * Sets the timestamp the next transaction is opened with, as if it was the restart of an aborted one.
+     *
+     * @param restartTimestamp the timestamp, or null for a new one
+     */
+    public void setRestartTimestamp(Integer restartTimestamp) {
+        this.restartTimestamp = restartTimestamp;
+    }
+
+    /**
+     * Gets the timestamp the next transaction is opened with, the one of the first run of the current transaction
+     * until it committed.
+     *
+     * @return the timestamp, or null for a new one
+     */
+    public Integer getRestartTimestamp() {
+        return restartTimestamp;
+    }
+
+    /**
+     * Sets the isolation level of the transactions opened from now on.
+     *
+     * @param isolationLevel the isolation level deciding how long read locks are held
+     */
+    @Override
+    public void setIsolationLevel(IsolationLevel isolationLevel) {
+        this.isolationLevel = isolationLevel;
+    }
+
+    /**
+     * Sets the priority of the transactions opened from now on in the lock scheduler.
+     *
+     * @param priority the lane of the transactions in the lock scheduler
+     */
+    @Override
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Enables or disables read leases. With leases, balances read are cached until their lease expires
+     * and repeated reads of them are served from the cache.
+     *
+     * @param readLeases true to read under leases, false otherwise
+     */
+    @Override
+    public void setReadLeases(boolean readLeases) {
+        leaseCache = readLeases ? LeaseCache.forServer(host, port) : null;
+    }
+
+    /**
+     * Checks that the leases of all balances the current transaction read from the cache are still live by the
+     * clock of this client, to abort early on an expired one. Clocks drift and responses take time, so the server
+     * still validates the cached balances when the transaction commits, see {@link #getCachedBalances()}.
+     *
+     * @return true if the cached reads are still valid, false otherwise
+     */
+    private boolean leasesValid() {
+        long now = System.currentTimeMillis();
+        for (long[] lease : cachedReads.values()) {
+            if (lease[1] <= now) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the balances the current transaction read from the cache, sent along at commit for the server to
+     * validate against the committed ones.
+     *
+     * @return the cached balances by account number, or null if none were read from the cache
+     */
+    private HashMap<Integer, Integer> getCachedBalances() {
+        if (cachedReads.isEmpty()) {
+            return null;
+        }
+
+        HashMap<Integer, Integer> cachedBalances = new HashMap<>();
+        cachedReads.forEach((accountNumber, lease) -> cachedBalances.put(accountNumber, (int) lease[0]));
+        return cachedBalances;
+    }
+
     /**
      * Requests that the current transaction be closed.
      *
      * @return the status of the transaction, either TRANSACTION_COMMITTED or TRANSACTION_ABORTED
      */
+    @Override
     public int closeTransaction() {
-        int returnStatus = TRANSACTION_COMMITTED;
+        int returnStatus = TRANSACTION_ABORTED;
+
+        // a cached read whose lease expired may be stale by now
+        if (!leasesValid()) {
+            System.out.println("[TransactionServerProxy.closeTransaction] read lease expired, aborting");
+            abortTransaction();
+            return TRANSACTION_ABORTED;
+        }
 
         try {
-            writeToNet.writeObject(new Message(CLOSE_TRANSACTION, null));
+            writeToNet.writeObject(new Message(CLOSE_TRANSACTION, getCachedBalances()));
             returnStatus = (int) readFromNet.readObject();
+            restartTimestamp = null;
 
             readFromNet.close();
             writeToNet.close();
@@ -91,7 +258,18 @@ public class TransactionServerProxy implements MessageTypes {
      *
      * @throws TransactionAbortedException if the transaction was aborted
      */
+    @Override
     public int read(int accountNumber) throws TransactionAbortedException {
+        // serve balances this transaction hasn't changed from the cache while their lease is live
+        if (leaseCache != null && !writtenAccounts.contains(accountNumber)) {
+            long[] lease = leaseCache.get(accountNumber);
+            if (lease != null) {
+                cachedReads.put(accountNumber, lease);
+                return (int) lease[0];
+            }
+            return readLeased(accountNumber);
+        }
+
         Message message = new Message(READ_REQUEST, accountNumber);
 
         try {
@@ -100,12 +278,50 @@ public class TransactionServerProxy implements MessageTypes {
         } catch (Exception ex) {
             System.err.println("[TransactionServerProxy.read] Error occurred");
             ex.printStackTrace();
+            // the server aborts the transaction of a broken connection
+            message = new Message(TRANSACTION_ABORTED, null);
         }
 
         if(message.getType() == READ_REQUEST_RESPONSE) {
             return (int) message.getContent();
         } else {
-            throw new TransactionAbortedException();
+            throw toException(message);
+        }
+    }
+
+    /**
+     * Reads the balance of an account asking for a lease on it, and caches the balance if one is granted.
+     *
+     * @param accountNumber the account number to read from
+     * @return the balance of the account
+     *
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    private int readLeased(int accountNumber) throws TransactionAbortedException {
+        Message message = new Message(READ_LEASE_REQUEST, accountNumber);
+
+        // the lease is counted from sending the request, so it never outlives the one on the server
+        long requestTime = System.currentTimeMillis();
+        try {
+            writeToNet.writeObject(message);
+            message = (Message) readFromNet.readObject();
+        } catch (Exception ex) {
+            System.err.println("[TransactionServerProxy.readLeased] Error occurred");
+            ex.printStackTrace();
+            // the server aborts the transaction of a broken connection
+            message = new Message(TRANSACTION_ABORTED, null);
+        }
+
+        if(message.getType() == READ_LEASE_RESPONSE) {
+            Object[] content = (Object[]) message.getContent();
+            int balance = (int) content[0];
+            long leaseDuration = (long) content[1];
+            if (leaseDuration > 0) {
+                leaseCache.put(accountNumber, balance, requestTime + leaseDuration);
+            }
+            return balance;
+        } else {
+            throw toException(message);
         }
     }
 
@@ -116,7 +332,9 @@ public class TransactionServerProxy implements MessageTypes {
      * @param amount the amount to write
      * @throws TransactionAbortedException if the transaction was aborted
      */
+    @Override
     public void write(int accountNumber, int amount) throws TransactionAbortedException {
+        prepareUpdate(accountNumber);
         Object[] content = new Object[]{accountNumber, amount};
 
         Message message = new Message(WRITE_REQUEST, content);
@@ -127,11 +345,363 @@ public class TransactionServerProxy implements MessageTypes {
             System.out.println("[TransactionServerProxy.write] Error occurred: IOException | ClassNotFoundException");
             ex.printStackTrace();
             System.err.println("\n\n");
+            // the server aborts the transaction of a broken connection
+            message = new Message(TRANSACTION_ABORTED, null);
+        }
+
+        if(message.getType() == TRANSACTION_ABORTED || message.getType() == TRANSACTION_ROLLED_BACK) {
+            // transaction is aborted, or rolled back to a savepoint
+            throw toException(message);
         }
+    }
+
+    /**
+     * Adds the specified amount to the balance of the account with the given account number at commit.
+     *
+     * @param accountNumber the account number to increment
+     * @param amount the amount to add, negative to withdraw
+     * @return true if the increment is pending, false if the balance doesn't cover the withdrawal
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    @Override
+    public boolean increment(int accountNumber, int amount) throws TransactionAbortedException {
+        prepareUpdate(accountNumber);
+        Message message = new Message(INCREMENT_REQUEST, new Object[]{accountNumber, amount});
+
+        try {
+            writeToNet.writeObject(message);
+            message = (Message) readFromNet.readObject();
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("[TransactionServerProxy.increment] Error occurred");
+            ex.printStackTrace();
+            // the server aborts the transaction of a broken connection
+            message = new Message(TRANSACTION_ABORTED, null);
+        }
+
+        if(message.getType() == INCREMENT_RESPONSE) {
+            return (boolean) message.getContent();
+        } else {
+            throw toException(message);
+        }
+    }
+
+    /**
+     * Creates an account with the given initial balance, on commit of the current transaction.
+     *
+     * @param initialBalance the initial balance, not negative
+     * @return the number of the new account, or null if the initial balance was rejected
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    @Override
+    public Integer createAccount(int initialBalance) throws TransactionAbortedException {
+        Message message = new Message(CREATE_ACCOUNT, initialBalance);
+
+        try {
+            writeToNet.writeObject(message);
+            message = (Message) readFromNet.readObject();
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("[TransactionServerProxy.createAccount] Error occurred");
+            ex.printStackTrace();
+            // the server aborts the transaction of a broken connection
+            message = new Message(TRANSACTION_ABORTED, null);
+        }
+
+        if (message.getType() == CREATE_ACCOUNT_RESPONSE) {
+            return (Integer) message.getContent();
+        } else {
+            throw toException(message);
+        }
+    }
+
+    /**
+     * Closes the account with the given account number, on commit of the current transaction.
+     *
+     * @param accountNumber the account number to close
+     * @return true if the account is closed at commit, false if it doesn't exist or has a balance
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    @Override
+    public boolean closeAccount(int accountNumber) throws TransactionAbortedException {
+        prepareUpdate(accountNumber);
+        Message message = new Message(CLOSE_ACCOUNT, accountNumber);
 
-        if(message.getType() == TRANSACTION_ABORTED) {
-            // transaction is aborted
+        try {
+            writeToNet.writeObject(message);
+            message = (Message) readFromNet.readObject();
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("[TransactionServerProxy.closeAccount] Error occurred");
+            ex.printStackTrace();
+            // the server aborts the transaction of a broken connection
+            message = new Message(TRANSACTION_ABORTED, null);
+        }
+
+        if (message.getType() == CLOSE_ACCOUNT_RESPONSE) {
+            return (boolean) message.getContent();
+        } else {
+            throw toException(message);
+        }
+    }
+
+    /**
+     * Sets a savepoint in the current transaction.
+     *
+     * @return the id of the savepoint
+     */
+    @Override
+    public int setSavepoint() {
+        int savepointId = 0;
+
+        try {
+            writeToNet.writeObject(new Message(SAVEPOINT, null));
+            savepointId = (int) readFromNet.readObject();
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("[TransactionServerProxy.setSavepoint] Error occurred");
+            ex.printStackTrace();
+        }
+        return savepointId;
+    }
+
+    /**
+     * Rolls the current transaction back to a savepoint.
+     *
+     * @param savepointId the id of the savepoint
+     * @throws TransactionAbortedException if the transaction was aborted instead
+     */
+    @Override
+    public void rollbackTo(int savepointId) throws TransactionAbortedException {
+        Message message = new Message(ROLLBACK_TO, savepointId);
+
+        try {
+            writeToNet.writeObject(message);
+            message = (Message) readFromNet.readObject();
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("[TransactionServerProxy.rollbackTo] Error occurred");
+            ex.printStackTrace();
+            // the server aborts the transaction of a broken connection
+            message = new Message(TRANSACTION_ABORTED, null);
+        }
+
+        if (message.getType() != TRANSACTION_ROLLED_BACK) {
+            throw toException(message);
+        }
+    }
+
+    /**
+     * Converts a response rejecting a request into the exception thrown to the caller.
+     *
+     * @param message the response, TRANSACTION_ABORTED or TRANSACTION_ROLLED_BACK
+     * @return the exception, a {@link TransactionRolledBackException} if the transaction is still open
+     */
+    private static TransactionAbortedException toException(Message message) {
+        if (message.getType() == TRANSACTION_ROLLED_BACK) {
+            Object[] content = (Object[]) message.getContent();
+            return new TransactionRolledBackException((int) content[0], (Integer) content[1]);
+        }
+        return new TransactionAbortedException((Integer) message.getContent());
+    }
+
+    /**
+     * Drops the cached balance of an account the current transaction is about to change. If the transaction
+     * read the balance from the cache, it is read again under a read lock: the server makes the update wait
+     * for the lease to expire, after which the cached balance may be stale. The transaction is aborted if
+     * the balance changed meanwhile.
+     *
+     * @param accountNumber the account number
+     * @throws TransactionAbortedException if the transaction was aborted
+     */
+    private void prepareUpdate(int accountNumber) throws TransactionAbortedException {
+        if (!writtenAccounts.add(accountNumber) || leaseCache == null) {
+            return;
+        }
+        leaseCache.invalidate(accountNumber);
+
+        long[] cachedRead = cachedReads.remove(accountNumber);
+        if (cachedRead != null && read(accountNumber) != cachedRead[0]) {
+            System.out.println("[TransactionServerProxy.prepareUpdate] cached balance of account #" + accountNumber
+                    + " is stale, aborting");
+            abortTransaction();
             throw new TransactionAbortedException();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Waits on a separate connection until the given transaction completed on the server, or the timeout elapses.
+     *
+     * @param transactionId the id of the transaction to wait for
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true if the transaction completed, false otherwise
+     */
+    @Override
+    public boolean awaitTransaction(int transactionId, long timeout) {
+        boolean completed = false;
+
+        try (Connection connection = Connection.open(host, port, unixSocketPath)) {
+            ObjectOutputStream writeToNet = new ObjectOutputStream(connection.getOutputStream());
+            ObjectInputStream readFromNet = new ObjectInputStream(connection.getInputStream());
+
+            writeToNet.writeObject(new Message(AWAIT_TRANSACTION, new Object[]{transactionId, timeout}));
+            completed = (boolean) readFromNet.readObject();
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("[TransactionServerProxy.awaitTransaction] Error occurred");
+            ex.printStackTrace();
+        }
+        return completed;
+    }
+
+    /**
+     * Submits a predeclared transfer, executed by the server in deterministic mode on a separate connection.
+     * Deterministic transfers are ordered before they run, so they are never aborted by conflicts.
+     *
+     * @param fromAccount the account to withdraw from
+     * @param toAccount the account to deposit to
+     * @param amount the amount to transfer
+     * @return the status of the transfer, either TRANSACTION_COMMITTED or TRANSACTION_ABORTED
+     */
+    public int transfer(int fromAccount, int toAccount, int amount) {
+        int returnStatus = TRANSACTION_ABORTED;
+
+        try (Connection connection = Connection.open(host, port, unixSocketPath)) {
+            ObjectOutputStream writeToNet = new ObjectOutputStream(connection.getOutputStream());
+            ObjectInputStream readFromNet = new ObjectInputStream(connection.getInputStream());
+
+            writeToNet.writeObject(new Message(DETERMINISTIC_TRANSFER, new int[]{fromAccount, toAccount, amount}));
+            returnStatus = (int) readFromNet.readObject();
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("[TransactionServerProxy.transfer] Error occurred");
+            ex.printStackTrace();
+        }
+        return returnStatus;
+    }
+
+    /**
+     * Queries the sum of the committed balances and the number of accounts in an account number range.
+     *
+     * @param fromAccount the first account number of the range
+     * @param toAccount the last account number of the range
+     * @return an array holding the sum and the count
+     */
+    public long[] rangeQuery(int fromAccount, int toAccount) {
+        long[] sumAndCount = new long[]{0, 0};
+
+        try (Connection connection = Connection.open(host, port, unixSocketPath)) {
+            ObjectOutputStream writeToNet = new ObjectOutputStream(connection.getOutputStream());
+            ObjectInputStream readFromNet = new ObjectInputStream(connection.getInputStream());
+
+            writeToNet.writeObject(new Message(RANGE_QUERY, new int[]{fromAccount, toAccount}));
+            sumAndCount = (long[]) ((Message) readFromNet.readObject()).getContent();
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("[TransactionServerProxy.rangeQuery] Error occurred");
+            ex.printStackTrace();
+        }
+        return sumAndCount;
+    }
+
+    /**
+     * Asks the server to prepare the current transaction, the first phase of a two-phase commit.
+     *
+     * @return true if the server votes to commit, false otherwise
+     */
+    public boolean prepareTransaction() {
+        int vote = VOTE_ABORT;
+
+        // a cached read whose lease expired may be stale by now
+        if (!leasesValid()) {
+            return false;
+        }
+
+        voteAborted = false;
+        try {
+            writeToNet.writeObject(new Message(PREPARE, getCachedBalances()));
+            vote = (int) readFromNet.readObject();
+
+            // the server aborted the transaction and closed the connection, no decision is sent for it
+            if (vote == VOTE_ABORT) {
+                voteAborted = true;
+                closeConnection();
+            }
+        } catch (Exception ex) {
+            System.err.println("[TransactionServerProxy.prepareTransaction] Error occurred");
+            ex.printStackTrace();
+        }
+        return vote == VOTE_COMMIT;
+    }
+
+    /**
+     * Commits the prepared transaction, the second phase of a two-phase commit.
+     *
+     * @return the status of the transaction, either TRANSACTION_COMMITTED or TRANSACTION_ABORTED
+     */
+    public int commitTransaction() {
+        return finishTransaction(COMMIT);
+    }
+
+    /**
+     * Aborts the current transaction, discarding its changes on the server.
+     *
+     * @return the status of the transaction, TRANSACTION_ABORTED
+     */
+    @Override
+    public int abortTransaction() {
+        return finishTransaction(ABORT);
+    }
+
+    /**
+     * Sends the given message type ending the transaction and closes the connection. The decision on a prepared
+     * transaction must reach the server, which keeps the transaction and its locks until then, so it is sent
+     * again on a new connection if the current one breaks.
+     *
+     * @param messageType either COMMIT or ABORT
+     * @return the status of the transaction as reported by the server
+     */
+    private int finishTransaction(int messageType) {
+        int returnStatus = TRANSACTION_ABORTED;
+
+        // a transaction that voted to abort is over on the server, which closed the connection
+        if (voteAborted) {
+            voteAborted = false;
+            return TRANSACTION_ABORTED;
+        }
+
+        for (int attempt = 0; attempt < MAX_DECISION_ATTEMPTS; attempt++) {
+            try {
+                if (attempt > 0) {
+                    Thread.sleep(DECISION_RETRY_DELAY);
+                    System.out.println("[TransactionServerProxy.finishTransaction] reconnecting to deliver the decision on #"
+                            + transactionID);
+                    dbConnection = Connection.open(host, port, unixSocketPath);
+                    writeToNet = new ObjectOutputStream(dbConnection.getOutputStream());
+                    readFromNet = new ObjectInputStream(dbConnection.getInputStream());
+                }
+
+                // the transaction id lets a new connection find the transaction
+                writeToNet.writeObject(new Message(messageType, transactionID));
+                returnStatus = (int) readFromNet.readObject();
+                if (returnStatus == TRANSACTION_COMMITTED) {
+                    restartTimestamp = null;
+                }
+
+                closeConnection();
+                return returnStatus;
+            } catch (IOException | ClassNotFoundException ex) {
+                System.err.println("[TransactionServerProxy.finishTransaction] Error delivering the decision on #"
+                        + transactionID + ": " + ex);
+            } catch (InterruptedException ex) {
+                break;
+            }
+        }
+        return returnStatus;
+    }
+
+    /**
+     * Closes the connection to the server, ignoring errors as the server may have closed it already.
+     */
+    private void closeConnection() {
+        try {
+            readFromNet.close();
+            writeToNet.close();
+            dbConnection.close();
+        } catch (IOException ex) {
+            // the connection is gone either way
+        }
+    }
+}
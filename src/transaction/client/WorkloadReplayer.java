@@ -0,0 +1,374 @@
+package transaction.client;
+
+import transaction.comm.MessageTypes;
+import transaction.server.lock.TransactionAbortedException;
+import transaction.server.trace.TraceRecord;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The WorkloadReplayer class feeds a workload trace recorded by a server back to a server, either as fast as
+ * possible or at the recorded speed, and reports throughput, latency and abort rate of the recording next to
+ * the ones of the replay. Every recorded connection is replayed as one transaction on a connection of its own,
+ * up to where it ended in the recording. A transaction that aborted in the recording but not in the replay
+ * is aborted at that point. A restarted transaction is opened once its previous run completed in the replay,
+ * with the timestamp its first run got in the replay, so wait-die decides conflicts the way it did in the
+ * recording. Declared locks and isolation levels
+ * are not recorded, transactions are replayed as serializable and lock on access.
+ */
+public class WorkloadReplayer implements MessageTypes {
+
+    private final String serverIP;
+    private final int serverPort;
+
+    // replay at the recorded speed instead of as fast as possible
+    private final boolean recordedSpeed;
+
+    // number of threads replaying transactions, 0 for the peak concurrency of the recording
+    private final int threads;
+
+    // the recorded transactions, in the order they started
+    private final List<Session> sessions = new ArrayList<>();
+
+    // statistics of the recording
+    private int recordedCommitted = 0;
+    private int recordedAborted = 0;
+    private long recordedDuration = 0;
+    private final List<Long> recordedLatencies = new ArrayList<>();
+
+    // statistics of the replay
+    private final AtomicInteger replayedCommitted = new AtomicInteger();
+    private final AtomicInteger replayedAborted = new AtomicInteger();
+    private final Queue<Long> replayedLatencies = new ConcurrentLinkedQueue<>();
+
+    // recorded transaction ids mapped to the ids the transactions got in the replay
+    private final Map<Integer, Integer> replayedIds = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new replayer for the given trace.
+     *
+     * @param traceFile the trace recorded by a server
+     * @param serverIP the IP of the server to replay to
+     * @param serverPort the port of the server to replay to
+     * @param recordedSpeed true to replay at the recorded speed, false to replay as fast as possible
+     * @param threads the number of threads replaying transactions, 0 for the peak concurrency of the recording
+     * @throws IOException if the trace cannot be read
+     */
+    public WorkloadReplayer(String traceFile, String serverIP, int serverPort, boolean recordedSpeed, int threads)
+            throws IOException {
+        this.serverIP = serverIP;
+        this.serverPort = serverPort;
+        this.recordedSpeed = recordedSpeed;
+        this.threads = threads;
+        load(traceFile);
+    }
+
+    /**
+     * Reads the trace, groups the requests by connection and computes the statistics of the recording.
+     *
+     * @param traceFile the trace recorded by a server
+     * @throws IOException if the trace cannot be read
+     */
+    private void load(String traceFile) throws IOException {
+        Map<Integer, Session> sessionsByConnection = new LinkedHashMap<>();
+        Map<Integer, Long> pendingRequests = new HashMap<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(traceFile)))) {
+            if (in.readInt() != TraceRecord.MAGIC) {
+                throw new IOException("not a workload trace: " + traceFile);
+            }
+            in.readLong();
+
+            while (true) {
+                TraceRecord record;
+                try {
+                    record = TraceRecord.read(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                recordedDuration = Math.max(recordedDuration, record.getTime());
+
+                if (record.isRequest()) {
+                    sessionsByConnection.computeIfAbsent(record.getConnectionId(),
+                            connectionId -> new Session(record.getTime())).requests.add(record);
+                    pendingRequests.put(record.getConnectionId(), record.getTime());
+                    continue;
+                }
+
+                Long requestTime = pendingRequests.remove(record.getConnectionId());
+                if (requestTime != null) {
+                    recordedLatencies.add(record.getTime() - requestTime);
+                }
+                if (record.getMessageType() == OPEN_TRANSACTION) {
+                    sessionsByConnection.get(record.getConnectionId()).transactionId = record.getValue();
+                } else if (record.getMessageType() == TRANSACTION_ABORTED || record.getMessageType() == ABORT) {
+                    recordedAborted++;
+                } else if ((record.getMessageType() == CLOSE_TRANSACTION || record.getMessageType() == COMMIT)
+                        && record.getValue() == TRANSACTION_COMMITTED) {
+                    recordedCommitted++;
+                }
+            }
+        }
+        sessions.addAll(sessionsByConnection.values());
+
+        // chain the restarts of a transaction to its previous run, keyed by the id of its first run
+        Map<Integer, Session> lastRuns = new HashMap<>();
+        for (Session session : sessions) {
+            TraceRecord open = session.requests.get(0);
+            int firstRunId = open.getMessageType() == OPEN_TRANSACTION && open.getValue() != 0
+                    ? open.getValue() : session.transactionId;
+            session.previousRun = lastRuns.put(firstRunId, session);
+        }
+    }
+
+    /**
+     * Replays all recorded transactions and waits for them to complete. At the recorded speed, every transaction
+     * is scheduled at its recorded offset and its requests are paced from there, so a transaction started late
+     * because all threads were busy catches up instead of shifting the rest of the replay.
+     *
+     * @return the wall clock time of the replay in microseconds
+     */
+    public long replay() {
+        int poolSize = threads > 0 ? threads : getPeakConcurrency();
+        ExecutorService executor;
+        long replayStart = System.nanoTime();
+
+        if (recordedSpeed) {
+            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(poolSize);
+            for (Session session : sessions) {
+                long delay = session.startTime - (System.nanoTime() - replayStart) / 1000;
+                scheduler.schedule(() -> replay(session, replayStart + session.startTime * 1000),
+                        delay, TimeUnit.MICROSECONDS);
+            }
+            executor = scheduler;
+        } else {
+            executor = Executors.newFixedThreadPool(poolSize);
+            for (Session session : sessions) {
+                executor.execute(() -> replay(session, System.nanoTime()));
+            }
+        }
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            // we don't care
+        }
+        return (System.nanoTime() - replayStart) / 1000;
+    }
+
+    /**
+     * Replays one recorded transaction.
+     *
+     * @param session the recorded transaction
+     * @param sessionStart the time the replay of the transaction started or was scheduled at, in nanoseconds
+     */
+    private void replay(Session session, long sessionStart) {
+        TransactionServerProxy proxy = new TransactionServerProxy(serverIP, serverPort);
+        boolean open = false;
+
+        try {
+            if (session.previousRun != null) {
+                session.previousRun.done.await();
+            }
+
+            for (TraceRecord request : session.requests) {
+                if (recordedSpeed) {
+                    sleepUntil(sessionStart, request.getTime() - session.startTime);
+                }
+
+                long requestStart = System.nanoTime();
+                switch (request.getMessageType()) {
+                    case OPEN_TRANSACTION:
+                        // a restart keeps the timestamp of its first run
+                        if (request.getValue() != 0) {
+                            proxy.setRestartTimestamp(replayedIds.get(request.getValue()));
+                        }
+                        replayedIds.put(session.transactionId, proxy.openTransaction());
+                        open = true;
+                        break;
+                    case READ_REQUEST:
+                    case READ_LEASE_REQUEST:
+                        proxy.read(request.getAccountNumber());
+                        break;
+                    case WRITE_REQUEST:
+                        proxy.write(request.getAccountNumber(), request.getValue());
+                        break;
+                    case INCREMENT_REQUEST:
+                        proxy.increment(request.getAccountNumber(), request.getValue());
+                        break;
+                    case PREPARE:
+                        if (!proxy.prepareTransaction()) {
+                            throw new TransactionAbortedException();
+                        }
+                        break;
+                    case CLOSE_TRANSACTION:
+                    case COMMIT:
+                        int status = request.getMessageType() == COMMIT
+                                ? proxy.commitTransaction() : proxy.closeTransaction();
+                        (status == TRANSACTION_COMMITTED ? replayedCommitted : replayedAborted).incrementAndGet();
+                        open = false;
+                        break;
+                    case ABORT:
+                        proxy.abortTransaction();
+                        replayedAborted.incrementAndGet();
+                        open = false;
+                        break;
+                    default:
+                        break;
+                }
+                replayedLatencies.add((System.nanoTime() - requestStart) / 1000);
+            }
+
+            // the transaction ended here in the recording, most likely aborted
+            if (open) {
+                proxy.abortTransaction();
+                replayedAborted.incrementAndGet();
+            }
+        } catch (TransactionAbortedException e) {
+            replayedAborted.incrementAndGet();
+        } catch (InterruptedException e) {
+            // we don't care
+        } finally {
+            session.done.countDown();
+        }
+    }
+
+    /**
+     * Prints the statistics of the recording next to the ones of the replay. Recorded request latencies are
+     * measured at the server, from reading a request to writing its response, replayed ones at the replayer,
+     * including the network.
+     *
+     * @param replayDuration the wall clock time of the replay in microseconds
+     */
+    public void report(long replayDuration) {
+        List<Long> latencies = new ArrayList<>(replayedLatencies);
+
+        System.out.println("[WorkloadReplayer.report] replayed " + sessions.size() + " transactions"
+                + (recordedSpeed ? " at recorded speed" : " as fast as possible"));
+        System.out.println(String.format("%-22s %14s %14s", "", "recorded", "replayed"));
+        System.out.println(String.format("%-22s %14d %14d", "committed", recordedCommitted, replayedCommitted.get()));
+        System.out.println(String.format("%-22s %14d %14d", "aborted", recordedAborted, replayedAborted.get()));
+        System.out.println(String.format("%-22s %13.1f%% %13.1f%%", "abort rate",
+                getAbortRate(recordedCommitted, recordedAborted),
+                getAbortRate(replayedCommitted.get(), replayedAborted.get())));
+        System.out.println(String.format("%-22s %14.1f %14.1f", "commits per second",
+                recordedCommitted * 1e6 / Math.max(1, recordedDuration),
+                replayedCommitted.get() * 1e6 / Math.max(1, replayDuration)));
+        System.out.println(String.format("%-22s %14d %14d", "request p50 (us)",
+                getPercentile(recordedLatencies, 50), getPercentile(latencies, 50)));
+        System.out.println(String.format("%-22s %14d %14d", "request p99 (us)",
+                getPercentile(recordedLatencies, 99), getPercentile(latencies, 99)));
+    }
+
+    /**
+     * Returns the highest number of recorded transactions running at the same time.
+     *
+     * @return the peak concurrency, at least 1
+     */
+    private int getPeakConcurrency() {
+        List<long[]> changes = new ArrayList<>();
+        for (Session session : sessions) {
+            changes.add(new long[]{session.startTime, 1});
+            changes.add(new long[]{session.requests.get(session.requests.size() - 1).getTime(), -1});
+        }
+        changes.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        int running = 0;
+        int peak = 1;
+        for (long[] change : changes) {
+            running += (int) change[1];
+            peak = Math.max(peak, running);
+        }
+        return peak;
+    }
+
+    private static double getAbortRate(int committed, int aborted) {
+        return committed + aborted == 0 ? 0 : 100.0 * aborted / (committed + aborted);
+    }
+
+    private static long getPercentile(List<Long> values, int percentile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(values);
+        return values.get(Math.min(values.size() - 1, values.size() * percentile / 100));
+    }
+
+    private static void sleepUntil(long start, long offsetMicros) {
+        long remaining = offsetMicros - (System.nanoTime() - start) / 1000;
+        if (remaining > 0) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                // we don't care
+            }
+        }
+    }
+
+    /**
+     * The requests of one recorded transaction.
+     */
+    private static class Session {
+
+        // time of the first request in microseconds since the start of the recording
+        private final long startTime;
+
+        // the requests, in the order they were sent
+        private final List<TraceRecord> requests = new ArrayList<>();
+
+        // the id the transaction got in the recording
+        private int transactionId;
+
+        // the previous run of a restarted transaction, null for a first run
+        private Session previousRun;
+
+        // released once the replay of the transaction completed
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        Session(long startTime) {
+            this.startTime = startTime;
+        }
+    }
+
+    /**
+     * Replays a trace. Arguments: the trace file, the server IP, the server port, optionally FAST or RECORDED
+     * (FAST by default), and optionally the number of threads, the peak concurrency of the recording by default.
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("[WorkloadReplayer.main] usage: WorkloadReplayer <trace file> <server ip> <server port>"
+                    + " [FAST|RECORDED] [threads]");
+            System.exit(1);
+        }
+
+        try {
+            WorkloadReplayer replayer = new WorkloadReplayer(args[0], args[1], Integer.parseInt(args[2]),
+                    args.length > 3 && "RECORDED".equals(args[3]), args.length > 4 ? Integer.parseInt(args[4]) : 0);
+            replayer.report(replayer.replay());
+        } catch (IOException e) {
+            System.out.println("[WorkloadReplayer.main] couldn't read trace " + args[0]);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
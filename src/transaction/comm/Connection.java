@@ -0,0 +1,82 @@
+package transaction.comm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Class [Connection] is a client connection to the transaction server, either over TCP or, for clients on the
+ * same host, over a Unix domain socket. Both carry the same object streams of {@link Message}s.
+ */
+public class Connection implements Closeable {
+
+    // the TCP socket, or null for a Unix domain socket connection
+    private final Socket socket;
+
+    // the Unix domain socket channel, or null for a TCP connection
+    private final SocketChannel channel;
+
+    /**
+     * Wraps an open TCP socket. Nagle's algorithm is disabled, requests and responses are small and
+     * every one of them is waited for.
+     *
+     * @param socket the connected socket
+     * @throws IOException if the socket option can't be set
+     */
+    public Connection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.channel = null;
+        socket.setTcpNoDelay(true);
+    }
+
+    /**
+     * Wraps an open Unix domain socket channel.
+     *
+     * @param channel the connected channel, in blocking mode
+     */
+    public Connection(SocketChannel channel) {
+        this.socket = null;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens a connection to the server, over the Unix domain socket if a path is given, over TCP otherwise.
+     *
+     * @param host the host name of the server
+     * @param port the port number of the server
+     * @param unixSocketPath the path of the server's Unix domain socket, or null to connect over TCP
+     * @return the open connection
+     * @throws IOException if the server can't be reached
+     */
+    public static Connection open(String host, int port, String unixSocketPath) throws IOException {
+        if (unixSocketPath != null) {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(unixSocketPath));
+            return new Connection(channel);
+        }
+        return new Connection(new Socket(host, port));
+    }
+
+    public InputStream getInputStream() throws IOException {
+        return socket != null ? socket.getInputStream() : Channels.newInputStream(channel);
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        return socket != null ? socket.getOutputStream() : Channels.newOutputStream(channel);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (socket != null) {
+            socket.close();
+        } else {
+            channel.close();
+        }
+    }
+}
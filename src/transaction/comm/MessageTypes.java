@@ -13,4 +13,52 @@ public interface MessageTypes {
     public static final int TRANSACTION_COMMITTED = 6;
     public static final int TRANSACTION_ABORTED = 7;
     public static final int SHUTDOWN = 8;
+
+    // two-phase commit across shards
+    public static final int PREPARE = 9;
+    public static final int COMMIT = 10;
+    public static final int ABORT = 11;
+    public static final int VOTE_COMMIT = 12;
+    public static final int VOTE_ABORT = 13;
+
+    // log shipping from a primary to its replicas
+    public static final int REPLICATE = 14;
+    public static final int REPLICATION_SNAPSHOT = 15;
+    public static final int REPLICATION_RECORD = 16;
+    public static final int REPLICATION_HEARTBEAT = 17;
+
+    // waiting for a conflicting transaction to complete before restarting an aborted one
+    public static final int AWAIT_TRANSACTION = 18;
+
+    // predeclared transfer executed in deterministic mode
+    public static final int DETERMINISTIC_TRANSFER = 19;
+
+    // sum and count of the committed balances over an account number range
+    public static final int RANGE_QUERY = 20;
+    public static final int RANGE_QUERY_RESPONSE = 21;
+
+    // commutative increment of a balance, applied at commit
+    public static final int INCREMENT_REQUEST = 22;
+    public static final int INCREMENT_RESPONSE = 23;
+
+    // read that also grants a lease on the balance, so the client may cache it until the lease expires
+    public static final int READ_LEASE_REQUEST = 24;
+    public static final int READ_LEASE_RESPONSE = 25;
+
+    // partial rollback of a transaction to a savepoint, instead of aborting it
+    public static final int SAVEPOINT = 26;
+    public static final int ROLLBACK_TO = 27;
+    public static final int TRANSACTION_ROLLED_BACK = 28;
+
+    // creating and closing accounts while the server runs
+    public static final int CREATE_ACCOUNT = 29;
+    public static final int CREATE_ACCOUNT_RESPONSE = 30;
+    public static final int CLOSE_ACCOUNT = 31;
+    public static final int CLOSE_ACCOUNT_RESPONSE = 32;
+
+    // feed of the committed changes to downstream subscribers, streamed from the commit log like to replicas
+    public static final int SUBSCRIBE_CHANGES = 33;
+    public static final int CHANGE_SNAPSHOT = 34;
+    public static final int CHANGE_RECORD = 35;
+    public static final int CHANGE_HEARTBEAT = 36;
 }
@@ -0,0 +1,58 @@
+package transaction.server;
+
+import transaction.server.transaction.TransactionExecutor;
+import utils.PropertyHandler;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Class [EmbeddedTransactionServer] runs the transaction engine inside the caller's JVM, without sockets and
+ * without serializing requests. Transactions are driven through {@link TransactionExecutor}s, which call the
+ * account, lock and transaction managers directly, the same way the server's workers execute the requests of
+ * network clients. The client's embedded proxy wraps one of them.
+ * The managers are shared by the whole JVM, so only one server, embedded or not, can run per JVM.
+ */
+public class EmbeddedTransactionServer {
+
+    /**
+     * Starts the engine configured by a server properties file. The network settings are ignored.
+     *
+     * @param propertiesFile the path to the properties file containing server configuration
+     * @throws IOException if the properties file can't be read
+     */
+    public EmbeddedTransactionServer(String propertiesFile) throws IOException {
+        this(new PropertyHandler(propertiesFile));
+    }
+
+    /**
+     * Starts the engine configured by the given server properties. The network settings are ignored.
+     *
+     * @param properties the server configuration
+     */
+    public EmbeddedTransactionServer(Properties properties) {
+        TransactionServer.startEngine(properties, null);
+        System.out.println("[EmbeddedTransactionServer.EmbeddedTransactionServer] Engine started in process");
+    }
+
+    /**
+     * Creates an executor running transactions on this server, one transaction at a time. Executors are not
+     * thread safe, every thread uses its own.
+     *
+     * @return the new executor
+     */
+    public TransactionExecutor newExecutor() {
+        return new TransactionExecutor();
+    }
+
+    /**
+     * Queries the sum of the committed balances and the number of accounts in an account number range.
+     *
+     * @param fromAccount the first account number of the range
+     * @param toAccount the last account number of the range
+     * @return an array holding the sum and the count
+     */
+    public long[] rangeQuery(int fromAccount, int toAccount) {
+        return TransactionServer.accountManager.rangeQuery(fromAccount, toAccount);
+    }
+}
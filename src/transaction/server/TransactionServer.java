@@ -1,7 +1,19 @@
 package transaction.server;
 
+import transaction.comm.Connection;
 import transaction.server.account.AccountManager;
+import transaction.server.account.HotAccountMonitor;
+import transaction.server.account.LeaseManager;
+import transaction.server.deterministic.DeterministicScheduler;
+import transaction.server.deterministic.PartitionRebalancer;
+import transaction.server.deterministic.PartitionedScheduler;
+import transaction.server.deterministic.Sequencer;
 import transaction.server.lock.LockManager;
+import transaction.server.replication.CommitLog;
+import transaction.server.replication.ReplicaApplier;
+import transaction.server.trace.WorkloadRecorder;
+import transaction.server.transaction.CommitCombiner;
+import transaction.server.transaction.IdleTransactionReaper;
 import transaction.server.transaction.TransactionManager;
 import utils.NetworkUtilities;
 import utils.PropertyHandler;
@@ -9,7 +21,14 @@ import utils.PropertyHandler;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * The [TransactionServer] class is responsible for managing the server-side
@@ -29,6 +48,9 @@ public class TransactionServer implements Runnable {
     // the server socket to accept incoming clients' requests
     static ServerSocket serverSocket;
 
+    // the Unix domain socket to accept co-located clients' requests, null if only listening on TCP
+    static ServerSocketChannel unixServerChannel;
+
     // flag indicating to keep running the server loop
     static boolean keepGoing = true;
 
@@ -41,6 +63,42 @@ public class TransactionServer implements Runnable {
 
     public static int numberOfAccounts;
 
+    // sharding: this server owns the accounts mapped to shardId out of numberOfShards
+    public static int shardId;
+    public static int numberOfShards;
+
+    // replication: a primary keeps a commit log, a replica follows the primary's log and only serves reads
+    public static CommitLog commitLog;
+    public static ReplicaApplier replicaApplier;
+
+    // maximum staleness in milliseconds a replica accepts for reads, 0 accepts any staleness
+    public static long maxStaleness;
+
+    // deterministic mode: orders predeclared transfers into epochs and runs them without aborts
+    public static Sequencer sequencer;
+
+    // partitioned mode: runs predeclared transfers on one single-threaded executor per partition, locking only
+    // the accounts interactive transactions hold
+    public static PartitionedScheduler partitionedScheduler;
+
+    // partition rebalancing: migrates hot accounts off busy partitions, null if accounts stay where they are
+    public static PartitionRebalancer partitionRebalancer;
+
+    // hot accounts: splits designated or detected hot accounts into sub-balances
+    public static HotAccountMonitor hotAccountMonitor;
+
+    // workload capture: records the client requests and responses to a trace, null if not recording
+    public static WorkloadRecorder workloadRecorder;
+
+    // commit combining: applies pending commits in batches, null to commit one by one
+    public static CommitCombiner commitCombiner;
+
+    // read leases: lets clients cache balances for a bounded time, null if leases are not granted
+    public static LeaseManager leaseManager;
+
+    // idle transactions: aborts transactions whose client stalls, null if transactions may idle forever
+    public static IdleTransactionReaper idleTransactionReaper;
+
     // fetch serverIP
     String serverIP = NetworkUtilities.getMyIP();
 
@@ -52,6 +110,17 @@ public class TransactionServer implements Runnable {
      * @param propertiesFile the path to the properties file containing server configuration
      */
     public TransactionServer(String propertiesFile) {
+        this(propertiesFile, null);
+    }
+
+    /**
+     * Constructor for the TransactionServer class running as the given shard. Shards listen on
+     * SERVER_PORT + shard id, so several shards can run on one host.
+     *
+     * @param propertiesFile the path to the properties file containing server configuration
+     * @param shardIdString the shard id, overriding SHARD_ID from the properties file if not null
+     */
+    public TransactionServer(String propertiesFile, String shardIdString) {
         Properties properties = null;
 
         try {
@@ -61,34 +130,166 @@ public class TransactionServer implements Runnable {
             System.exit(1);
         }
 
+        // create the managers and the components enabled in the properties
+        startEngine(properties, shardIdString);
+
+        try {
+            // get port
+            int port = Integer.parseInt(properties.getProperty("SERVER_PORT")) + shardId;
+
+            // create server socket
+            serverSocket = new ServerSocket(port, 50, InetAddress.getByName(serverIP));
+        } catch (IOException e) {
+            System.out.println("[TransactionServer.TransactionServer] couldn't create server socket");
+            System.exit(1);
+        }
+
+        // additionally listen on a Unix domain socket for clients on this host, one socket file per shard
+        String unixSocketPath = properties.getProperty("UNIX_SOCKET_PATH");
+        if (unixSocketPath != null && !unixSocketPath.isEmpty()) {
+            try {
+                Path socketFile = Path.of(numberOfShards > 1 ? unixSocketPath + "." + shardId : unixSocketPath);
+
+                // a socket file left behind by a previous run would fail the bind
+                Files.deleteIfExists(socketFile);
+                unixServerChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                unixServerChannel.bind(UnixDomainSocketAddress.of(socketFile));
+                socketFile.toFile().deleteOnExit();
+                System.out.println("[TransactionServer.TransactionServer] Listening on Unix domain socket " + socketFile);
+            } catch (IOException | UnsupportedOperationException e) {
+                System.out.println("[TransactionServer.TransactionServer] couldn't create Unix domain socket "
+                        + unixSocketPath);
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Creates the managers and starts the components enabled in the properties, everything serving transactions
+     * except for the listening sockets. Shared by the server and the embedded server, which runs the engine in
+     * the caller's JVM.
+     *
+     * @param properties the server configuration
+     * @param shardIdString the shard id, overriding SHARD_ID from the properties if not null
+     */
+    static void startEngine(Properties properties, String shardIdString) {
         // get number of accounts
         numberOfAccounts = Integer.parseInt(properties.getProperty("NUMBER_OF_ACCOUNTS"));
 
         // get initial balance
         int initialBalance = Integer.parseInt(properties.getProperty("INITIAL_BALANCE"));
 
+        // get sharding configuration, a single shard owns all accounts
+        numberOfShards = Integer.parseInt(properties.getProperty("NUMBER_OF_SHARDS", "1"));
+        shardId = Integer.parseInt(shardIdString != null ? shardIdString : properties.getProperty("SHARD_ID", "0"));
+
         // create account manager
-        accountManager = new AccountManager(numberOfAccounts, initialBalance);
-        System.out.println("[TransactionServer.TransactionServer] Account Manager created");
+        accountManager = new AccountManager(numberOfAccounts, initialBalance, shardId, numberOfShards);
+        System.out.println("[TransactionServer.startEngine] Account Manager created");
 
         // create transaction manager
         transactionManager = new TransactionManager();
 
-        System.out.println("[TransactionServer.TransactionServer] Transaction Manager created");
+        System.out.println("[TransactionServer.startEngine] Transaction Manager created");
 
-        // create lock manager
-        lockManager = new LockManager();
-        System.out.println("[TransactionServer.TransactionServer] Lock Manager created");
+        // create lock manager, the lock wait timeout resolves deadlocks spanning shards
+        // and the aging interval keeps low priority transactions from starving. Each shard orders its transactions
+        // by its own timestamps, wait-die cannot see a cycle across shards, so shards time out waits by default
+        long lockWaitTimeout = Long.parseLong(properties.getProperty("LOCK_WAIT_TIMEOUT",
+                numberOfShards > 1 ? "1000" : "0"));
+        long priorityAgingInterval = Long.parseLong(properties.getProperty("PRIORITY_AGING_INTERVAL", "100"));
+        lockManager = new LockManager(lockWaitTimeout, priorityAgingInterval);
+        System.out.println("[TransactionServer.startEngine] Lock Manager created");
 
-        try {
-            // get port
-            int port = Integer.parseInt(properties.getProperty("SERVER_PORT"));
+        // create the commit log of a primary or for change feed subscribers, or start following the primary as
+        // a replica. Without either, committing transactions keep no log
+        String replicationRole = properties.getProperty("REPLICATION_ROLE", "NONE");
+        if ("REPLICA".equals(replicationRole)) {
+            maxStaleness = Long.parseLong(properties.getProperty("MAX_STALENESS", "0"));
+            replicaApplier = new ReplicaApplier(properties.getProperty("PRIMARY_IP"),
+                    Integer.parseInt(properties.getProperty("PRIMARY_PORT")));
+            replicaApplier.start();
+            System.out.println("[TransactionServer.startEngine] Replica Applier started");
+        } else if ("PRIMARY".equals(replicationRole) || Boolean.parseBoolean(properties.getProperty("CHANGE_FEED"))) {
+            commitLog = new CommitLog(accountManager, numberOfAccounts,
+                    Integer.parseInt(properties.getProperty("COMMIT_LOG_SIZE", "10000")),
+                    Long.parseLong(properties.getProperty("REPLICATION_HEARTBEAT_INTERVAL", "1000")));
+            System.out.println("[TransactionServer.startEngine] Commit Log created");
+        }
 
-            // create server socket
-            serverSocket = new ServerSocket(port, 50, InetAddress.getByName(serverIP));
-        } catch (IOException e) {
-            System.out.println("[TransactionServer.TransactionServer] couldn't create server socket");
-            System.exit(1);
+        // partition the accounts over single-threaded executors for predeclared transfers, or create the sequencer
+        // for them otherwise
+        int numberOfPartitions = Integer.parseInt(properties.getProperty("PARTITIONS", "0"));
+        if (replicaApplier == null && numberOfPartitions > 0) {
+            partitionedScheduler = new PartitionedScheduler(numberOfPartitions);
+            System.out.println("[TransactionServer.startEngine] " + numberOfPartitions
+                    + " partitions started, interactive transactions lock the accounts alongside them");
+        } else if (replicaApplier == null) {
+            DeterministicScheduler scheduler = new DeterministicScheduler(Integer.parseInt(properties.getProperty(
+                    "DETERMINISTIC_THREADS", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+            sequencer = new Sequencer(Long.parseLong(properties.getProperty("DETERMINISTIC_EPOCH", "10")), scheduler);
+            sequencer.start();
+            System.out.println("[TransactionServer.startEngine] Sequencer started");
+        }
+
+        // migrate hot accounts off busy partitions while transfers run
+        long partitionRebalanceInterval = Long.parseLong(properties.getProperty("PARTITION_REBALANCE_INTERVAL", "0"));
+        if (partitionedScheduler != null && numberOfPartitions > 1 && partitionRebalanceInterval > 0) {
+            partitionRebalancer = new PartitionRebalancer(partitionedScheduler, partitionRebalanceInterval);
+            partitionRebalancer.start();
+            System.out.println("[TransactionServer.startEngine] Partition Rebalancer started, interval "
+                    + partitionRebalanceInterval + "ms");
+        }
+
+        // split hot accounts into sub-balances, a replica applies the primary's writes only
+        int hotAccountSplits = Integer.parseInt(properties.getProperty("HOT_ACCOUNT_SPLITS", "4"));
+        long hotAccountThreshold = Long.parseLong(properties.getProperty("HOT_ACCOUNT_THRESHOLD", "0"));
+        Set<Integer> hotAccounts = new HashSet<>();
+        for (String hotAccount : properties.getProperty("HOT_ACCOUNTS", "").split(",")) {
+            if (!hotAccount.trim().isEmpty()) {
+                hotAccounts.add(Integer.parseInt(hotAccount.trim()));
+            }
+        }
+        if (replicaApplier == null && partitionedScheduler == null && hotAccountSplits > 1 && (hotAccountThreshold > 0 || !hotAccounts.isEmpty())) {
+            hotAccountMonitor = new HotAccountMonitor(accountManager, hotAccounts, hotAccountSplits, hotAccountThreshold,
+                    Long.parseLong(properties.getProperty("HOT_ACCOUNT_INTERVAL", "1000")));
+            hotAccountMonitor.start();
+            System.out.println("[TransactionServer.startEngine] Hot Account Monitor started");
+        }
+
+        // combine concurrent commits into batches
+        int combiningBatchSize = Integer.parseInt(properties.getProperty("COMBINING_BATCH_SIZE", "0"));
+        if (combiningBatchSize > 0) {
+            commitCombiner = new CommitCombiner(combiningBatchSize);
+            System.out.println("[TransactionServer.startEngine] Commit combining enabled, batches of up to "
+                    + combiningBatchSize);
+        }
+
+        // grant read leases clients may cache balances under
+        long readLeaseDuration = Long.parseLong(properties.getProperty("READ_LEASE_DURATION", "0"));
+        if (readLeaseDuration > 0) {
+            leaseManager = new LeaseManager(readLeaseDuration);
+            System.out.println("[TransactionServer.startEngine] Read leases of " + readLeaseDuration + "ms granted");
+        }
+
+        // abort transactions whose client stalls, releasing their locks
+        long idleTransactionTimeout = Long.parseLong(properties.getProperty("IDLE_TRANSACTION_TIMEOUT", "0"));
+        if (idleTransactionTimeout > 0) {
+            idleTransactionReaper = new IdleTransactionReaper(idleTransactionTimeout);
+            idleTransactionReaper.start();
+            System.out.println("[TransactionServer.startEngine] Idle Transaction Reaper started, timeout "
+                    + idleTransactionTimeout + "ms");
+        }
+
+        // record the workload for replaying it later
+        String traceFile = properties.getProperty("TRACE_FILE");
+        if (traceFile != null && !traceFile.isEmpty()) {
+            try {
+                workloadRecorder = new WorkloadRecorder(traceFile);
+                System.out.println("[TransactionServer.startEngine] Recording workload to " + traceFile);
+            } catch (IOException e) {
+                System.out.println("[TransactionServer.startEngine] couldn't create trace file " + traceFile);
+            }
         }
     }
 
@@ -108,6 +309,9 @@ public class TransactionServer implements Runnable {
         try {
             keepGoing = false;
             serverSocket.close();
+            if (unixServerChannel != null) {
+                unixServerChannel.close();
+            }
             System.exit(1);
         } catch (IOException e) {
             // we don't care
@@ -120,19 +324,38 @@ public class TransactionServer implements Runnable {
      */
     @Override
     public void run() {
+        if (unixServerChannel != null) {
+            new Thread(this::runUnixDomainSocket, "unix-socket-listener").start();
+        }
+
         try {
             while (keepGoing) {
                 // run the transaction
-                transactionManager.runTransaction(serverSocket.accept());
+                transactionManager.runTransaction(new Connection(serverSocket.accept()));
             }
         } catch (IOException e) {
 //            System.out.println("[TransactionServer.run] Error in creating server socket");
         }
     }
 
+    /**
+     * Accepts incoming client requests on the Unix domain socket, next to the TCP listener.
+     */
+    private void runUnixDomainSocket() {
+        try {
+            while (keepGoing) {
+                // run the transaction
+                transactionManager.runTransaction(new Connection(unixServerChannel.accept()));
+            }
+        } catch (IOException e) {
+//            System.out.println("[TransactionServer.runUnixDomainSocket] Error in accepting connection");
+        }
+    }
+
     // entry point of the Transaction Server
     public static void main(String[] args) {
         String propertiesFile;
+        String shardIdString = null;
 
         try {
             propertiesFile = args[0];
@@ -140,7 +363,12 @@ public class TransactionServer implements Runnable {
             propertiesFile = "resources/transaction_server.properties";
         }
 
+        // optional shard id, to start several shards with the same properties file
+        if (args.length > 1) {
+            shardIdString = args[1];
+        }
+
         // create Transaction Server
-        new Thread(new TransactionServer(propertiesFile)).start();
+        new Thread(new TransactionServer(propertiesFile, shardIdString)).start();
     }
 }
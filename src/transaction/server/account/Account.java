@@ -10,6 +10,9 @@ public class Account {
     private final int accountNumber;
     private int balance;
 
+    // amount withdrawn by pending increments, held in escrow until their transactions commit or abort
+    private int escrow;
+
     /**
      * Creates a new account with the specified account number and balance.
      *
@@ -47,4 +50,45 @@ public class Account {
     public void setBalance(int balance) {
         this.balance = balance;
     }
-}
\ No newline at end of file
+
+    /**
+     * Holds the given amount in escrow for a pending withdrawal, unless the balance would not cover it together
+     * with the withdrawals already pending. Deposits are not counted until they commit, so however the pending
+     * increments end, the balance can never go negative. A negative amount gives escrow back.
+     *
+     * @param amount the amount to hold, negative to give back
+     * @return true if the amount is held, false if the balance doesn't cover it
+     */
+    public synchronized boolean reserve(int amount) {
+        if (amount > 0 && balance - escrow - amount < 0) {
+            return false;
+        }
+        escrow += amount;
+        return true;
+    }
+
+    /**
+     * Applies a committed increment to the balance and gives back the escrow held for it, atomically
+     * with respect to the other incrementers.
+     *
+     * @param amount the committed increment, negative for a withdrawal
+     * @return the new balance
+     */
+    public int applyIncrement(int amount) {
+        return applyIncrement(amount, Math.max(0, -amount));
+    }
+
+    /**
+     * Applies the sum of several committed increments to the balance and gives back the escrow held for
+     * their withdrawals, atomically with respect to the other incrementers.
+     *
+     * @param amount the sum of the committed increments
+     * @param escrowed the sum of the withdrawals among them, held in escrow
+     * @return the new balance
+     */
+    public synchronized int applyIncrement(int amount, int escrowed) {
+        escrow -= escrowed;
+        balance += amount;
+        return balance;
+    }
+}
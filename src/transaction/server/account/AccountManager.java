@@ -3,10 +3,19 @@ package transaction.server.account;
 import transaction.server.TransactionServer;
 import transaction.server.lock.LockType;
 import transaction.server.lock.TransactionAbortedException;
+import transaction.server.transaction.Savepoint;
 import transaction.server.transaction.Transaction;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Manages bank accounts by providing operations to read and write balances.
@@ -15,14 +24,34 @@ import java.util.Map;
  */
 public class AccountManager {
 
-    // Map of account numbers to Account objects
+    // Map of account numbers to Account objects, resized incrementally as accounts are created while it is in use
     private final Map<Integer, Account> accounts;
 
+    // the shard this account manager serves, accounts are created with account numbers it owns
+    private final int shardId;
+    private final int numberOfShards;
+
+    // the highest account number handed out, account numbers of closed accounts are never reused
+    private final AtomicInteger highestAccountNumber;
+
+    // range sums over the committed balances, null for an empty account manager
+    private final BalanceIndex balanceIndex;
+
+    // hot accounts whose balance is spread over sub-balances, by account number
+    private final Map<Integer, SplitAccount> splitAccounts = new ConcurrentHashMap<>();
+
+    // number of increments per account number since the counts were last drained, to detect hot accounts
+    private final Map<Integer, LongAdder> incrementCounts = new ConcurrentHashMap<>();
+
     /**
      * Creates an empty account manager.
      */
     public AccountManager() {
-        accounts = new HashMap<>();
+        accounts = new ConcurrentHashMap<>();
+        balanceIndex = null;
+        shardId = 0;
+        numberOfShards = 1;
+        highestAccountNumber = new AtomicInteger(0);
     }
 
     /**
@@ -32,16 +61,48 @@ public class AccountManager {
      * @param initialBalance the initial balance for each account
      */
     public AccountManager(int numberOfAccounts, int initialBalance) {
-        accounts = new HashMap<>(numberOfAccounts);
+        this(numberOfAccounts, initialBalance, 0, 1);
+    }
+
+    /**
+     * Creates a new account manager holding only the accounts owned by the given shard.
+     *
+     * @param numberOfAccounts the total number of accounts across all shards
+     * @param initialBalance the initial balance for each account
+     * @param shardId the shard this account manager serves
+     * @param numberOfShards the total number of shards
+     */
+    public AccountManager(int numberOfAccounts, int initialBalance, int shardId, int numberOfShards) {
+        accounts = new ConcurrentHashMap<>(numberOfAccounts / numberOfShards + 1);
+        this.shardId = shardId;
+        this.numberOfShards = numberOfShards;
+        highestAccountNumber = new AtomicInteger(numberOfAccounts);
 
-        // Create the specified number of accounts with the given initial balance
+        // Create the accounts of this shard with the given initial balance
         for (int i = 1; i <= numberOfAccounts; i++) {
-            accounts.put(i, new Account(i, initialBalance));
+            if (getShard(i, numberOfShards) == shardId) {
+                accounts.put(i, new Account(i, initialBalance));
+            }
         }
+
+        balanceIndex = new BalanceIndex(numberOfAccounts, accounts);
+    }
+
+    /**
+     * Returns the shard owning the account with the specified account number.
+     *
+     * @param accountNumber the account number
+     * @param numberOfShards the total number of shards
+     * @return the id of the owning shard, between 0 and numberOfShards - 1
+     */
+    public static int getShard(int accountNumber, int numberOfShards) {
+        return (accountNumber - 1) % numberOfShards;
     }
 
     /**
-     * Returns the balance of the account with the specified account number.
+     * Returns the balance of the account with the specified account number, as written by the transaction,
+     * or the committed balance including the pending increment of the transaction, if any. Under READ_COMMITTED
+     * the read lock is released again right after the read.
      *
      * @param accountNumber the account number
      * @param transaction the transaction requesting the read operation
@@ -52,9 +113,29 @@ public class AccountManager {
         Account account = accounts.get(accountNumber);
 
         if (account != null) {
-            TransactionServer.lockManager.setLock(account, transaction, LockType.READ_LOCK);
-            
-            return account.getBalance();
+            // a split account is read as the sum of all its sub-balances, under read locks on all of them
+            int balance = 0;
+            Account[] parts = lockAllParts(account, transaction, LockType.READ_LOCK);
+            if (isClosed(accountNumber)) {
+                return null;
+            }
+            for (Account part : parts) {
+                balance += part.getBalance();
+            }
+
+            if (!transaction.getIsolationLevel().holdsReadLocks()) {
+                for (Account part : parts) {
+                    TransactionServer.lockManager.releaseReadLock(part, transaction);
+                }
+            }
+
+            // the transaction reads its own writes from its workspace
+            Integer written = transaction.getWorkspace().get(accountNumber);
+            if (written != null) {
+                return written;
+            }
+
+            return balance + transaction.getIncrement(accountNumber);
         } else {
             System.err.println("Invalid Account; Account# " + accountNumber + " doesn't exist");
             return null;
@@ -62,7 +143,8 @@ public class AccountManager {
     }
 
     /**
-     * Sets the balance of the account with the specified account number.
+     * Sets the balance of the account with the specified account number. The balance is buffered in the
+     * transaction's workspace and installed when the transaction commits.
      *
      * @param accountNumber the account number
      * @param balance the new balance
@@ -75,14 +157,29 @@ public class AccountManager {
         Account account = accounts.get(accountNumber);
 
         if (account != null) {
-            // Acquire write lock on the account for the requesting transaction
-            TransactionServer.lockManager.setLock(account, transaction, LockType.WRITE_LOCK);
+            // Acquire write lock on the account, and all its sub-balances if it is split, for the requesting
+            // transaction
+            Account[] parts = lockAllParts(account, transaction, LockType.WRITE_LOCK);
+            if (isClosed(accountNumber)) {
+                return false;
+            }
+
+            // Clients may serve the balance from their cache until their leases expire
+            if (TransactionServer.leaseManager != null) {
+                TransactionServer.leaseManager.awaitExpiry(accountNumber);
+            }
 
-            // Record the account's state before the write operation for use in the transaction's undo log
-            transaction.addBeforeImage(account.getAccountNumber(), account.getBalance());
+            // The written balance replaces pending increments, give back their escrow
+            for (Account part : parts) {
+                Integer increment = transaction.getIncrements().get(part);
+                if (increment != null) {
+                    part.reserve(-Math.max(0, -increment));
+                    transaction.setIncrement(part, 0);
+                }
+            }
 
-            // Update the account's balance
-            account.setBalance(balance);
+            // Buffer the new balance in the transaction's workspace, other transactions keep seeing the committed one
+            transaction.addToWorkspace(accountNumber, balance);
 
             return true;
         } else {
@@ -91,9 +188,549 @@ public class AccountManager {
         }
     }
 
+    /**
+     * Adds the specified amount to the balance of the account at commit. Increments only conflict with reads
+     * and writes, so concurrent increments of a hot account proceed in parallel. A withdrawal is held in escrow
+     * and is rejected if the balance doesn't cover it together with the other pending withdrawals. Increments of
+     * a split account are routed to any sub-balance whose lock is free, a withdrawal to one that covers it.
+     *
+     * @param accountNumber the account number
+     * @param amount the amount to add, negative to withdraw
+     * @param transaction the transaction requesting the increment
+     * @return true if the increment is pending, or false if it was rejected or the account doesn't exist
+     * @throws TransactionAbortedException if the transaction was aborted due to conflicts with other transactions
+     */
+    public boolean increment(int accountNumber, int amount, Transaction transaction) throws TransactionAbortedException {
+        Account account = accounts.get(accountNumber);
+
+        if (account != null) {
+            incrementCounts.computeIfAbsent(accountNumber, key -> new LongAdder()).increment();
+
+            // after a write, the transaction holds the account exclusively and adds to the balance it wrote
+            Integer written = transaction.getWorkspace().get(accountNumber);
+            if (written != null) {
+                if (written + amount < 0) {
+                    transaction.log("[AccountManager.increment] #" + transaction.getTransactionId()
+                            + " - rejected increment of " + amount + " on account #" + accountNumber);
+                    return false;
+                }
+                transaction.addToWorkspace(accountNumber, written + amount);
+                return true;
+            }
+
+            SplitAccount splitAccount = splitAccounts.get(accountNumber);
+            if (splitAccount != null) {
+                Account[] parts = splitAccount.getParts();
+                int activeParts = splitAccount.getActiveParts();
+                int start = ThreadLocalRandom.current().nextInt(activeParts);
+
+                for (int i = 0; i < activeParts; i++) {
+                    Account part = parts[(start + i) % activeParts];
+                    if (TransactionServer.lockManager.trySetLock(part, transaction, LockType.INCREMENT_LOCK)
+                            && addIncrement(part, amount, transaction)) {
+                        return true;
+                    }
+                }
+
+                // no sub-balance is free, wait for one
+                account = parts[start];
+            }
+
+            TransactionServer.lockManager.setLock(account, transaction, LockType.INCREMENT_LOCK);
+            if (isClosed(accountNumber)) {
+                return false;
+            }
+
+            if (!addIncrement(account, amount, transaction)) {
+                transaction.log("[AccountManager.increment] #" + transaction.getTransactionId()
+                        + " - rejected increment of " + amount + " on account #" + accountNumber);
+                return false;
+            }
+            return true;
+        } else {
+            System.err.println("Invalid Account; Account# " + accountNumber + " doesn't exist");
+            return false;
+        }
+    }
+
+    /**
+     * Adds an increment to the pending increments of a transaction, holding the net withdrawal in escrow.
+     * The transaction must hold an increment or write lock on the account.
+     *
+     * @param account the account, or the sub-balance of a split account
+     * @param amount the amount to add, negative to withdraw
+     * @param transaction the transaction requesting the increment
+     * @return true if the increment is pending, false if the balance doesn't cover the withdrawal
+     */
+    private boolean addIncrement(Account account, int amount, Transaction transaction) {
+        // clients may serve the balance from their cache until their leases expire
+        if (TransactionServer.leaseManager != null) {
+            TransactionServer.leaseManager.awaitExpiry(account.getAccountNumber());
+        }
+
+        // only the net withdrawal of the transaction is held in escrow
+        int pending = transaction.getIncrements().getOrDefault(account, 0);
+        if (!account.reserve(Math.max(0, -(pending + amount)) - Math.max(0, -pending))) {
+            return false;
+        }
+
+        transaction.setIncrement(account, pending + amount);
+        return true;
+    }
+
+    /**
+     * Locks an account and, if it is split, all its sub-balances in order. The split state of an account only
+     * changes under a write lock on the original account, so it is looked up after that one is locked.
+     *
+     * @param account the account to lock
+     * @param transaction the transaction requesting the locks
+     * @param lockType the type of lock to set
+     * @return the locked sub-balances, or just the account if it is not split
+     * @throws TransactionAbortedException if the transaction was aborted due to conflicts with other transactions
+     */
+    private Account[] lockAllParts(Account account, Transaction transaction, LockType lockType)
+            throws TransactionAbortedException {
+        TransactionServer.lockManager.setLock(account, transaction, lockType);
+
+        SplitAccount splitAccount = splitAccounts.get(account.getAccountNumber());
+        if (splitAccount == null) {
+            return new Account[]{account};
+        }
+
+        Account[] parts = splitAccount.getParts();
+        for (int i = 1; i < parts.length; i++) {
+            TransactionServer.lockManager.setLock(parts[i], transaction, lockType);
+        }
+        return parts;
+    }
+
+    /**
+     * Creates an account owned by this account manager, with the next free account number. The account is
+     * write locked by the creating transaction before it is published, so other transactions only use it
+     * once the creation commits. The initial balance is buffered in the workspace like a write.
+     *
+     * @param initialBalance the initial balance, not negative
+     * @param transaction the transaction creating the account
+     * @return the number of the created account, or null if the initial balance is negative
+     * @throws TransactionAbortedException if the transaction was aborted due to conflicts with other transactions
+     */
+    public Integer createAccount(int initialBalance, Transaction transaction) throws TransactionAbortedException {
+        if (initialBalance < 0) {
+            return null;
+        }
+
+        int accountNumber = highestAccountNumber.updateAndGet(highest -> {
+            int next = highest + 1;
+            while (getShard(next, numberOfShards) != shardId) {
+                next++;
+            }
+            return next;
+        });
+        createAccount(accountNumber, initialBalance, transaction);
+        return accountNumber;
+    }
+
+    /**
+     * Creates an account with the given account number, as replicated from a primary.
+     *
+     * @param accountNumber the account number, not in use
+     * @param initialBalance the initial balance
+     * @param transaction the transaction creating the account
+     * @throws TransactionAbortedException if the transaction was aborted due to conflicts with other transactions
+     */
+    public void createAccount(int accountNumber, int initialBalance, Transaction transaction)
+            throws TransactionAbortedException {
+        highestAccountNumber.accumulateAndGet(accountNumber, Math::max);
+
+        Account account = new Account(accountNumber, 0);
+        TransactionServer.lockManager.setLock(account, transaction, LockType.WRITE_LOCK);
+        accounts.put(accountNumber, account);
+
+        transaction.getCreatedAccounts().add(accountNumber);
+        transaction.addToWorkspace(accountNumber, initialBalance);
+    }
+
+    /**
+     * Closes an account, which must have a balance of 0 as seen by the transaction. The account is removed when
+     * the transaction commits, transactions waiting for it then find it closed.
+     *
+     * @param accountNumber the account number
+     * @param transaction the transaction closing the account
+     * @return true if the account is closed at commit, false if it doesn't exist or has a balance
+     * @throws TransactionAbortedException if the transaction was aborted due to conflicts with other transactions
+     */
+    public boolean closeAccount(int accountNumber, Transaction transaction) throws TransactionAbortedException {
+        Account account = accounts.get(accountNumber);
+        if (account == null) {
+            System.err.println("Invalid Account; Account# " + accountNumber + " doesn't exist");
+            return false;
+        }
+
+        Account[] parts = lockAllParts(account, transaction, LockType.WRITE_LOCK);
+        if (isClosed(accountNumber)) {
+            return false;
+        }
+
+        Integer balance = transaction.getWorkspace().get(accountNumber);
+        if (balance == null) {
+            balance = transaction.getIncrement(accountNumber);
+            for (Account part : parts) {
+                balance += part.getBalance();
+            }
+        }
+        if (balance != 0) {
+            transaction.log("[AccountManager.closeAccount] #" + transaction.getTransactionId()
+                    + " - rejected closing account #" + accountNumber + " with balance " + balance);
+            return false;
+        }
+
+        // clients may serve the balance from their cache until their leases expire
+        if (TransactionServer.leaseManager != null) {
+            TransactionServer.leaseManager.awaitExpiry(accountNumber);
+        }
+
+        transaction.getClosedAccounts().add(accountNumber);
+        return true;
+    }
+
+    /**
+     * Checks if an account was closed, or its creation aborted, after it was looked up.
+     * Account numbers are never reused.
+     *
+     * @param accountNumber the account number
+     * @return true if the account no longer exists
+     */
+    private boolean isClosed(int accountNumber) {
+        return !accounts.containsKey(accountNumber);
+    }
+
+    /**
+     * Returns the highest account number handed out so far, including closed accounts.
+     *
+     * @return the highest account number
+     */
+    public int getHighestAccountNumber() {
+        return highestAccountNumber.get();
+    }
+
+    /**
+     * Spreads the balance of an account over the given number of sub-balances with independent locks, or
+     * over its existing sub-balances if it was split before.
+     *
+     * @param accountNumber the account number
+     * @param numberOfParts the number of sub-balances for an account not split before
+     * @param transaction the transaction splitting the account, holding no other locks
+     * @return true if the account is split, false if it doesn't exist
+     * @throws TransactionAbortedException if the transaction was aborted due to conflicts with other transactions
+     */
+    public boolean split(int accountNumber, int numberOfParts, Transaction transaction) throws TransactionAbortedException {
+        Account account = accounts.get(accountNumber);
+        if (account == null || numberOfParts < 2) {
+            return false;
+        }
+
+        lockAllParts(account, transaction, LockType.WRITE_LOCK);
+        if (isClosed(accountNumber)) {
+            return false;
+        }
+
+        // new sub-balances are only published once the balance is spread over them
+        SplitAccount splitAccount = splitAccounts.get(accountNumber);
+        if (splitAccount == null) {
+            splitAccount = new SplitAccount(account, numberOfParts);
+        }
+        splitAccount.spread();
+        splitAccounts.put(accountNumber, splitAccount);
+
+        System.out.println("[AccountManager.split] Account #" + accountNumber + " is split into "
+                + splitAccount.getParts().length + " sub-balances");
+        return true;
+    }
+
+    /**
+     * Moves the balance of a split account back into the original account, which then receives all increments.
+     *
+     * @param accountNumber the account number
+     * @param transaction the transaction merging the account, holding no other locks
+     * @return true if the account is merged, false if it isn't split
+     * @throws TransactionAbortedException if the transaction was aborted due to conflicts with other transactions
+     */
+    public boolean merge(int accountNumber, Transaction transaction) throws TransactionAbortedException {
+        Account account = accounts.get(accountNumber);
+        if (account == null || !splitAccounts.containsKey(accountNumber)) {
+            return false;
+        }
+
+        lockAllParts(account, transaction, LockType.WRITE_LOCK);
+        splitAccounts.get(accountNumber).merge();
+
+        System.out.println("[AccountManager.merge] Account #" + accountNumber + " is merged back");
+        return true;
+    }
+
+    /**
+     * Returns the account numbers whose increments are currently spread over several sub-balances.
+     *
+     * @return the split account numbers
+     */
+    public Set<Integer> getSplitAccountNumbers() {
+        Set<Integer> accountNumbers = new HashSet<>();
+        splitAccounts.forEach((accountNumber, splitAccount) -> {
+            if (splitAccount.getActiveParts() > 1) {
+                accountNumbers.add(accountNumber);
+            }
+        });
+        return accountNumbers;
+    }
+
+    /**
+     * Returns the number of increments per account since the last call, and resets the counts.
+     *
+     * @return the increment counts by account number, accounts without increments are left out
+     */
+    public Map<Integer, Long> drainIncrementCounts() {
+        Map<Integer, Long> counts = new HashMap<>();
+        incrementCounts.forEach((accountNumber, count) -> {
+            long sum = count.sumThenReset();
+            if (sum > 0) {
+                counts.put(accountNumber, sum);
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Acquires the declared locks of a transaction up front, all at once, before it reads or writes.
+     * Accounts that don't exist are skipped.
+     *
+     * @param declaredLocks the account numbers and lock types the transaction will use
+     * @param transaction the transaction declaring the locks
+     */
+    public void lock(Map<Integer, LockType> declaredLocks, Transaction transaction) {
+        Map<Account, LockType> accountLocks = new LinkedHashMap<>();
+
+        for (Map.Entry<Integer, LockType> entry : declaredLocks.entrySet()) {
+            Account account = accounts.get(entry.getKey());
+
+            if (account != null) {
+                accountLocks.put(account, entry.getValue());
+
+                // reads and writes of a split account lock all its sub-balances, increments pick one later
+                SplitAccount splitAccount = splitAccounts.get(entry.getKey());
+                if (splitAccount != null && entry.getValue() != LockType.INCREMENT_LOCK) {
+                    for (Account part : splitAccount.getParts()) {
+                        accountLocks.put(part, entry.getValue());
+                    }
+                }
+            } else {
+                System.err.println("Invalid Account; Account# " + entry.getKey() + " doesn't exist");
+            }
+        }
+
+        TransactionServer.lockManager.setLocks(accountLocks, transaction);
+    }
+
+    /**
+     * Installs the workspace of a committing transaction, recording the replaced balances in its before-image,
+     * applies its pending increments to the balances, and its writes and increments to the balance index.
+     * Must be called while the transaction still holds its locks.
+     *
+     * @param transaction the committing transaction
+     */
+    public void commit(Transaction transaction) {
+        commit(List.of(transaction));
+    }
+
+    /**
+     * Commits a batch of transactions at once, in the given order. Each transaction is committed as by
+     * {@link #commit(Transaction)}, but the increments of the batch to the same sub-balance are applied to it
+     * as one sum, and the batch updates the balance index once. All transactions of the batch still hold
+     * their locks, so none of them conflict and the order within the batch is free. The before- and after-images
+     * of each transaction are recorded as if the batch was committed one transaction after the other, in order.
+     *
+     * @param transactions the committing transactions
+     */
+    public void commit(List<Transaction> transactions) {
+        recordImages(transactions);
+
+        Map<Integer, Integer> beforeImage = new HashMap<>();
+        Map<Account, Integer> partIncrements = new HashMap<>();
+        Map<Account, Integer> partEscrows = new HashMap<>();
+        Map<Integer, Integer> increments = new HashMap<>();
+
+        for (Transaction transaction : transactions) {
+            // created accounts enter the index with a balance of 0, their initial balance is written below
+            if (balanceIndex != null) {
+                transaction.getCreatedAccounts().forEach(balanceIndex::addAccount);
+            }
+
+            // the written balance of a split account is kept in the original account, the other sub-balances
+            // are emptied, the transaction holds write locks on all of them
+            for (Map.Entry<Integer, Integer> entry : transaction.getWorkspace().entrySet()) {
+                beforeImage.put(entry.getKey(), _read(entry.getKey()));
+                SplitAccount splitAccount = splitAccounts.get(entry.getKey());
+                if (splitAccount != null) {
+                    Account[] parts = splitAccount.getParts();
+                    for (int i = 1; i < parts.length; i++) {
+                        parts[i].setBalance(0);
+                    }
+                }
+                accounts.get(entry.getKey()).setBalance(entry.getValue());
+            }
+
+            for (Map.Entry<Account, Integer> entry : transaction.getIncrements().entrySet()) {
+                partIncrements.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                partEscrows.merge(entry.getKey(), Math.max(0, -entry.getValue()), Integer::sum);
+                increments.merge(entry.getKey().getAccountNumber(), entry.getValue(), Integer::sum);
+            }
+        }
+
+        for (Map.Entry<Account, Integer> entry : partIncrements.entrySet()) {
+            entry.getKey().applyIncrement(entry.getValue(), partEscrows.get(entry.getKey()));
+        }
+
+        // closed accounts have a committed balance of 0 by now
+        for (Transaction transaction : transactions) {
+            for (int accountNumber : transaction.getClosedAccounts()) {
+                accounts.remove(accountNumber);
+                splitAccounts.remove(accountNumber);
+                incrementCounts.remove(accountNumber);
+                if (balanceIndex != null) {
+                    balanceIndex.removeAccount(accountNumber);
+                }
+            }
+        }
+
+        Set<Integer> changedAccounts = new HashSet<>(beforeImage.keySet());
+        changedAccounts.addAll(increments.keySet());
+        if (balanceIndex == null || changedAccounts.isEmpty()) {
+            return;
+        }
+
+        int[] accountNumbers = new int[changedAccounts.size()];
+        long[] deltas = new long[changedAccounts.size()];
+
+        int index = 0;
+        for (int accountNumber : changedAccounts) {
+            accountNumbers[index] = accountNumber;
+            if (beforeImage.containsKey(accountNumber)) {
+                deltas[index] = (long) _read(accountNumber) - beforeImage.get(accountNumber);
+            } else {
+                deltas[index] = increments.get(accountNumber);
+            }
+            index++;
+        }
+
+        balanceIndex.update(accountNumbers, deltas);
+    }
+
+    /**
+     * Records the balances of the accounts each transaction of a batch changes, before and after it, in batch
+     * order. Incrementers of the same account in one batch see the balance the ones before them left, so
+     * the images chain up as if they committed one by one. Closed accounts are recorded with their final balance
+     * of 0, so the commit log carries the close. Called before anything of the batch is applied.
+     *
+     * @param transactions the committing transactions
+     */
+    private void recordImages(List<Transaction> transactions) {
+        // the balances of the changed accounts as left by the transactions of the batch so far
+        Map<Integer, Integer> balances = new HashMap<>();
+
+        for (Transaction transaction : transactions) {
+            Set<Integer> changedAccounts = new HashSet<>(transaction.getWorkspace().keySet());
+            transaction.getIncrements().keySet().forEach(part -> changedAccounts.add(part.getAccountNumber()));
+            changedAccounts.addAll(transaction.getClosedAccounts());
+
+            for (int accountNumber : changedAccounts) {
+                int balance = balances.computeIfAbsent(accountNumber, this::_read);
+                transaction.addBeforeImage(accountNumber, balance);
+
+                // a written balance already includes the increments the transaction made after the write
+                Integer written = transaction.getWorkspace().get(accountNumber);
+                balance = written != null ? written : balance + transaction.getIncrement(accountNumber);
+                transaction.addAfterImage(accountNumber, balance);
+                balances.put(accountNumber, balance);
+            }
+        }
+    }
+
+    /**
+     * Discards the workspace of an aborting transaction and gives back the escrow held for its pending increments.
+     * Nothing was installed, so there is nothing to undo but the accounts it created.
+     *
+     * @param transaction the aborting transaction
+     */
+    public void abort(Transaction transaction) {
+        for (Map.Entry<Account, Integer> entry : transaction.getIncrements().entrySet()) {
+            entry.getKey().reserve(-Math.max(0, -entry.getValue()));
+        }
+        transaction.getIncrements().clear();
+        transaction.getWorkspace().clear();
+
+        // accounts created by the transaction were never visible to others, they are still locked
+        transaction.getCreatedAccounts().forEach(accounts::remove);
+        transaction.getCreatedAccounts().clear();
+        transaction.getClosedAccounts().clear();
+    }
+
+    /**
+     * Rolls the workspace and the pending increments of a transaction back to a savepoint, adjusting the escrow
+     * held for the increments. The transaction still holds all its locks. Restoring an increment a later write
+     * replaced holds its escrow again.
+     *
+     * @param transaction the transaction rolled back
+     * @param savepoint the savepoint to roll back to
+     * @return true if the transaction was rolled back, false if the escrow couldn't be held again
+     */
+    public boolean rollback(Transaction transaction, Savepoint savepoint) {
+        Set<Account> incremented = new HashSet<>(transaction.getIncrements().keySet());
+        incremented.addAll(savepoint.getIncrements().keySet());
+
+        for (Account account : incremented) {
+            int pending = transaction.getIncrements().getOrDefault(account, 0);
+            int restored = savepoint.getIncrements().getOrDefault(account, 0);
+            if (!account.reserve(Math.max(0, -restored) - Math.max(0, -pending))) {
+                return false;
+            }
+            transaction.setIncrement(account, restored);
+        }
+
+        transaction.getWorkspace().clear();
+        transaction.getWorkspace().putAll(savepoint.getWorkspace());
+
+        transaction.getCreatedAccounts().removeIf(accountNumber -> {
+            if (savepoint.getCreatedAccounts().contains(accountNumber)) {
+                return false;
+            }
+            accounts.remove(accountNumber);
+            return true;
+        });
+        transaction.getClosedAccounts().retainAll(savepoint.getClosedAccounts());
+        return true;
+    }
+
+    /**
+     * Returns the sum of the committed balances and the number of accounts in an account number range, in O(log N).
+     *
+     * @param fromAccount the first account number of the range
+     * @param toAccount the last account number of the range
+     * @return an array holding the sum and the count
+     */
+    public long[] rangeQuery(int fromAccount, int toAccount) {
+        if (balanceIndex == null) {
+            return new long[]{0, 0};
+        }
+        return balanceIndex.query(fromAccount, toAccount);
+    }
+
     public int _read(int accountNumber) {
         Account account = accounts.get(accountNumber);
 
+        SplitAccount splitAccount = splitAccounts.get(accountNumber);
+        if (splitAccount != null) {
+            return splitAccount.getBalance();
+        }
+
         if(account != null) {
             return account.getBalance();
         }
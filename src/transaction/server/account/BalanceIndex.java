@@ -0,0 +1,178 @@
+package transaction.server.account;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Class [BalanceIndex] is a Fenwick tree over account numbers holding the committed balance and the
+ * existence of each account, so the sum and the count of the accounts in any account number range are
+ * answered in O(log N). All balance changes of a transaction are applied under one monitor, so queries
+ * always see a committed state. The nodes are kept in fixed size chunks allocated on first use, and the
+ * capacity is a power of two, so growing it when accounts beyond it are created only extends the chunk
+ * directory and never copies or rebuilds the nodes, keeping readers and committers from waiting on it.
+ */
+public class BalanceIndex {
+
+    // number of nodes per chunk, as a power of two
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    // Fenwick trees in chunks, node i covers the accounts (i - lowbit(i), i], a missing chunk holds zeros
+    private long[][] sums;
+    private int[][] counts;
+
+    // highest account number that can be indexed, a power of two
+    private int capacity;
+
+    /**
+     * Creates the index for the given accounts.
+     *
+     * @param size the highest account number that can be indexed
+     * @param accounts the existing accounts by account number
+     */
+    public BalanceIndex(int size, Map<Integer, Account> accounts) {
+        capacity = Integer.highestOneBit(Math.max(size, 1));
+        if (capacity < size) {
+            capacity *= 2;
+        }
+        sums = new long[(capacity >> CHUNK_BITS) + 1][];
+        counts = new int[(capacity >> CHUNK_BITS) + 1][];
+
+        for (Account account : accounts.values()) {
+            addSum(account.getAccountNumber(), account.getBalance());
+            addCount(account.getAccountNumber(), 1);
+        }
+
+        // build in O(N) by pushing every node into its parent
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                addSum(parent, getSum(i));
+                addCount(parent, getCount(i));
+            }
+        }
+    }
+
+    /**
+     * Applies the committed balance changes of one transaction.
+     *
+     * @param accountNumbers the changed accounts
+     * @param deltas the balance change of each account
+     */
+    public synchronized void update(int[] accountNumbers, long[] deltas) {
+        for (int i = 0; i < accountNumbers.length; i++) {
+            for (int index = accountNumbers[i]; index <= capacity; index += index & -index) {
+                addSum(index, deltas[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds a created account, with a balance of 0, growing the index if the account number is beyond it.
+     *
+     * @param accountNumber the number of the created account
+     */
+    public synchronized void addAccount(int accountNumber) {
+        while (accountNumber > capacity) {
+            grow();
+        }
+        updateCount(accountNumber, 1);
+    }
+
+    /**
+     * Removes a closed account, whose committed balance must be 0.
+     *
+     * @param accountNumber the number of the closed account
+     */
+    public synchronized void removeAccount(int accountNumber) {
+        updateCount(accountNumber, -1);
+    }
+
+    private void updateCount(int accountNumber, int delta) {
+        for (int index = accountNumber; index <= capacity; index += index & -index) {
+            addCount(index, delta);
+        }
+    }
+
+    /**
+     * Doubles the capacity. The nodes between the old and the new capacity cover only accounts beyond the old
+     * capacity, which don't exist yet, except for the new root, which covers all accounts and takes over the
+     * values of the old root. Only the chunk directory is extended, the chunks themselves stay in place.
+     */
+    private void grow() {
+        int oldCapacity = capacity;
+        capacity *= 2;
+        sums = Arrays.copyOf(sums, (capacity >> CHUNK_BITS) + 1);
+        counts = Arrays.copyOf(counts, (capacity >> CHUNK_BITS) + 1);
+
+        addSum(capacity, getSum(oldCapacity));
+        addCount(capacity, getCount(oldCapacity));
+    }
+
+    /**
+     * Returns the sum of the committed balances and the number of accounts in the given range.
+     *
+     * @param fromAccount the first account number of the range
+     * @param toAccount the last account number of the range
+     * @return an array holding the sum and the count
+     */
+    public synchronized long[] query(int fromAccount, int toAccount) {
+        fromAccount = Math.max(fromAccount, 1);
+        toAccount = Math.min(toAccount, capacity);
+
+        if (fromAccount > toAccount) {
+            return new long[]{0, 0};
+        }
+        return new long[]{
+                prefixSum(toAccount) - prefixSum(fromAccount - 1),
+                prefixCount(toAccount) - prefixCount(fromAccount - 1)};
+    }
+
+    private long prefixSum(int accountNumber) {
+        long sum = 0;
+        for (int index = accountNumber; index > 0; index -= index & -index) {
+            sum += getSum(index);
+        }
+        return sum;
+    }
+
+    private long prefixCount(int accountNumber) {
+        long count = 0;
+        for (int index = accountNumber; index > 0; index -= index & -index) {
+            count += getCount(index);
+        }
+        return count;
+    }
+
+    private long getSum(int index) {
+        long[] chunk = sums[index >> CHUNK_BITS];
+        return chunk == null ? 0 : chunk[index & (CHUNK_SIZE - 1)];
+    }
+
+    private void addSum(int index, long delta) {
+        long[] chunk = sums[index >> CHUNK_BITS];
+        if (chunk == null) {
+            if (delta == 0) {
+                return;
+            }
+            chunk = sums[index >> CHUNK_BITS] = new long[CHUNK_SIZE];
+        }
+        chunk[index & (CHUNK_SIZE - 1)] += delta;
+    }
+
+    private int getCount(int index) {
+        int[] chunk = counts[index >> CHUNK_BITS];
+        return chunk == null ? 0 : chunk[index & (CHUNK_SIZE - 1)];
+    }
+
+    private void addCount(int index, int delta) {
+        int[] chunk = counts[index >> CHUNK_BITS];
+        if (chunk == null) {
+            if (delta == 0) {
+                return;
+            }
+            chunk = counts[index >> CHUNK_BITS] = new int[CHUNK_SIZE];
+        }
+        chunk[index & (CHUNK_SIZE - 1)] += delta;
+    }
+}
@@ -0,0 +1,121 @@
+package transaction.server.account;
+
+import transaction.server.lock.TransactionAbortedException;
+import transaction.server.transaction.Transaction;
+import transaction.server.transaction.TransactionManager;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class [HotAccountMonitor] splits hot accounts into sub-balances and merges them back when they cool off.
+ * Designated accounts are split at start and stay split. Other accounts are split once they receive at least
+ * the threshold number of increments in an interval, and merged back once they receive less than half of it.
+ * Splits and merges run as internal transactions of their own, older than client transactions, so under
+ * wait-die they wait for the incrementers holding the account instead of dying, and are retried in the next
+ * interval if they still abort.
+ */
+public class HotAccountMonitor extends Thread {
+
+    // the account manager holding the accounts
+    private final AccountManager accountManager;
+
+    // accounts that are always split
+    private final Set<Integer> designatedAccounts;
+
+    // number of sub-balances of a split account
+    private final int numberOfParts;
+
+    // increments per interval above which an account is split, 0 only splits the designated accounts
+    private final long threshold;
+
+    // length of an interval in milliseconds
+    private final long interval;
+
+    /**
+     * Creates a new monitor.
+     *
+     * @param accountManager the account manager holding the accounts
+     * @param designatedAccounts the accounts that are always split
+     * @param numberOfParts the number of sub-balances of a split account
+     * @param threshold the increments per interval above which an account is split, 0 to disable detection
+     * @param interval the length of an interval in milliseconds
+     */
+    public HotAccountMonitor(AccountManager accountManager, Set<Integer> designatedAccounts, int numberOfParts,
+                             long threshold, long interval) {
+        this.accountManager = accountManager;
+        this.designatedAccounts = designatedAccounts;
+        this.numberOfParts = numberOfParts;
+        this.threshold = threshold;
+        this.interval = interval;
+        setDaemon(true);
+    }
+
+    /**
+     * Thread entry point, adjusts the split accounts once per interval.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            Set<Integer> splitAccounts = accountManager.getSplitAccountNumbers();
+            Map<Integer, Long> counts = accountManager.drainIncrementCounts();
+
+            for (int accountNumber : designatedAccounts) {
+                if (!splitAccounts.contains(accountNumber)) {
+                    split(accountNumber);
+                }
+            }
+
+            if (threshold > 0) {
+                counts.forEach((accountNumber, count) -> {
+                    if (count >= threshold && !splitAccounts.contains(accountNumber)) {
+                        split(accountNumber);
+                    }
+                });
+
+                for (int accountNumber : splitAccounts) {
+                    if (!designatedAccounts.contains(accountNumber)
+                            && counts.getOrDefault(accountNumber, 0L) < threshold / 2) {
+                        merge(accountNumber);
+                    }
+                }
+            }
+
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Splits an account in a transaction of its own.
+     *
+     * @param accountNumber the account number
+     */
+    private void split(int accountNumber) {
+        Transaction transaction = TransactionManager.openInternalTransaction(false);
+        try {
+            accountManager.split(accountNumber, numberOfParts, transaction);
+            TransactionManager.commitTransaction(transaction);
+        } catch (TransactionAbortedException e) {
+            TransactionManager.abortTransaction(transaction);
+        }
+    }
+
+    /**
+     * Merges a split account back in a transaction of its own.
+     *
+     * @param accountNumber the account number
+     */
+    private void merge(int accountNumber) {
+        Transaction transaction = TransactionManager.openInternalTransaction(false);
+        try {
+            accountManager.merge(accountNumber, transaction);
+            TransactionManager.commitTransaction(transaction);
+        } catch (TransactionAbortedException e) {
+            TransactionManager.abortTransaction(transaction);
+        }
+    }
+}
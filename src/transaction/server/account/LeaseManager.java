@@ -0,0 +1,63 @@
+package transaction.server.account;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class [LeaseManager] grants clients time-bounded read leases on account balances, which they may serve from
+ * a local cache until the lease expires. A lease promises that the balance does not change before it expires:
+ * leases are only granted under a read lock, and a transaction that is about to change a leased balance waits
+ * for the lease to expire after taking its write or increment lock, so no new lease can be granted meanwhile.
+ */
+public class LeaseManager {
+
+    // length of a lease in milliseconds
+    private final long leaseDuration;
+
+    // expiry time in milliseconds of the latest lease granted on each account number
+    private final Map<Integer, Long> leaseExpiries = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new lease manager.
+     *
+     * @param leaseDuration the length of a lease in milliseconds
+     */
+    public LeaseManager(long leaseDuration) {
+        this.leaseDuration = leaseDuration;
+    }
+
+    /**
+     * Grants a lease on the balance of an account. Must be called while holding a read lock on the account.
+     *
+     * @param accountNumber the account number
+     * @return the length of the lease in milliseconds
+     */
+    public long grant(int accountNumber) {
+        long expiry = System.currentTimeMillis() + leaseDuration;
+        leaseExpiries.merge(accountNumber, expiry, Math::max);
+        return leaseDuration;
+    }
+
+    /**
+     * Waits until all leases on the balance of an account expired. Must be called while holding a write
+     * or increment lock on the account, so no new lease is granted meanwhile.
+     *
+     * @param accountNumber the account number
+     */
+    public void awaitExpiry(int accountNumber) {
+        Long expiry = leaseExpiries.get(accountNumber);
+        if (expiry == null) {
+            return;
+        }
+
+        long remaining;
+        while ((remaining = expiry - System.currentTimeMillis()) > 0) {
+            try {
+                Thread.sleep(remaining);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+        leaseExpiries.remove(accountNumber, expiry);
+    }
+}
@@ -0,0 +1,88 @@
+package transaction.server.account;
+
+/**
+ * Class [SplitAccount] spreads the balance of a hot account over several sub-balances, each an {@link Account}
+ * with its own lock and escrow, so concurrent increments of the account don't contend on one lock.
+ * The first sub-balance is the original account. The balance of the account is the sum of its sub-balances.
+ * Sub-balances are never removed: merging moves the balance back into the first one and routes new increments
+ * only there, so increments routed to another sub-balance just before the merge are not lost.
+ */
+public class SplitAccount {
+
+    // the sub-balances, the first one is the original account
+    private final Account[] parts;
+
+    // number of sub-balances increments are routed to, 1 once the account is merged back
+    private volatile int activeParts;
+
+    /**
+     * Creates a split of the given account into the given number of sub-balances, all active.
+     * The balance stays in the original account until it is spread.
+     *
+     * @param account the account to split
+     * @param numberOfParts the number of sub-balances, including the original account
+     */
+    SplitAccount(Account account, int numberOfParts) {
+        parts = new Account[numberOfParts];
+        parts[0] = account;
+        for (int i = 1; i < numberOfParts; i++) {
+            parts[i] = new Account(account.getAccountNumber(), 0);
+        }
+        activeParts = numberOfParts;
+    }
+
+    /**
+     * Returns the sub-balances, the first one is the original account.
+     *
+     * @return the sub-balances
+     */
+    public Account[] getParts() {
+        return parts;
+    }
+
+    /**
+     * Returns the number of sub-balances increments are routed to.
+     *
+     * @return the number of active sub-balances
+     */
+    public int getActiveParts() {
+        return activeParts;
+    }
+
+    /**
+     * Returns the balance of the account, the sum of its sub-balances.
+     *
+     * @return the balance
+     */
+    public int getBalance() {
+        int balance = 0;
+        for (Account part : parts) {
+            balance += part.getBalance();
+        }
+        return balance;
+    }
+
+    /**
+     * Spreads the balance evenly over all sub-balances and routes increments to all of them.
+     * Must be called while holding write locks on all sub-balances.
+     */
+    void spread() {
+        int balance = getBalance();
+        for (int i = 0; i < parts.length; i++) {
+            parts[i].setBalance(balance / parts.length + (i == 0 ? balance % parts.length : 0));
+        }
+        activeParts = parts.length;
+    }
+
+    /**
+     * Moves the balance back into the original account and routes increments only there.
+     * Must be called while holding write locks on all sub-balances.
+     */
+    void merge() {
+        parts[0].setBalance(getBalance());
+        for (int i = 1; i < parts.length; i++) {
+            parts[i].setBalance(0);
+        }
+        activeParts = 1;
+    }
+}
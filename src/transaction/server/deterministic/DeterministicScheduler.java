@@ -0,0 +1,138 @@
+package transaction.server.deterministic;
+
+import transaction.comm.MessageTypes;
+import transaction.server.TransactionServer;
+import transaction.server.lock.TransactionAbortedException;
+import transaction.server.transaction.Transaction;
+import transaction.server.transaction.TransactionManager;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class [DeterministicScheduler] runs sequenced transfers without deadlocks or aborts. Every transfer is
+ * appended to the queue of each account it touches in global order, and runs once it heads all its queues.
+ * Transfers on disjoint accounts run in parallel on a thread pool.
+ * <p>
+ * Running transfers still take their locks from the {@link transaction.server.lock.LockManager}, so they
+ * serialize with interactive transactions. They run as sequenced transactions, which are older than all others
+ * and skip wait-die, so they wait for the transactions holding their locks and are never chosen to abort.
+ */
+public class DeterministicScheduler implements MessageTypes {
+
+    // per account queue of transfers in global order, the head holds the account
+    private final Map<Integer, ArrayDeque<DeterministicTransfer>> queues = new HashMap<>();
+
+    // the threads executing transfers
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param numberOfThreads the number of threads executing transfers in parallel
+     */
+    public DeterministicScheduler(int numberOfThreads) {
+        this.executor = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the transfers of an epoch, which must be in global order, and starts those heading all their queues.
+     *
+     * @param epoch the ordered transfers of an epoch
+     */
+    public synchronized void schedule(List<DeterministicTransfer> epoch) {
+        for (DeterministicTransfer transfer : epoch) {
+            int[] accountNumbers = transfer.getAccountNumbers();
+            transfer.pendingLocks = accountNumbers.length;
+
+            for (int accountNumber : accountNumbers) {
+                ArrayDeque<DeterministicTransfer> queue = queues.computeIfAbsent(accountNumber, key -> new ArrayDeque<>());
+                queue.addLast(transfer);
+                if (queue.size() == 1) {
+                    transfer.pendingLocks--;
+                }
+            }
+
+            if (transfer.pendingLocks == 0) {
+                dispatch(transfer);
+            }
+        }
+    }
+
+    /**
+     * Removes a finished transfer from its queues and starts the transfers it was blocking.
+     *
+     * @param transfer the finished transfer
+     */
+    private synchronized void release(DeterministicTransfer transfer) {
+        for (int accountNumber : transfer.getAccountNumbers()) {
+            ArrayDeque<DeterministicTransfer> queue = queues.get(accountNumber);
+            queue.removeFirst();
+
+            DeterministicTransfer next = queue.peekFirst();
+            if (next == null) {
+                queues.remove(accountNumber);
+            } else if (--next.pendingLocks == 0) {
+                dispatch(next);
+            }
+        }
+    }
+
+    /**
+     * Runs the transfer on the thread pool.
+     *
+     * @param transfer a transfer heading all its queues
+     */
+    private void dispatch(DeterministicTransfer transfer) {
+        executor.execute(() -> {
+            int status = execute(transfer);
+            release(transfer);
+            transfer.complete(status);
+        });
+    }
+
+    /**
+     * Executes the transfer as a sequenced transaction, which is never aborted by a lock conflict. Should it
+     * be aborted anyway, the transfer is simply retried, it still heads its queues.
+     *
+     * @param transfer the transfer to execute
+     * @return the final status of the transfer
+     */
+    private int execute(DeterministicTransfer transfer) {
+        while (true) {
+            Transaction transaction = TransactionManager.openInternalTransaction(true);
+
+            try {
+                // both accounts must exist on this server
+                Integer fromBalance = TransactionServer.accountManager.read(transfer.getFromAccount(), transaction);
+                if (fromBalance == null || !TransactionServer.accountManager.write(transfer.getFromAccount(), fromBalance - transfer.getAmount(), transaction)) {
+                    TransactionManager.abortTransaction(transaction);
+                    return TRANSACTION_ABORTED;
+                }
+
+                Integer toBalance = TransactionServer.accountManager.read(transfer.getToAccount(), transaction);
+                if (toBalance == null || !TransactionServer.accountManager.write(transfer.getToAccount(), toBalance + transfer.getAmount(), transaction)) {
+                    TransactionManager.abortTransaction(transaction);
+                    return TRANSACTION_ABORTED;
+                }
+
+                transaction.log("[DeterministicScheduler.execute] transfer #" + transfer.getSequence() + " of "
+                        + transfer.getAmount() + " from account #" + transfer.getFromAccount()
+                        + " to account #" + transfer.getToAccount());
+
+                TransactionManager.commitTransaction(transaction);
+                return TRANSACTION_COMMITTED;
+            } catch (TransactionAbortedException ex) {
+                TransactionManager.abortTransaction(transaction);
+            }
+        }
+    }
+}
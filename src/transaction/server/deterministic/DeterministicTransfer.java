@@ -0,0 +1,100 @@
+package transaction.server.deterministic;
+
+/**
+ * Class [DeterministicTransfer] is a predeclared transfer between two accounts, executed in deterministic mode.
+ * Its read and write set are known up front, so it can be ordered and locked before it runs.
+ */
+public class DeterministicTransfer {
+
+    private final int fromAccount;
+    private final int toAccount;
+    private final int amount;
+
+    // global position assigned by the sequencer
+    private long sequence;
+
+    // number of account queues this transfer does not yet head, guarded by the scheduler
+    int pendingLocks;
+
+    // status of the finished transfer, 0 while running
+    private int status = 0;
+
+    /**
+     * Creates a new transfer.
+     *
+     * @param fromAccount the account to withdraw from
+     * @param toAccount the account to deposit to
+     * @param amount the amount to transfer
+     */
+    public DeterministicTransfer(int fromAccount, int toAccount, int amount) {
+        this.fromAccount = fromAccount;
+        this.toAccount = toAccount;
+        this.amount = amount;
+    }
+
+    /**
+     * Returns the accounts of this transfer in ascending order, the order in which they are queued.
+     *
+     * @return the sorted account numbers, without duplicates
+     */
+    public int[] getAccountNumbers() {
+        if (fromAccount == toAccount) {
+            return new int[]{fromAccount};
+        }
+        return new int[]{Math.min(fromAccount, toAccount), Math.max(fromAccount, toAccount)};
+    }
+
+    /**
+     * Marks the transfer as finished and wakes up the submitting thread.
+     *
+     * @param status the final status, TRANSACTION_COMMITTED or TRANSACTION_ABORTED
+     */
+    synchronized void complete(int status) {
+        this.status = status;
+        notifyAll();
+    }
+
+    /**
+     * Clears the status of a transfer once it was read, so the transfer can be executed again when redirected.
+     */
+    synchronized void reset() {
+        status = 0;
+    }
+
+    /**
+     * Waits until the transfer has been executed.
+     *
+     * @return the final status, TRANSACTION_COMMITTED or TRANSACTION_ABORTED
+     */
+    public synchronized int awaitCompletion() {
+        while (status == 0) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                // ignore
+            }
+        }
+        return status;
+    }
+
+    // getters and setters
+    public int getFromAccount() {
+        return fromAccount;
+    }
+
+    public int getToAccount() {
+        return toAccount;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+}
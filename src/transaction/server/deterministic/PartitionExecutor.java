@@ -0,0 +1,47 @@
+package transaction.server.deterministic;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Class [PartitionExecutor] is the single thread owning a partition of the accounts. It runs the tasks
+ * submitted to the partition one at a time, in submission order, so they never need locks among each other.
+ */
+public class PartitionExecutor extends Thread {
+
+    // tasks submitted to the partition and not yet run
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+
+    /**
+     * Creates the executor of a partition.
+     *
+     * @param partition the number of the partition
+     */
+    public PartitionExecutor(int partition) {
+        super("partition-" + partition);
+        setDaemon(true);
+    }
+
+    /**
+     * Submits a task to run on the partition after the tasks submitted before it.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+    }
+
+    /**
+     * Thread entry point, runs the submitted tasks one at a time.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                tasks.take().run();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
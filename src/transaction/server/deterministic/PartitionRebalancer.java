@@ -0,0 +1,116 @@
+package transaction.server.deterministic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class [PartitionRebalancer] evens out the load of the partitions of a {@link PartitionedScheduler} by
+ * migrating hot accounts off busy partitions. Once per interval it counts the transfers per account and per
+ * partition, and moves accounts from the busiest to the idlest partition as long as that narrows the gap
+ * between them. Each move picks the account whose load comes closest to half of the gap, so a single account
+ * hotter than the gap stays where it is instead of moving the imbalance to the other partition.
+ */
+public class PartitionRebalancer extends Thread {
+
+    // gap between the busiest and the idlest partition, relative to the busiest, below which nothing moves
+    private static final double MIN_IMBALANCE = 0.25;
+
+    // the scheduler whose partitions are balanced
+    private final PartitionedScheduler scheduler;
+
+    // length of an interval in milliseconds
+    private final long interval;
+
+    /**
+     * Creates a new rebalancer.
+     *
+     * @param scheduler the scheduler whose partitions are balanced
+     * @param interval the length of an interval in milliseconds
+     */
+    public PartitionRebalancer(PartitionedScheduler scheduler, long interval) {
+        super("partition-rebalancer");
+        this.scheduler = scheduler;
+        this.interval = interval;
+        setDaemon(true);
+    }
+
+    /**
+     * Thread entry point, rebalances the partitions once per interval.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            rebalance(scheduler.drainAccessCounts());
+        }
+    }
+
+    /**
+     * Migrates accounts from the busiest to the idlest partition, as long as that narrows the gap between them.
+     * At most as many accounts as there are partitions move per interval, so an interval that misjudged the
+     * load is corrected by the next ones.
+     *
+     * @param counts the transfers per account number in the last interval
+     */
+    private void rebalance(Map<Integer, Long> counts) {
+        int numberOfPartitions = scheduler.getNumberOfPartitions();
+        long[] loads = new long[numberOfPartitions];
+        List<List<Integer>> partitionAccounts = new ArrayList<>();
+        for (int partition = 0; partition < numberOfPartitions; partition++) {
+            partitionAccounts.add(new ArrayList<>());
+        }
+
+        counts.forEach((accountNumber, count) -> {
+            int partition = scheduler.getPartition(accountNumber);
+            loads[partition] += count;
+            partitionAccounts.get(partition).add(accountNumber);
+        });
+
+        for (int move = 0; move < numberOfPartitions; move++) {
+            int busiest = 0;
+            int idlest = 0;
+            for (int partition = 1; partition < numberOfPartitions; partition++) {
+                if (loads[partition] > loads[busiest]) {
+                    busiest = partition;
+                }
+                if (loads[partition] < loads[idlest]) {
+                    idlest = partition;
+                }
+            }
+
+            long gap = loads[busiest] - loads[idlest];
+            if (gap == 0 || gap < loads[busiest] * MIN_IMBALANCE) {
+                return;
+            }
+
+            // the account whose load is closest to half of the gap, moving one as large as the gap gains nothing
+            Integer candidate = null;
+            for (int accountNumber : partitionAccounts.get(busiest)) {
+                long count = counts.get(accountNumber);
+                if (count < gap && (candidate == null
+                        || Math.abs(2 * count - gap) < Math.abs(2 * counts.get(candidate) - gap))) {
+                    candidate = accountNumber;
+                }
+            }
+            if (candidate == null) {
+                return;
+            }
+
+            System.out.println("[PartitionRebalancer.rebalance] account #" + candidate + " with " + counts.get(candidate)
+                    + " transfers moves from partition " + busiest + " (" + loads[busiest] + " transfers) to partition "
+                    + idlest + " (" + loads[idlest] + " transfers)");
+            scheduler.migrate(candidate, idlest);
+
+            loads[busiest] -= counts.get(candidate);
+            loads[idlest] += counts.get(candidate);
+            partitionAccounts.get(busiest).remove(candidate);
+            partitionAccounts.get(idlest).add(candidate);
+        }
+    }
+}
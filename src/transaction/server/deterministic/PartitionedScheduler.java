@@ -0,0 +1,294 @@
+package transaction.server.deterministic;
+
+import transaction.comm.MessageTypes;
+import transaction.server.TransactionServer;
+import transaction.server.account.Account;
+import transaction.server.account.AccountManager;
+import transaction.server.lock.LockManager;
+import transaction.server.lock.LockType;
+import transaction.server.lock.TransactionAbortedException;
+import transaction.server.transaction.Transaction;
+import transaction.server.transaction.TransactionManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class [PartitionedScheduler] runs predeclared transfers H-Store style. The accounts are partitioned by number
+ * over single-threaded {@link PartitionExecutor}s, one per core. A transfer within one partition runs serially
+ * on the executor of that partition. A transfer across partitions first takes over the executors of all its
+ * partitions, in partition order so that two of them never wait for each other, then runs on the submitting
+ * thread while those executors are parked.
+ * <p>
+ * Interactive transactions run next to the transfers under the {@link transaction.server.lock.LockManager}, as
+ * they hold their accounts across client round trips. A transfer only tries the locks of its accounts on the
+ * executors, which never wait. If an interactive transaction holds one of them, the transfer leaves the
+ * executors and waits for the locks on the submitting thread like any other transaction, so only transfers
+ * meeting interactive work lock for real. Hot account splits are still refused while partitioned.
+ * <p>
+ * Accounts start out partitioned like shards, and can be migrated to another partition while transfers run,
+ * see {@link PartitionRebalancer}. A migration takes over the executors of both partitions like a transfer
+ * across them, so transfers on the account queued before it finish first. A transfer routed by the old
+ * partitioning that reaches an executor after the migration finds that the partition no longer owns its
+ * accounts, and is redirected to the new one.
+ */
+public class PartitionedScheduler implements MessageTypes {
+
+    // status of a transfer that reached a partition no longer owning its accounts, never returned to clients
+    private static final int REDIRECTED = -1;
+
+    // status of a transfer whose accounts are locked by an interactive transaction, never returned to clients
+    private static final int LOCKED = -2;
+
+    // the executors, one per partition
+    private final PartitionExecutor[] partitions;
+
+    // partitions of the accounts migrated away from their initial partition, changed only while owning both
+    private final Map<Integer, Integer> migratedAccounts = new ConcurrentHashMap<>();
+
+    // number of transfers per account number since the counts were last drained, to detect hot accounts
+    private final Map<Integer, LongAdder> accessCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new scheduler and starts the executors of its partitions.
+     *
+     * @param numberOfPartitions the number of partitions
+     */
+    public PartitionedScheduler(int numberOfPartitions) {
+        partitions = new PartitionExecutor[numberOfPartitions];
+        for (int partition = 0; partition < numberOfPartitions; partition++) {
+            partitions[partition] = new PartitionExecutor(partition);
+            partitions[partition].start();
+        }
+    }
+
+    /**
+     * Executes a transfer on the partitions of its accounts and waits for its result.
+     *
+     * @param transfer the transfer to execute
+     * @return the final status, TRANSACTION_COMMITTED or TRANSACTION_ABORTED
+     */
+    public int submit(DeterministicTransfer transfer) {
+        while (true) {
+            int fromPartition = getPartition(transfer.getFromAccount());
+            int toPartition = getPartition(transfer.getToAccount());
+            int status;
+
+            if (fromPartition == toPartition) {
+                // single partition: run serially on its executor
+                partitions[fromPartition].execute(() -> transfer.complete(
+                        owns(fromPartition, toPartition, transfer) ? execute(transfer, false) : REDIRECTED));
+                status = transfer.awaitCompletion();
+                transfer.reset();
+            } else {
+                // multi partition: park the executors of both partitions, the lower one first
+                CountDownLatch release = new CountDownLatch(1);
+                acquire(Math.min(fromPartition, toPartition), release);
+                acquire(Math.max(fromPartition, toPartition), release);
+
+                try {
+                    status = owns(fromPartition, toPartition, transfer) ? execute(transfer, false) : REDIRECTED;
+                } finally {
+                    release.countDown();
+                }
+            }
+
+            // an interactive transaction holds an account, wait for it off the executors
+            if (status == LOCKED) {
+                System.out.println("[PartitionedScheduler.submit] transfer from account #" + transfer.getFromAccount()
+                        + " to account #" + transfer.getToAccount() + " waits for the locks of an interactive transaction");
+                status = execute(transfer, true);
+            }
+
+            if (status != REDIRECTED) {
+                return status;
+            }
+            System.out.println("[PartitionedScheduler.submit] transfer from account #" + transfer.getFromAccount()
+                    + " to account #" + transfer.getToAccount() + " redirected, an account was migrated");
+        }
+    }
+
+    /**
+     * Migrates an account to another partition. Transfers on the account that run or are queued on its old
+     * partition complete first, later ones run on the new partition.
+     *
+     * @param accountNumber the account number
+     * @param toPartition the partition to migrate the account to
+     */
+    public void migrate(int accountNumber, int toPartition) {
+        int fromPartition = getPartition(accountNumber);
+        if (fromPartition == toPartition) {
+            return;
+        }
+
+        // own both partitions, so no transfer on the account runs while it moves
+        CountDownLatch release = new CountDownLatch(1);
+        acquire(Math.min(fromPartition, toPartition), release);
+        acquire(Math.max(fromPartition, toPartition), release);
+
+        try {
+            if (toPartition == AccountManager.getShard(accountNumber, partitions.length)) {
+                migratedAccounts.remove(accountNumber);
+            } else {
+                migratedAccounts.put(accountNumber, toPartition);
+            }
+        } finally {
+            release.countDown();
+        }
+
+        System.out.println("[PartitionedScheduler.migrate] account #" + accountNumber + " migrated from partition "
+                + fromPartition + " to partition " + toPartition);
+    }
+
+    /**
+     * Returns the number of transfers per account since the last call and resets the counts.
+     *
+     * @return the transfers per account number, accounts without transfers are left out
+     */
+    public Map<Integer, Long> drainAccessCounts() {
+        Map<Integer, Long> counts = new HashMap<>();
+        accessCounts.forEach((accountNumber, count) -> {
+            long sum = count.sumThenReset();
+            if (sum > 0) {
+                counts.put(accountNumber, sum);
+            }
+        });
+        return counts;
+    }
+
+    public int getNumberOfPartitions() {
+        return partitions.length;
+    }
+
+    /**
+     * Checks that the partitions a transfer was routed to still own its accounts. The caller owns those
+     * partitions, so their accounts can't be migrated meanwhile.
+     *
+     * @param fromPartition the partition the from account was routed to
+     * @param toPartition the partition the to account was routed to
+     * @param transfer the transfer
+     * @return true if the transfer may run, false if it must be redirected
+     */
+    private boolean owns(int fromPartition, int toPartition, DeterministicTransfer transfer) {
+        return getPartition(transfer.getFromAccount()) == fromPartition
+                && getPartition(transfer.getToAccount()) == toPartition;
+    }
+
+    /**
+     * Parks the executor of a partition once it reaches this request, until the release.
+     *
+     * @param partition the partition to take over
+     * @param release released once the executor may continue
+     */
+    private void acquire(int partition, CountDownLatch release) {
+        CountDownLatch parked = new CountDownLatch(1);
+        partitions[partition].execute(() -> {
+            parked.countDown();
+            awaitUninterruptibly(release);
+        });
+        awaitUninterruptibly(parked);
+    }
+
+    /**
+     * Executes the transfer as a transaction holding write locks on both accounts. On the executors the locks
+     * are only tried, as the executors must never wait; the caller owns the partitions of both accounts then.
+     *
+     * @param transfer the transfer to execute
+     * @param wait whether to wait for the locks, only off the executors
+     * @return the final status of the transfer, or LOCKED if the locks were not free without waiting
+     */
+    private int execute(DeterministicTransfer transfer, boolean wait) {
+        AccountManager accountManager = TransactionServer.accountManager;
+
+        // both accounts must exist on this server
+        Account fromAccount = accountManager.getAccountByAccountNumber(transfer.getFromAccount());
+        Account toAccount = accountManager.getAccountByAccountNumber(transfer.getToAccount());
+        if (fromAccount == null || toAccount == null) {
+            return TRANSACTION_ABORTED;
+        }
+
+        Transaction transaction = TransactionManager.openInternalTransaction(true);
+        if (!lock(transaction, fromAccount, toAccount, wait)) {
+            TransactionManager.abortTransaction(transaction);
+            return wait ? TRANSACTION_ABORTED : LOCKED;
+        }
+
+        // an interactive transaction that held an account may have closed it, or created it and aborted
+        if (accountManager.getAccountByAccountNumber(transfer.getFromAccount()) != fromAccount
+                || accountManager.getAccountByAccountNumber(transfer.getToAccount()) != toAccount) {
+            TransactionManager.abortTransaction(transaction);
+            return TRANSACTION_ABORTED;
+        }
+
+        accessCounts.computeIfAbsent(transfer.getFromAccount(), key -> new LongAdder()).increment();
+        accessCounts.computeIfAbsent(transfer.getToAccount(), key -> new LongAdder()).increment();
+
+        transaction.addToWorkspace(transfer.getFromAccount(),
+                accountManager._read(transfer.getFromAccount()) - transfer.getAmount());
+        transaction.addToWorkspace(transfer.getToAccount(),
+                transaction.getWorkspace().getOrDefault(transfer.getToAccount(),
+                        accountManager._read(transfer.getToAccount())) + transfer.getAmount());
+
+        transaction.log("[PartitionedScheduler.execute] transfer of " + transfer.getAmount() + " from account #"
+                + transfer.getFromAccount() + " to account #" + transfer.getToAccount() + " on partitions "
+                + getPartition(transfer.getFromAccount()) + " and " + getPartition(transfer.getToAccount()));
+
+        TransactionManager.commitTransaction(transaction);
+        return TRANSACTION_COMMITTED;
+    }
+
+    /**
+     * Write locks both accounts of a transfer, in account number order. Transfers are sequenced, so they never
+     * die and wait for interactive transactions instead, which die when they would wait for a transfer.
+     *
+     * @param transaction the transaction of the transfer
+     * @param fromAccount the account the amount is taken from
+     * @param toAccount the account the amount is added to
+     * @param wait whether to wait for the locks, or to only try them
+     * @return true if both accounts are locked, false if a lock was not free without waiting
+     */
+    private boolean lock(Transaction transaction, Account fromAccount, Account toAccount, boolean wait) {
+        Account first = fromAccount.getAccountNumber() <= toAccount.getAccountNumber() ? fromAccount : toAccount;
+        Account second = first == fromAccount ? toAccount : fromAccount;
+        LockManager lockManager = TransactionServer.lockManager;
+
+        if (!wait) {
+            return lockManager.trySetLock(first, transaction, LockType.WRITE_LOCK)
+                    && lockManager.trySetLock(second, transaction, LockType.WRITE_LOCK);
+        }
+
+        try {
+            lockManager.setLock(first, transaction, LockType.WRITE_LOCK);
+            lockManager.setLock(second, transaction, LockType.WRITE_LOCK);
+            return true;
+        } catch (TransactionAbortedException e) {
+            // sequenced transactions skip wait-die and the wait timeout
+            return false;
+        }
+    }
+
+    /**
+     * Returns the partition owning the account, accounts are partitioned like shards unless migrated.
+     *
+     * @param accountNumber the account number
+     * @return the partition, between 0 and the number of partitions - 1
+     */
+    public int getPartition(int accountNumber) {
+        Integer migratedPartition = migratedAccounts.get(accountNumber);
+        return migratedPartition != null ? migratedPartition : AccountManager.getShard(accountNumber, partitions.length);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+    }
+}
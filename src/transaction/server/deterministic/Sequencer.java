@@ -0,0 +1,83 @@
+package transaction.server.deterministic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class [Sequencer] collects submitted transfers into epochs and assigns them a global order.
+ * At the end of each epoch the ordered batch is handed to the {@link DeterministicScheduler}.
+ */
+public class Sequencer extends Thread {
+
+    // length of an epoch in milliseconds
+    private final long epochLength;
+
+    // the scheduler executing the sequenced transfers
+    private final DeterministicScheduler scheduler;
+
+    // transfers submitted in the current epoch, in arrival order
+    private List<DeterministicTransfer> currentEpoch = new ArrayList<>();
+
+    // global sequence counter
+    private long sequenceCounter = 0;
+
+    /**
+     * Creates a new sequencer.
+     *
+     * @param epochLength the length of an epoch in milliseconds
+     * @param scheduler the scheduler executing the sequenced transfers
+     */
+    public Sequencer(long epochLength, DeterministicScheduler scheduler) {
+        this.epochLength = epochLength;
+        this.scheduler = scheduler;
+        setDaemon(true);
+    }
+
+    /**
+     * Submits a transfer to the current epoch and waits until it has been executed.
+     *
+     * @param transfer the transfer to execute
+     * @return the final status, TRANSACTION_COMMITTED or TRANSACTION_ABORTED
+     */
+    public int submit(DeterministicTransfer transfer) {
+        synchronized (this) {
+            currentEpoch.add(transfer);
+            notifyAll();
+        }
+        return transfer.awaitCompletion();
+    }
+
+    /**
+     * Thread entry point, closes an epoch every epochLength milliseconds while there are submissions.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            List<DeterministicTransfer> epoch;
+
+            try {
+                // sleep while idle, then let the epoch fill up
+                synchronized (this) {
+                    while (currentEpoch.isEmpty()) {
+                        wait();
+                    }
+                }
+                Thread.sleep(epochLength);
+            } catch (InterruptedException ex) {
+                return;
+            }
+
+            synchronized (this) {
+                epoch = currentEpoch;
+                currentEpoch = new ArrayList<>();
+            }
+
+            // the arrival order within the epoch becomes the global order
+            for (DeterministicTransfer transfer : epoch) {
+                transfer.setSequence(++sequenceCounter);
+            }
+
+            scheduler.schedule(epoch);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package transaction.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a lock request, spanning from the request until the lock is granted
+ * or the transaction is aborted.
+ */
+@Name("transaction.LockAcquire")
+@Label("Lock Acquire")
+@Category({"Transaction Server", "Locks"})
+@Description("A transaction requesting a lock on an account, including the time spent waiting")
+@StackTrace(false)
+public class LockAcquireEvent extends jdk.jfr.Event {
+
+    @Label("Transaction Id")
+    public int transactionId;
+
+    @Label("Account Number")
+    public int accountNumber;
+
+    @Label("Lock Type")
+    public String lockType;
+
+    @Label("Waited")
+    @Description("Whether the transaction had to wait for the lock")
+    public boolean waited;
+
+    @Label("Aborted")
+    @Description("Whether the transaction was aborted instead of getting the lock")
+    public boolean aborted;
+}
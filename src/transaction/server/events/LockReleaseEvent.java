@@ -0,0 +1,27 @@
+package transaction.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a transaction releasing its lock on an account.
+ */
+@Name("transaction.LockRelease")
+@Label("Lock Release")
+@Category({"Transaction Server", "Locks"})
+@StackTrace(false)
+public class LockReleaseEvent extends jdk.jfr.Event {
+
+    @Label("Transaction Id")
+    public int transactionId;
+
+    @Label("Account Number")
+    public int accountNumber;
+
+    @Label("Lock Type")
+    @Description("The modes the releasing transaction held the lock in, e.g. READ_LOCK,INCREMENT_LOCK")
+    public String lockType;
+}
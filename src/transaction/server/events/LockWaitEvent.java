@@ -0,0 +1,32 @@
+package transaction.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one wait of a transaction on a lock. Following the blocking transaction ids
+ * from wait to wait shows the chains of transactions waiting for each other.
+ */
+@Name("transaction.LockWait")
+@Label("Lock Wait")
+@Category({"Transaction Server", "Locks"})
+@Description("A transaction waiting for a lock held by another transaction")
+@StackTrace(false)
+public class LockWaitEvent extends jdk.jfr.Event {
+
+    @Label("Transaction Id")
+    public int transactionId;
+
+    @Label("Account Number")
+    public int accountNumber;
+
+    @Label("Lock Type")
+    public String lockType;
+
+    @Label("Blocking Transaction Id")
+    @Description("A transaction holding the lock when the wait started, 0 if it was queued behind waiting writers")
+    public int blockingTransactionId;
+}
@@ -0,0 +1,27 @@
+package transaction.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for reading a request from, or writing a response to a client connection.
+ */
+@Name("transaction.Message")
+@Label("Message")
+@Category({"Transaction Server", "I/O"})
+@Description("A message read from or written to a client, reads include the time waiting for the client")
+@StackTrace(false)
+public class MessageEvent extends jdk.jfr.Event {
+
+    @Label("Direction")
+    public String direction;
+
+    @Label("Message Type")
+    public int messageType;
+
+    @Label("Transaction Id")
+    public int transactionId;
+}
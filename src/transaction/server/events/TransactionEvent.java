@@ -0,0 +1,28 @@
+package transaction.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a transaction, spanning from its open until its commit or abort.
+ */
+@Name("transaction.Transaction")
+@Label("Transaction")
+@Category({"Transaction Server", "Transactions"})
+@StackTrace(false)
+public class TransactionEvent extends jdk.jfr.Event {
+
+    @Label("Transaction Id")
+    public int transactionId;
+
+    @Label("Timestamp")
+    public int timestamp;
+
+    @Label("Outcome")
+    public String outcome;
+
+    @Label("Operation")
+    public String operation;
+}
@@ -0,0 +1,22 @@
+package transaction.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for the lock manager releasing all locks of a completing transaction.
+ */
+@Name("transaction.Unlock")
+@Label("Unlock")
+@Category({"Transaction Server", "Locks"})
+@StackTrace(false)
+public class UnlockEvent extends jdk.jfr.Event {
+
+    @Label("Transaction Id")
+    public int transactionId;
+
+    @Label("Lock Count")
+    public int lockCount;
+}
@@ -1,13 +1,35 @@
 package transaction.server.lock;
 
 import transaction.server.account.Account;
+import transaction.server.events.LockAcquireEvent;
+import transaction.server.events.LockReleaseEvent;
+import transaction.server.events.LockWaitEvent;
+import transaction.server.transaction.Priority;
 import transaction.server.transaction.Transaction;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A class representing a lock that protects an {@link Account} object.
- * If a deadlock is detected, the transaction will abort and throw a {@link TransactionAbortedException}.
+ * Deadlocks are prevented with wait-die: a transaction only waits for younger transactions (higher timestamps),
+ * otherwise it aborts and throws a {@link TransactionAbortedException}. Sequenced transactions are older than
+ * all others and never wait for each other, so they skip wait-die and the wait timeout and always wait.
+ * <p>
+ * Waiting requests are served in priority lanes: a new request queues behind the incompatible requests already
+ * waiting with a higher {@link Priority}, and readers and incrementers also queue behind waiting writers of the
+ * same priority. A waiting request ranks one priority higher than the requests arriving one aging interval after
+ * it, so lower lanes are delayed but never starved. All waiting requests age alike, so their order among each
+ * other is fixed once they are queued, and aging never needs a waiting thread to wake up and look again.
+ * <p>
+ * Waiting requests are queued per lock, in arrival order, and handed the lock directly: the thread releasing it
+ * makes one pass over the queue, grants every request that no longer conflicts, and unparks only those. The
+ * requests are also kept in one lane per lock type and priority, whose first request is the one served first,
+ * so checking a request against the waiting ones takes a look at each lane. Wait-die is decided when the waits
+ * change: a queued request dies if it would wait for an older one it queues behind or behind which it jumps, or
+ * for an older transaction granted the lock. A release on a hot account then wakes the requests it lets through,
+ * instead of every waiting thread rechecking the lock in turn.
  *
  * @author manoj and sampath
  */
@@ -16,14 +38,34 @@ public class Lock {
     // the account this lock protects
     private final Account account;
 
-    // the current lock type
+    // the current lock type, derived from the writer, the readers and the incrementers
     private LockType currentLockType;
 
-    // a list of transactions holding the lock
-    private final List<Transaction> lockHolders;
+    // the transaction holding the write lock, null if the lock is not write-locked
+    private Transaction writer;
 
-    // a map of transactions requesting the lock and their requested lock type
-    private final Map<Transaction, LockType> lockRequesters;
+    // the transactions holding a read lock, used for O(1) membership checks and counts
+    private final Set<Transaction> readers;
+
+    // the transactions holding an increment lock, they are compatible with each other
+    private final Set<Transaction> incrementers;
+
+    // the waiting requests by requesting transaction, in arrival order
+    private final Map<Transaction, LockRequest> lockRequesters;
+
+    // the first and the last waiting request of each lane by lock type and priority, allocated on the first wait
+    private LockRequest[] laneHeads;
+    private LockRequest[] laneTails;
+
+    // the lock types requests are made for, and the number of priorities, each pair has a lane
+    private static final LockType[] LOCK_TYPES = {LockType.READ_LOCK, LockType.WRITE_LOCK, LockType.INCREMENT_LOCK};
+    private static final int PRIORITIES = Priority.values().length;
+
+    // maximum time in milliseconds a transaction waits for this lock before aborting, 0 waits forever
+    private final long lockWaitTimeout;
+
+    // time in milliseconds after which a waiting request gains a priority rank, 0 disables aging
+    private final long priorityAgingInterval;
 
     // a string used as a prefix for log messages
     private static String prefixLogString = "[Lock.acquire]";
@@ -35,10 +77,38 @@ public class Lock {
      * @param account The account to protect with this lock.
      */
     public Lock(Account account) {
+        this(account, 0);
+    }
+
+    /**
+     * Creates a new {@link Lock} object that protects the specified account and aborts
+     * waiters after the given timeout. The timeout breaks deadlocks that cannot be seen locally,
+     * e.g. cycles spanning several shards.
+     *
+     * @param account The account to protect with this lock.
+     * @param lockWaitTimeout The maximum wait time in milliseconds, 0 to wait forever.
+     */
+    public Lock(Account account, long lockWaitTimeout) {
+        this(account, lockWaitTimeout, 0);
+    }
+
+    /**
+     * Creates a new {@link Lock} object that protects the specified account, aborts waiters after the given
+     * timeout and ages waiting requests into higher priorities.
+     *
+     * @param account The account to protect with this lock.
+     * @param lockWaitTimeout The maximum wait time in milliseconds, 0 to wait forever.
+     * @param priorityAgingInterval The wait time in milliseconds per priority rank gained, 0 to disable aging.
+     */
+    public Lock(Account account, long lockWaitTimeout, long priorityAgingInterval) {
         this.account = account;
+        this.lockWaitTimeout = lockWaitTimeout;
+        this.priorityAgingInterval = priorityAgingInterval;
 
-        this.lockHolders = new ArrayList<>();
-        this.lockRequesters = new HashMap<>();
+        this.writer = null;
+        this.readers = new HashSet<>();
+        this.incrementers = new HashSet<>();
+        this.lockRequesters = new LinkedHashMap<>();
 
         this.currentLockType = LockType.EMPTY_LOCK;
     }
@@ -49,113 +119,687 @@ public class Lock {
      * @param transaction The transaction trying to set the lock.
      * @param newLockType The lock type to be set.
      *
-     * @throws TransactionAbortedException If a deadlock is detected while acquiring the lock.
+     * @throws TransactionAbortedException If a deadlock is detected or the lock wait times out.
      */
-    public synchronized void acquire(Transaction transaction, LockType newLockType) throws TransactionAbortedException {
+    public void acquire(Transaction transaction, LockType newLockType) throws TransactionAbortedException {
         transaction.log(prefixLogString + " try to set " + getLockTypeString(newLockType) +
         " on account # " + account.getAccountNumber());
 
-        // check for deadlocks with other transactions holding locks
-        while(isConflict(transaction, newLockType)) {
+        LockAcquireEvent acquireEvent = new LockAcquireEvent();
+        acquireEvent.begin();
 
-            List<Lock> locks = transaction.getLocks();
+        LockWaitEvent waitEvent = new LockWaitEvent();
+        LockRequest request;
+        long requestTime;
 
-            Iterator<Lock> lockIterator = locks.iterator();
+        synchronized (this) {
+            // taken under the monitor, so the requests of a lane are in the order of their priority keys
+            requestTime = System.currentTimeMillis();
+            long priorityKey = getPriorityKey(transaction, requestTime);
 
-            Lock checkedLock;
+            if (!isConflict(transaction, newLockType, priorityKey)) {
+                grant(transaction, newLockType);
+                if (dieYoungerWaiting(transaction, newLockType)) {
+                    grantWaiting();
+                }
+                commitAcquireEvent(acquireEvent, transaction, newLockType, false);
+                return;
+            }
 
-            while(lockIterator.hasNext()) {
-                checkedLock = lockIterator.next();
+            // wait-die: abort instead of waiting for an older transaction. Waits then always go from
+            // older to younger transactions, so they can never form a cycle.
+            Transaction olderTransaction = transaction.isSequenced() ? null
+                    : getOlderConflictingTransaction(transaction, newLockType, priorityKey);
+            if (olderTransaction != null) {
+                transaction.log(prefixLogString +
+                        " aborting when trying to set a " + getLockTypeString(newLockType) +
+                        " on account #" + account.getAccountNumber() +
+                        " held by older transaction #" + olderTransaction.getTransactionId());
+                commitAcquireEvent(acquireEvent, transaction, newLockType, true);
+                throw new TransactionAbortedException(olderTransaction.getTransactionId());
+            }
 
-                // abort the transaction if a deadlock is detected
-                if(!checkedLock.lockRequesters.isEmpty()) {
-                    transaction.log(prefixLogString +
-                            " aborting when trying to set a " + getLockTypeString(newLockType) +
-                            " on account #" + account.getAccountNumber() +
-                            " while holding a " + getLockTypeString(checkedLock.currentLockType) +
-                            " on account #" + checkedLock.account.getAccountNumber());
-                    throw new TransactionAbortedException();
-                }
+            // queue the request, it is granted or died by the threads releasing the lock
+            request = new LockRequest(transaction, newLockType, priorityKey, Thread.currentThread());
+            lockRequesters.put(transaction, request);
+            link(request);
+
+            // younger requests the new one jumps ahead of would wait for an older transaction now
+            if (dieQueuedBehind(request)) {
+                grantWaiting();
             }
 
             transaction.log(prefixLogString +
                     " ---> wait to set " + getLockTypeString(newLockType) +
                     " on account #" + account.getAccountNumber());
+            System.out.println("[LockManager.acquire] Transaction with id #" + transaction.getTransactionId() +
+                    " went into wait state, while acquiring lock on Account #" + account.getAccountNumber());
 
-            addLockRequester(transaction, newLockType);
+            if (waitEvent.isEnabled()) {
+                Integer blockingTransactionId = getConflictingTransactionId(transaction);
+                waitEvent.blockingTransactionId = blockingTransactionId != null ? blockingTransactionId : 0;
+            }
+        }
 
-            try {
-                System.out.println("[LockManager.acquire] Transaction with id #" + transaction.getTransactionId() +
-                        " went into wait state, while acquiring lock on Account #" + account.getAccountNumber());
-                wait();
+        acquireEvent.waited = true;
+        waitEvent.begin();
+        await(request, lockWaitTimeout > 0 && !transaction.isSequenced() ? requestTime + lockWaitTimeout : 0);
+        waitEvent.end();
+        if (waitEvent.shouldCommit()) {
+            waitEvent.transactionId = transaction.getTransactionId();
+            waitEvent.accountNumber = account.getAccountNumber();
+            waitEvent.lockType = getLockTypeString(newLockType);
+            waitEvent.commit();
+        }
+
+        switch (request.state) {
+            case GRANTED:
+                transaction.log(prefixLogString +
+                        " <--- woke up and set " + getLockTypeString(newLockType) +
+                        " on account #" + account.getAccountNumber());
                 System.out.println("[LockManager.acquire] Transaction with id #" + transaction.getTransactionId() +
                         " is released for Account #" + account.getAccountNumber());
-            } catch (InterruptedException ex) {
-                // ignore
+                commitAcquireEvent(acquireEvent, transaction, newLockType, false);
+                return;
+            case DIED:
+                transaction.log(prefixLogString +
+                        " aborting when trying to set a " + getLockTypeString(newLockType) +
+                        " on account #" + account.getAccountNumber() +
+                        " held by older transaction #" + request.blockingTransactionId);
+                break;
+            default:
+                transaction.log(prefixLogString +
+                        " aborting after waiting " + lockWaitTimeout + "ms to set a " + getLockTypeString(newLockType) +
+                        " on account #" + account.getAccountNumber());
+        }
+        commitAcquireEvent(acquireEvent, transaction, newLockType, true);
+        throw new TransactionAbortedException(request.blockingTransactionId);
+    }
+
+    /**
+     * Parks the requesting thread until its request is granted or died, or gives it up once the deadline passed.
+     *
+     * @param request the queued request of the calling thread
+     * @param deadline the time in milliseconds the request is given up, 0 to wait forever
+     */
+    private void await(LockRequest request, long deadline) {
+        while (request.state == RequestState.WAITING) {
+            if (deadline == 0) {
+                LockSupport.park(this);
+            } else {
+                // abort the transaction if it waited too long, it may be part of a deadlock we cannot see
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    synchronized (this) {
+                        if (request.state == RequestState.WAITING) {
+                            lockRequesters.remove(request.transaction);
+                            unlink(request);
+                            request.blockingTransactionId = getConflictingTransactionId(request.transaction);
+                            request.state = RequestState.TIMED_OUT;
+
+                            // requests queued behind the one given up may pass now, without waiting for the
+                            // next release
+                            grantWaiting();
+                        }
+                    }
+                    return;
+                }
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(remaining));
             }
 
-            removeLockRequester(transaction);
+            // interrupts are ignored, clear the flag so the thread parks again
+            Thread.interrupted();
+        }
+    }
 
+    /**
+     * Makes one pass over the waiting requests in arrival order, grants the ones no longer in conflict and unparks
+     * their threads. Requests that still wait are left parked, unless they now wait for an older transaction that
+     * was granted the lock, then they die, and the requests they held up get another pass. Called whenever the
+     * holders or the waiting requests of this lock change.
+     */
+    private void grantWaiting() {
+        while (!lockRequesters.isEmpty() && grantPass()) {
+            // requests died, the ones queued behind them may pass now
+        }
+    }
 
-            transaction.log(prefixLogString +
-                    " <--- woke up again trying to set " + getLockTypeString(newLockType) +
-                    " on account #" + account.getAccountNumber());
+    /**
+     * Makes one pass of {@link #grantWaiting()}.
+     *
+     * @return true if requests died, false otherwise
+     */
+    private boolean grantPass() {
+        // the oldest transaction granted each lock type in this pass
+        Transaction oldestReader = null;
+        Transaction oldestWriter = null;
+        Transaction oldestIncrementer = null;
+
+        Iterator<LockRequest> requests = lockRequesters.values().iterator();
+        while (requests.hasNext()) {
+            LockRequest request = requests.next();
+            Transaction transaction = request.transaction;
+            if (isConflict(transaction, request.lockType, request.priorityKey)) {
+                continue;
+            }
+
+            requests.remove();
+            unlink(request);
+            grant(transaction, request.lockType);
+            request.state = RequestState.GRANTED;
+            LockSupport.unpark(request.thread);
+
+            if (request.lockType == LockType.READ_LOCK) {
+                oldestReader = older(oldestReader, transaction);
+            } else if (request.lockType == LockType.WRITE_LOCK) {
+                oldestWriter = older(oldestWriter, transaction);
+            } else {
+                oldestIncrementer = older(oldestIncrementer, transaction);
+            }
         }
 
-        // At this point, we are not in conflict, set the lock
-        if (lockHolders.isEmpty()) {
-            lockHolders.add(transaction);
-            currentLockType = newLockType;
-        } else if (lockHolders.stream().anyMatch(lockedTransaction -> lockedTransaction != transaction)) {
-            lockHolders.add(transaction);
+        return dieYoungerWaiting(oldestReader, oldestWriter, oldestIncrementer);
+    }
+
+    /**
+     * Dies the waiting requests younger than a transaction just granted a lock type they are incompatible with.
+     *
+     * @param transaction the transaction granted the lock
+     * @param lockType the lock type granted
+     * @return true if requests died, false otherwise
+     */
+    private boolean dieYoungerWaiting(Transaction transaction, LockType lockType) {
+        return !lockRequesters.isEmpty() && dieYoungerWaiting(lockType == LockType.READ_LOCK ? transaction : null,
+                lockType == LockType.WRITE_LOCK ? transaction : null,
+                lockType == LockType.INCREMENT_LOCK ? transaction : null);
+    }
+
+    /**
+     * Dies the waiting requests younger than a transaction granted a lock type they are incompatible with. Only the
+     * newly granted holders are checked, the waits on the other holders were checked when they started.
+     *
+     * @param reader the oldest transaction granted a read lock, or null
+     * @param writer the oldest transaction granted the write lock, or null
+     * @param incrementer the oldest transaction granted an increment lock, or null
+     * @return true if requests died, false otherwise
+     */
+    private boolean dieYoungerWaiting(Transaction reader, Transaction writer, Transaction incrementer) {
+        if (reader == null && writer == null && incrementer == null) {
+            return false;
+        }
+
+        boolean died = false;
+        Iterator<LockRequest> requests = lockRequesters.values().iterator();
+        while (requests.hasNext()) {
+            LockRequest request = requests.next();
+            if (request.transaction.isSequenced()) {
+                continue;
+            }
+
+            int timestamp = request.transaction.getTimestamp();
+            Transaction older = writer != null && writer.getTimestamp() < timestamp ? writer
+                    : request.lockType != LockType.READ_LOCK && reader != null && reader.getTimestamp() < timestamp
+                    ? reader
+                    : request.lockType != LockType.INCREMENT_LOCK && incrementer != null
+                    && incrementer.getTimestamp() < timestamp ? incrementer : null;
+            if (older != null) {
+                requests.remove();
+                die(request, older);
+                died = true;
+            }
+        }
+        return died;
+    }
+
+    /**
+     * Dies the younger requests the given newly queued one jumps ahead of, they would wait for an older transaction.
+     * The requests of a lane it jumps ahead of are the last ones, so each lane is walked back from its end only as
+     * far as the new request ranks higher.
+     *
+     * @param request the newly queued request
+     * @return true if a request died, false otherwise
+     */
+    private boolean dieQueuedBehind(LockRequest request) {
+        boolean died = false;
+        int timestamp = request.transaction.getTimestamp();
+
+        for (LockType lockType : LOCK_TYPES) {
+            for (int priority = 0; priority < PRIORITIES; priority++) {
+                LockRequest waiting = laneTails[getLane(lockType, priority)];
+                while (waiting != null && precedes(request.lockType, request.priorityKey, waiting.lockType,
+                        waiting.priorityKey)) {
+                    LockRequest previous = waiting.previous;
+                    if (waiting != request && !waiting.transaction.isSequenced()
+                            && waiting.transaction.getTimestamp() > timestamp) {
+                        lockRequesters.remove(waiting.transaction);
+                        die(waiting, request.transaction);
+                        died = true;
+                    }
+                    waiting = previous;
+                }
+            }
+        }
+        return died;
+    }
+
+    /**
+     * Dies a waiting request, already removed from the waiting requests by transaction, and unparks its thread.
+     *
+     * @param request the request
+     * @param olderTransaction the older transaction the request would wait for
+     */
+    private void die(LockRequest request, Transaction olderTransaction) {
+        unlink(request);
+        request.blockingTransactionId = olderTransaction.getTransactionId();
+        request.state = RequestState.DIED;
+        LockSupport.unpark(request.thread);
+    }
+
+    /**
+     * Returns the older of two transactions.
+     *
+     * @param transaction a transaction, or null
+     * @param other another transaction
+     * @return the transaction with the lower timestamp, other if transaction is null
+     */
+    private static Transaction older(Transaction transaction, Transaction other) {
+        return transaction == null || other.getTimestamp() < transaction.getTimestamp() ? other : transaction;
+    }
+
+    /**
+     * Appends a waiting request to the end of its lane.
+     *
+     * @param request the request
+     */
+    private void link(LockRequest request) {
+        if (laneHeads == null) {
+            laneHeads = new LockRequest[LockType.values().length * PRIORITIES];
+            laneTails = new LockRequest[LockType.values().length * PRIORITIES];
+        }
+
+        int lane = getLane(request.lockType, request.transaction.getPriority().ordinal());
+        request.previous = laneTails[lane];
+        if (laneTails[lane] != null) {
+            laneTails[lane].next = request;
         } else {
-            // promote the lock
-            currentLockType = currentLockType.promote();
+            laneHeads[lane] = request;
         }
+        laneTails[lane] = request;
     }
 
-    private void removeLockRequester(Transaction transaction) {
-        lockRequesters.remove(transaction);
+    /**
+     * Removes a waiting request from its lane.
+     *
+     * @param request the request
+     */
+    private void unlink(LockRequest request) {
+        int lane = getLane(request.lockType, request.transaction.getPriority().ordinal());
+        if (request.previous != null) {
+            request.previous.next = request.next;
+        } else {
+            laneHeads[lane] = request.next;
+        }
+        if (request.next != null) {
+            request.next.previous = request.previous;
+        } else {
+            laneTails[lane] = request.previous;
+        }
+        request.previous = null;
+        request.next = null;
     }
 
-    private void addLockRequester(Transaction transaction, LockType newLockType) {
-        lockRequesters.put(transaction, newLockType);
+    private static int getLane(LockType lockType, int priority) {
+        return lockType.ordinal() * PRIORITIES + priority;
     }
 
     /**
-     * Determines whether a lock request from the given transaction with the given lock type
-     * conflicts with the current locks held by other transactions.
+     * Ends and records a lock request event, if recording is enabled.
      *
-     * @param transaction The transaction requesting the lock.
-     * @param newLockType The lock type requested by the transaction.
+     * @param event the event started when the lock was requested
+     * @param transaction the transaction that requested the lock
+     * @param lockType the requested lock type
+     * @param aborted whether the transaction was aborted instead of getting the lock
+     */
+    private void commitAcquireEvent(LockAcquireEvent event, Transaction transaction, LockType lockType, boolean aborted) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.transactionId = transaction.getTransactionId();
+            event.accountNumber = account.getAccountNumber();
+            event.lockType = getLockTypeString(lockType);
+            event.aborted = aborted;
+            event.commit();
+        }
+    }
+
+    /**
+     * Acquires this lock in the specified mode if it is available, without waiting.
      *
-     * @return true if the lock request conflicts with existing locks, false otherwise
+     * @param transaction The transaction trying to set the lock.
+     * @param newLockType The lock type to be set.
+     *
+     * @return true if the lock was set, false if it conflicts with other transactions
      */
-    private boolean isConflict(Transaction transaction, LockType newLockType) {
-        if (lockHolders.isEmpty()) {
+    public synchronized boolean tryAcquire(Transaction transaction, LockType newLockType) {
+        if (isConflict(transaction, newLockType, getPriorityKey(transaction, System.currentTimeMillis()))) {
             return false;
         }
 
-        if (lockHolders.size() == 1 && lockHolders.get(0) == transaction) {
+        grant(transaction, newLockType);
+        if (dieYoungerWaiting(transaction, newLockType)) {
+            grantWaiting();
+        }
+        return true;
+    }
+
+    /**
+     * Sets the lock in the specified mode for the transaction, which must not be in conflict.
+     *
+     * @param transaction The transaction setting the lock.
+     * @param newLockType The lock type to be set.
+     */
+    private void grant(Transaction transaction, LockType newLockType) {
+        if (newLockType == LockType.WRITE_LOCK) {
+            if (writer != transaction) {
+                // promote a read or increment lock held by this transaction, if any
+                readers.remove(transaction);
+                incrementers.remove(transaction);
+                writer = transaction;
+            }
+        } else if (writer == transaction) {
+            // the write lock covers reads and increments
+        } else if (newLockType == LockType.INCREMENT_LOCK) {
+            incrementers.add(transaction);
+        } else {
+            readers.add(transaction);
+        }
+
+        updateLockType();
+    }
+
+    /**
+     * Releases the read lock of the given transaction before it completes, keeping a write or increment lock
+     * it holds on the same account. hands the lock to the waiting requests
+     *
+     * @param transaction the transaction that wants to release its read lock
+     * @return true if the transaction no longer holds this lock in any mode
+     */
+    public synchronized boolean releaseRead(Transaction transaction) {
+        if (readers.remove(transaction)) {
+            updateLockType();
+            grantWaiting();
+        }
+        return writer != transaction && !incrementers.contains(transaction);
+    }
+
+    /**
+     * Returns the modes the given transaction holds this lock in.
+     *
+     * @param transaction the transaction
+     * @return the lock types held, empty if the transaction doesn't hold this lock
+     */
+    public synchronized Set<LockType> getLockTypes(Transaction transaction) {
+        Set<LockType> lockTypes = EnumSet.noneOf(LockType.class);
+        if (writer == transaction) {
+            lockTypes.add(LockType.WRITE_LOCK);
+        }
+        if (readers.contains(transaction)) {
+            lockTypes.add(LockType.READ_LOCK);
+        }
+        if (incrementers.contains(transaction)) {
+            lockTypes.add(LockType.INCREMENT_LOCK);
+        }
+        return lockTypes;
+    }
+
+    /**
+     * Gives back the modes of this lock the given transaction acquired after it held it in the given modes,
+     * when the transaction is rolled back to a savepoint. A write lock is downgraded to the earlier modes,
+     * which never conflict with other transactions as the write lock was held exclusively. hands the lock
+     * to the waiting requests
+     *
+     * @param transaction the transaction rolled back
+     * @param lockTypes the modes the transaction held the lock in at the savepoint
+     */
+    public synchronized void restore(Transaction transaction, Set<LockType> lockTypes) {
+        if (lockTypes.contains(LockType.WRITE_LOCK)) {
+            return;
+        }
+
+        if (writer == transaction) {
+            writer = null;
+            if (lockTypes.contains(LockType.READ_LOCK)) {
+                readers.add(transaction);
+            }
+            if (lockTypes.contains(LockType.INCREMENT_LOCK)) {
+                incrementers.add(transaction);
+            }
+        } else {
+            if (!lockTypes.contains(LockType.READ_LOCK)) {
+                readers.remove(transaction);
+            }
+            if (!lockTypes.contains(LockType.INCREMENT_LOCK)) {
+                incrementers.remove(transaction);
+            }
+        }
+
+        updateLockType();
+        grantWaiting();
+    }
+
+    /**
+     * Checks if the transaction with the given id is waiting for this lock.
+     *
+     * @param transactionId the id of the transaction
+     * @return true if the transaction waits for this lock, false otherwise
+     */
+    public synchronized boolean isRequestedBy(int transactionId) {
+        return lockRequesters.keySet().stream().anyMatch(requester -> requester.getTransactionId() == transactionId);
+    }
+
+    /**
+     * Returns the id of a transaction holding this lock other than the given one,
+     * used as a hint for clients restarting an aborted transaction.
+     *
+     * @param transaction the transaction requesting the lock
+     * @return the id of a conflicting lock holder, or null if there is none
+     */
+    private Integer getConflictingTransactionId(Transaction transaction) {
+        if (writer != null && writer != transaction) {
+            return writer.getTransactionId();
+        }
+        for (Transaction reader : readers) {
+            if (reader != transaction) {
+                return reader.getTransactionId();
+            }
+        }
+        for (Transaction incrementer : incrementers) {
+            if (incrementer != transaction) {
+                return incrementer.getTransactionId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Recomputes the current lock type from the writer, the readers and the incrementers.
+     */
+    private void updateLockType() {
+        if (writer != null) {
+            currentLockType = LockType.WRITE_LOCK;
+        } else if (!readers.isEmpty()) {
+            currentLockType = LockType.READ_LOCK;
+        } else if (!incrementers.isEmpty()) {
+            currentLockType = LockType.INCREMENT_LOCK;
+        } else {
+            currentLockType = LockType.EMPTY_LOCK;
+        }
+    }
+
+    /**
+     * Returns the key a request is ranked by among the waiting requests, higher keys are served first. With aging,
+     * a request ranks one priority higher than the requests arriving one aging interval after it. The keys of two
+     * requests compare the same whenever they are compared, so the order of the waiting requests is fixed.
+     *
+     * @param transaction the requesting transaction
+     * @param requestTime the time in milliseconds of the request
+     * @return the priority key of the request
+     */
+    private long getPriorityKey(Transaction transaction, long requestTime) {
+        long rank = transaction.getPriority().getRank();
+        return priorityAgingInterval > 0 ? rank * priorityAgingInterval - requestTime : rank;
+    }
+
+    /**
+     * Tells whether a waiting request is served before a request of the given lock type and key: an incompatible
+     * request with a higher key, or a writer with the same key if the request is for a shared lock type.
+     *
+     * @param waitingLockType the lock type of the waiting request
+     * @param waitingKey the priority key of the waiting request
+     * @param lockType the lock type of the request
+     * @param key the priority key of the request
+     * @return true if the waiting request is served first, false otherwise
+     */
+    private static boolean precedes(LockType waitingLockType, long waitingKey, LockType lockType, long key) {
+        if (waitingLockType == lockType && lockType != LockType.WRITE_LOCK) {
             return false;
         }
+        return waitingLockType == LockType.WRITE_LOCK && lockType != LockType.WRITE_LOCK
+                ? waitingKey >= key : waitingKey > key;
+    }
 
-        if (newLockType == LockType.READ_LOCK) {
-            boolean writeLockFound = false;
-            for (Transaction lockHolder : lockHolders) {
-                if (lockHolder == transaction) {
-                    continue;
+    /**
+     * Tells whether the given request queues behind a waiting one. Only the first request of each lane, the one of
+     * that lane served first, needs a look, so this takes constant time.
+     *
+     * @param transaction The transaction requesting the lock, its own request doesn't count.
+     * @param newLockType The lock type requested by the transaction.
+     * @param priorityKey The priority key of the request.
+     *
+     * @return true if a waiting request is served first, false otherwise
+     */
+    private boolean isPreceded(Transaction transaction, LockType newLockType, long priorityKey) {
+        if (lockRequesters.isEmpty()) {
+            return false;
+        }
+
+        for (LockType lockType : LOCK_TYPES) {
+            for (int priority = 0; priority < PRIORITIES; priority++) {
+                LockRequest waiting = laneHeads[getLane(lockType, priority)];
+                if (waiting != null && waiting.transaction == transaction) {
+                    waiting = waiting.next;
                 }
-                if (lockHolder.getLocks().stream()
-                        .anyMatch(lock -> lock.currentLockType == LockType.WRITE_LOCK)) {
-                    writeLockFound = true;
-                    break;
+                if (waiting != null && precedes(lockType, waiting.priorityKey, newLockType, priorityKey)) {
+                    return true;
                 }
             }
-            return writeLockFound;
         }
+        return false;
+    }
 
-        return true;
+    /**
+     * Returns a waiting transaction older than the given one that the given request queues behind. Walks the lanes
+     * from their first request only as far as those are served first.
+     *
+     * @param transaction The transaction requesting the lock.
+     * @param newLockType The lock type requested by the transaction.
+     * @param priorityKey The priority key of the request.
+     *
+     * @return an older waiting transaction the request queues behind, or null if there is none
+     */
+    private Transaction getOlderPrecedingRequester(Transaction transaction, LockType newLockType, long priorityKey) {
+        if (lockRequesters.isEmpty()) {
+            return null;
+        }
+
+        int timestamp = transaction.getTimestamp();
+        for (LockType lockType : LOCK_TYPES) {
+            for (int priority = 0; priority < PRIORITIES; priority++) {
+                LockRequest waiting = laneHeads[getLane(lockType, priority)];
+                while (waiting != null && (waiting.transaction == transaction
+                        || precedes(lockType, waiting.priorityKey, newLockType, priorityKey))) {
+                    if (waiting.transaction != transaction && waiting.transaction.getTimestamp() < timestamp) {
+                        return waiting.transaction;
+                    }
+                    waiting = waiting.next;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a transaction older than the given one that the given lock request would have to wait for:
+     * the writer, the other holders of an incompatible mode, or the waiting transactions the request
+     * queues behind.
+     * Only called when the request is in conflict.
+     *
+     * @param transaction The transaction requesting the lock.
+     * @param newLockType The lock type requested by the transaction.
+     * @param priorityKey The priority key of the request.
+     *
+     * @return an older conflicting transaction, or null if all conflicting transactions are younger
+     */
+    private Transaction getOlderConflictingTransaction(Transaction transaction, LockType newLockType, long priorityKey) {
+        int timestamp = transaction.getTimestamp();
+
+        // the write lock is held alone, the request also waits for the requests it queues behind
+        if (writer != null && writer != transaction) {
+            return writer.getTimestamp() < timestamp ? writer
+                    : getOlderPrecedingRequester(transaction, newLockType, priorityKey);
+        }
+
+        if (newLockType != LockType.READ_LOCK) {
+            for (Transaction reader : readers) {
+                if (reader != transaction && reader.getTimestamp() < timestamp) {
+                    return reader;
+                }
+            }
+        }
+        if (newLockType != LockType.INCREMENT_LOCK) {
+            for (Transaction incrementer : incrementers) {
+                if (incrementer != transaction && incrementer.getTimestamp() < timestamp) {
+                    return incrementer;
+                }
+            }
+        }
+        return getOlderPrecedingRequester(transaction, newLockType, priorityKey);
+    }
+
+    /**
+     * Determines whether a lock request from the given transaction with the given lock type
+     * conflicts with the current locks held by other transactions.
+     *
+     * @param transaction The transaction requesting the lock.
+     * @param newLockType The lock type requested by the transaction.
+     * @param priorityKey The priority key of the request.
+     *
+     * @return true if the lock request conflicts with existing locks, false otherwise
+     */
+    private boolean isConflict(Transaction transaction, LockType newLockType, long priorityKey) {
+        // a write lock excludes everybody but its owner
+        if (writer != null) {
+            return writer != transaction;
+        }
+
+        int otherReaders = readers.size() - (readers.contains(transaction) ? 1 : 0);
+        int otherIncrementers = incrementers.size() - (incrementers.contains(transaction) ? 1 : 0);
+
+        // read locks are shared among readers, but new readers queue behind waiting writers so they do not starve
+        if (newLockType == LockType.READ_LOCK) {
+            return otherIncrementers > 0 || (!readers.contains(transaction)
+                    && isPreceded(transaction, newLockType, priorityKey));
+        }
+
+        // increment locks are shared among incrementers, and queue behind waiting writers like readers do
+        if (newLockType == LockType.INCREMENT_LOCK) {
+            return otherReaders > 0 || (!incrementers.contains(transaction)
+                    && isPreceded(transaction, newLockType, priorityKey));
+        }
+
+        // a write lock can only be set if this transaction is the only reader or incrementer, if any,
+        // and no request of a higher priority is waiting
+        return otherReaders > 0 || otherIncrementers > 0
+                || isPreceded(transaction, newLockType, priorityKey);
     }
 
 
@@ -171,23 +815,88 @@ public class Lock {
                 return "READ_LOCK";
             case WRITE_LOCK:
                 return "WRITE_LOCK";
+            case INCREMENT_LOCK:
+                return "INCREMENT_LOCK";
             default:
                 return "EMPTY_LOCK";
         }
     }
 
     /**
-     * Removes the given transaction from the list of lock holders and sets the current lock type to empty.
-     * notifies the waiting threads
+     * Removes the given transaction from the lock holders and updates the current lock type.
+     * hands the lock to the waiting requests
      *
      * @param transaction the transaction that wants to release the lock
      */
     public synchronized void release(Transaction transaction) {
-        if (lockHolders.contains(transaction)) {
+        boolean released = false;
+
+        LockReleaseEvent releaseEvent = new LockReleaseEvent();
+        if (releaseEvent.isEnabled()) {
+            releaseEvent.transactionId = transaction.getTransactionId();
+            releaseEvent.accountNumber = account.getAccountNumber();
+            StringJoiner heldLockTypes = new StringJoiner(",");
+            for (LockType lockType : getLockTypes(transaction)) {
+                heldLockTypes.add(getLockTypeString(lockType));
+            }
+            releaseEvent.lockType = heldLockTypes.toString();
+        }
+
+        if (writer == transaction) {
+            writer = null;
+            released = true;
+        }
+        if (readers.remove(transaction)) {
+            released = true;
+        }
+        if (incrementers.remove(transaction)) {
+            released = true;
+        }
+
+        if (released) {
             System.out.println("[LockManager.release] Transaction with id #" + transaction.getTransactionId() +
                     " is released all its locks");
-            lockHolders.remove(transaction);
-            notifyAll();
+            updateLockType();
+            grantWaiting();
+            releaseEvent.commit();
+        }
+    }
+
+    /**
+     * The states of a waiting lock request.
+     */
+    private enum RequestState {
+        WAITING, GRANTED, DIED, TIMED_OUT
+    }
+
+    /**
+     * A waiting lock request and the thread parked on it.
+     */
+    private static class LockRequest {
+
+        private final Transaction transaction;
+        private final LockType lockType;
+
+        // the key the request is ranked by, see getPriorityKey
+        private final long priorityKey;
+
+        private final Thread thread;
+
+        // the neighbours in the lane of the request, guarded by the lock's monitor
+        private LockRequest previous;
+        private LockRequest next;
+
+        // set under the lock's monitor, the parked thread reads it after being unparked
+        private volatile RequestState state = RequestState.WAITING;
+
+        // the transaction the request died for or timed out on, a restart hint for the client
+        private Integer blockingTransactionId;
+
+        LockRequest(Transaction transaction, LockType lockType, long priorityKey, Thread thread) {
+            this.transaction = transaction;
+            this.lockType = lockType;
+            this.priorityKey = priorityKey;
+            this.thread = thread;
         }
     }
 }
@@ -1,10 +1,15 @@
 package transaction.server.lock;
 
 import transaction.server.account.Account;
+import transaction.server.events.UnlockEvent;
 import transaction.server.transaction.Transaction;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * class [LockManager] manages the locks for accounts
@@ -16,11 +21,40 @@ public class LockManager {
     // locks keep track of the current locks held on accounts
     private Map<Account, Lock> locks;
 
+    // maximum time in milliseconds a transaction waits for a lock, 0 waits forever
+    private final long lockWaitTimeout;
+
+    // time in milliseconds after which a waiting lock request gains a priority rank, 0 disables aging
+    private final long priorityAgingInterval;
+
     /**
      * Constructor which constructs a new LockManager with an empty lock map.
      */
     public LockManager() {
+        this(0);
+    }
+
+    /**
+     * Constructs a new LockManager with an empty lock map, whose locks abort waiting
+     * transactions after the given timeout.
+     *
+     * @param lockWaitTimeout the maximum lock wait time in milliseconds, 0 to wait forever
+     */
+    public LockManager(long lockWaitTimeout) {
+        this(lockWaitTimeout, 0);
+    }
+
+    /**
+     * Constructs a new LockManager with an empty lock map, whose locks abort waiting
+     * transactions after the given timeout and age waiting requests into higher priorities.
+     *
+     * @param lockWaitTimeout the maximum lock wait time in milliseconds, 0 to wait forever
+     * @param priorityAgingInterval the wait time in milliseconds per priority rank gained, 0 to disable aging
+     */
+    public LockManager(long lockWaitTimeout, long priorityAgingInterval) {
         this.locks = new HashMap<>();
+        this.lockWaitTimeout = lockWaitTimeout;
+        this.priorityAgingInterval = priorityAgingInterval;
     }
 
     /**
@@ -39,14 +73,153 @@ public class LockManager {
         }
     }
 
+    /**
+     * Acquires a lock of the specified type on the given account for the specified transaction if it is available,
+     * without waiting.
+     *
+     * @param account the account to acquire the lock on
+     * @param transaction the transaction that wants to acquire the lock
+     * @param lockType the type of lock to acquire
+     * @return true if the lock was set, false if it conflicts with other transactions
+     */
+    public boolean trySetLock(Account account, Transaction transaction, LockType lockType) {
+        Lock lock = getOrCreateLock(account);
+        if (!lock.tryAcquire(transaction, lockType)) {
+            return false;
+        }
+        if(!transaction.getLocks().contains(lock)) {
+            transaction.addLock(lock);
+        }
+        return true;
+    }
+
+    /**
+     * Acquires all the given locks for a transaction that does not hold any locks yet (conservative 2PL).
+     * The locks are tried in ascending account number order. If any of them is unavailable, the ones already
+     * set are released again and the transaction waits for the next release, so it never holds a partial set
+     * while waiting and cannot take part in a deadlock.
+     *
+     * @param declaredLocks the accounts and the lock types the transaction will use
+     * @param transaction the transaction that wants to acquire the locks
+     */
+    public synchronized void setLocks(Map<Account, LockType> declaredLocks, Transaction transaction) {
+        // sub-balances of a split account share its account number, so they are kept as separate entries
+        List<Map.Entry<Account, LockType>> sortedLocks = new ArrayList<>(declaredLocks.entrySet());
+        sortedLocks.sort(Comparator.comparingInt(entry -> entry.getKey().getAccountNumber()));
+
+        List<Lock> acquiredLocks = new ArrayList<>();
+
+        while (true) {
+            for (Map.Entry<Account, LockType> entry : sortedLocks) {
+                Lock lock = getOrCreateLock(entry.getKey());
+
+                if (!lock.tryAcquire(transaction, entry.getValue())) {
+                    break;
+                }
+                acquiredLocks.add(lock);
+            }
+
+            if (acquiredLocks.size() == sortedLocks.size()) {
+                acquiredLocks.forEach(transaction::addLock);
+                transaction.log("[LockManager.setLocks] set " + acquiredLocks.size() + " declared locks");
+                return;
+            }
+
+            // give back the partial set and wait until some transaction releases its locks
+            acquiredLocks.forEach(lock -> lock.release(transaction));
+            acquiredLocks.clear();
+
+            transaction.log("[LockManager.setLocks] ---> wait for declared locks to become available");
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                // ignore
+            }
+        }
+    }
+
     /**
      * Releases all locks held by the specified transaction.
+     * notifies the transactions waiting for a set of declared locks
      *
      * @param transaction the transaction to release locks for
      */
     public synchronized void unlock(Transaction transaction) {
+        UnlockEvent event = new UnlockEvent();
+        event.begin();
+
+        int lockCount = transaction.getLocks().size();
         transaction.getLocks().forEach(lock -> lock.release(transaction));
         transaction.getLocks().clear();
+        notifyAll();
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.transactionId = transaction.getTransactionId();
+            event.lockCount = lockCount;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the locks held by the specified transaction with the modes they are held in,
+     * for a savepoint the transaction may be rolled back to.
+     *
+     * @param transaction the transaction
+     * @return the locks held by the transaction and their modes
+     */
+    public synchronized Map<Lock, Set<LockType>> getLockTypes(Transaction transaction) {
+        Map<Lock, Set<LockType>> lockTypes = new HashMap<>();
+        transaction.getLocks().forEach(lock -> lockTypes.put(lock, lock.getLockTypes(transaction)));
+        return lockTypes;
+    }
+
+    /**
+     * Checks if the transaction with the given id waits for one of the locks the specified transaction keeps
+     * when rolled back to a savepoint. Rolling back would then not resolve the conflict between the two.
+     *
+     * @param savepointLockTypes the locks the specified transaction held at the savepoint
+     * @param transactionId the id of the waiting transaction
+     * @return true if the transaction waits for one of the locks, false otherwise
+     */
+    public boolean isAnyRequestedBy(Map<Lock, Set<LockType>> savepointLockTypes, int transactionId) {
+        return savepointLockTypes.keySet().stream().anyMatch(lock -> lock.isRequestedBy(transactionId));
+    }
+
+    /**
+     * Releases the locks the specified transaction acquired after a savepoint, and downgrades the ones it
+     * held in weaker modes at the savepoint. notifies the transactions waiting for a set of declared locks
+     *
+     * @param transaction the transaction rolled back
+     * @param savepointLockTypes the locks the transaction held at the savepoint and their modes
+     */
+    public synchronized void rollback(Transaction transaction, Map<Lock, Set<LockType>> savepointLockTypes) {
+        transaction.getLocks().removeIf(lock -> {
+            Set<LockType> lockTypes = savepointLockTypes.get(lock);
+            if (lockTypes == null) {
+                lock.release(transaction);
+                return true;
+            }
+            lock.restore(transaction, lockTypes);
+            return false;
+        });
+        notifyAll();
+    }
+
+    /**
+     * Releases the read lock of the specified transaction on the given account before the transaction completes,
+     * for transactions that don't hold their read locks until commit.
+     * notifies the transactions waiting for a set of declared locks
+     *
+     * @param account the account to release the read lock on
+     * @param transaction the transaction holding the read lock
+     */
+    public synchronized void releaseReadLock(Account account, Transaction transaction) {
+        Lock lock = locks.get(account);
+        if (lock != null && lock.releaseRead(transaction)) {
+            transaction.getLocks().remove(lock);
+        }
+        notifyAll();
     }
 
     /**
@@ -58,7 +231,7 @@ public class LockManager {
     private synchronized Lock getOrCreateLock(Account account) {
         Lock lock = locks.get(account);
         if (lock == null) {
-            lock = new Lock(account);
+            lock = new Lock(account, lockWaitTimeout, priorityAgingInterval);
             locks.put(account, lock);
         }
         return lock;
@@ -14,19 +14,23 @@ public enum LockType {
     READ_LOCK,
 
     // Indicates that write lock is currently held on the resource.
-    WRITE_LOCK;
+    WRITE_LOCK,
+
+    // Indicates that increment locks are currently held on the resource. Increments commute, so
+    // incrementers share the lock with each other, but exclude readers and writers.
+    INCREMENT_LOCK;
 
     /**
      * Promotes the current lock type to the next higher lock type in the hierarchy.
      * If the current lock type is EMPTY_LOCK, it is promoted to READ_LOCK
-     * If the current lock type is READ_LOCK, it is promoted to WRITE_LOCK
+     * If the current lock type is READ_LOCK or INCREMENT_LOCK, it is promoted to WRITE_LOCK
      *
      * @return the next higher lock type in the hierarchy
      */
     public LockType promote() {
         if (this == EMPTY_LOCK) {
             return READ_LOCK;
-        } else if(this == READ_LOCK) {
+        } else if(this == READ_LOCK || this == INCREMENT_LOCK) {
             return WRITE_LOCK;
         }
         return this;
@@ -4,4 +4,25 @@ package transaction.server.lock;
  * class [TransactionAbortedException] throws custom exception when transaction is aborted
  */
 public class TransactionAbortedException extends Throwable {
+
+    // id of the transaction holding the lock this transaction conflicted with, null if unknown
+    private final Integer conflictingTransactionId;
+
+    public TransactionAbortedException() {
+        this(null);
+    }
+
+    /**
+     * Creates the exception with a hint about the transaction that caused the abort,
+     * so a client can wait for it to complete before restarting.
+     *
+     * @param conflictingTransactionId the id of the conflicting transaction, null if unknown
+     */
+    public TransactionAbortedException(Integer conflictingTransactionId) {
+        this.conflictingTransactionId = conflictingTransactionId;
+    }
+
+    public Integer getConflictingTransactionId() {
+        return conflictingTransactionId;
+    }
 }
@@ -0,0 +1,26 @@
+package transaction.server.lock;
+
+/**
+ * class [TransactionRolledBackException] is thrown when a conflict rolled a transaction back to a savepoint
+ * instead of aborting it. The transaction is still open and continues from the savepoint.
+ */
+public class TransactionRolledBackException extends TransactionAbortedException {
+
+    // id of the savepoint the transaction was rolled back to
+    private final int savepointId;
+
+    /**
+     * Creates the exception for a transaction rolled back to the given savepoint.
+     *
+     * @param savepointId the id of the savepoint the transaction was rolled back to
+     * @param conflictingTransactionId the id of the conflicting transaction, null if unknown
+     */
+    public TransactionRolledBackException(int savepointId, Integer conflictingTransactionId) {
+        super(conflictingTransactionId);
+        this.savepointId = savepointId;
+    }
+
+    public int getSavepointId() {
+        return savepointId;
+    }
+}
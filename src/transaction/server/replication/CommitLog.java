@@ -0,0 +1,213 @@
+package transaction.server.replication;
+
+import transaction.comm.Message;
+import transaction.comm.MessageTypes;
+import transaction.server.account.AccountManager;
+import transaction.server.transaction.Transaction;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class [CommitLog] keeps the most recent committed writes of a primary server in commit order,
+ * and streams them to replicas and to change feed subscribers. Appending never waits for them: each one
+ * is streamed by its own thread, which only blocks on its connection, and one that falls behind the
+ * retained records is sent a snapshot of the committed balances instead.
+ */
+public class CommitLog implements MessageTypes {
+
+    // maximum number of records sent to a replica at once
+    private static final int MAX_BATCH_SIZE = 256;
+
+    // ring buffer of the most recent records, record n is kept at index n % records.length
+    private final CommitRecord[] records;
+
+    // sequence number of the last appended record, 0 if none
+    private long lastSequence = 0;
+
+    // the committed balance of every account, kept in sync with the records for snapshots
+    private final Map<Integer, Integer> committedBalances = new TreeMap<>();
+
+    // interval in milliseconds in which replicas receive at least a heartbeat
+    private final long heartbeatInterval;
+
+    /**
+     * Creates a new commit log, starting from the current balances of the accounts.
+     *
+     * @param accountManager the account manager holding the initial balances
+     * @param numberOfAccounts the total number of accounts
+     * @param capacity the number of records retained for replicas catching up
+     * @param heartbeatInterval the heartbeat interval in milliseconds
+     */
+    public CommitLog(AccountManager accountManager, int numberOfAccounts, int capacity, long heartbeatInterval) {
+        this.records = new CommitRecord[capacity];
+        this.heartbeatInterval = heartbeatInterval;
+
+        for (int i = 1; i <= numberOfAccounts; i++) {
+            if (accountManager.getAccountByAccountNumber(i) != null) {
+                committedBalances.put(i, accountManager._read(i));
+            }
+        }
+    }
+
+    /**
+     * Appends the writes and increments of the given transaction, after they were applied. Must be called while
+     * the transaction still holds its locks, in the order the transactions were committed.
+     *
+     * @param transaction the committing transaction, with the before- and after-images recorded at commit
+     * @return the appended record, or null if the transaction did not write
+     */
+    public synchronized CommitRecord append(Transaction transaction) {
+        if (transaction.getBeforeImage().isEmpty()) {
+            return null;
+        }
+
+        Map<Integer, Integer> changes = new TreeMap<>(transaction.getBeforeImage());
+
+        int[] accountNumbers = new int[changes.size()];
+        int[] oldBalances = new int[changes.size()];
+        int[] newBalances = new int[changes.size()];
+
+        int index = 0;
+        for (Map.Entry<Integer, Integer> entry : changes.entrySet()) {
+            accountNumbers[index] = entry.getKey();
+            oldBalances[index] = entry.getValue();
+            newBalances[index] = transaction.getAfterImage().get(entry.getKey());
+            committedBalances.put(accountNumbers[index], newBalances[index]);
+            index++;
+        }
+
+        // closed accounts leave the snapshots, followers remove them on the record
+        int[] closedAccounts = transaction.getClosedAccounts().stream().mapToInt(Integer::intValue).sorted().toArray();
+        for (int accountNumber : closedAccounts) {
+            committedBalances.remove(accountNumber);
+        }
+
+        CommitRecord record = new CommitRecord(++lastSequence, transaction.getTransactionId(),
+                System.currentTimeMillis(), accountNumbers, oldBalances, newBalances, closedAccounts);
+        records[(int) (lastSequence % records.length)] = record;
+
+        // wake up the replica streams
+        notifyAll();
+        return record;
+    }
+
+    /**
+     * Returns the sequence number of the last appended record.
+     *
+     * @return the last sequence number, 0 if nothing was committed yet
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Returns the sequence number of the oldest record still retained.
+     *
+     * @return the oldest retained sequence number
+     */
+    private long getOldestSequence() {
+        return Math.max(1, lastSequence - records.length + 1);
+    }
+
+    /**
+     * Streams the log to a replica until the connection breaks. A replica starting from position 0, from a
+     * position no longer retained, or from a position beyond the last record, as after a restart of the primary,
+     * first receives a snapshot of the committed balances.
+     * Every batch of records is followed by a heartbeat carrying the primary's last sequence number and time.
+     *
+     * @param writeToNet the stream to the replica
+     * @param position the sequence number of the last record the replica applied
+     * @throws IOException if the connection to the replica breaks
+     */
+    public void serve(ObjectOutputStream writeToNet, long position) throws IOException {
+        serve(writeToNet, position, REPLICATION_SNAPSHOT, REPLICATION_RECORD, REPLICATION_HEARTBEAT);
+    }
+
+    /**
+     * Streams the log to a change feed subscriber until the connection breaks, like to a replica. A subscriber
+     * that reads slower than transactions commit only holds up its own stream, until it falls behind the
+     * retained records and is sent a snapshot to resynchronize from. So is one resuming from a position beyond
+     * the last record, as after a restart of the server.
+     *
+     * @param writeToNet the stream to the subscriber
+     * @param position the sequence number of the last record the subscriber consumed, 0 to start with a snapshot
+     * @throws IOException if the connection to the subscriber breaks
+     */
+    public void serveChanges(ObjectOutputStream writeToNet, long position) throws IOException {
+        serve(writeToNet, position, CHANGE_SNAPSHOT, CHANGE_RECORD, CHANGE_HEARTBEAT);
+    }
+
+    /**
+     * Streams the log until the connection breaks, with the given message types.
+     *
+     * @param writeToNet the stream to the follower
+     * @param position the sequence number of the last record the follower consumed
+     * @param snapshotType the message type of snapshots
+     * @param recordType the message type of records
+     * @param heartbeatType the message type of heartbeats
+     * @throws IOException if the connection to the follower breaks
+     */
+    private void serve(ObjectOutputStream writeToNet, long position, int snapshotType, int recordType,
+                       int heartbeatType) throws IOException {
+        long next = position + 1;
+        boolean snapshotNeeded = position == 0;
+
+        while (true) {
+            Message snapshot = null;
+            List<CommitRecord> batch = new ArrayList<>();
+            long[] heartbeat;
+
+            synchronized (this) {
+                // a follower ahead of the log consumed records of a log lost in a restart, which are not these
+                if (next > lastSequence + 1) {
+                    snapshotNeeded = true;
+                }
+
+                if (!snapshotNeeded && next > lastSequence) {
+                    try {
+                        wait(heartbeatInterval);
+                    } catch (InterruptedException ex) {
+                        // ignore
+                    }
+                }
+
+                if (snapshotNeeded || next < getOldestSequence()) {
+                    // the follower is new, fell behind the retained records or is ahead of the log, send all
+                    // committed balances
+                    System.out.println("[CommitLog.serve] sending snapshot at sequence #" + lastSequence
+                            + " to follower at position #" + (next - 1));
+                    snapshot = new Message(snapshotType,
+                            new Object[]{lastSequence, new HashMap<>(committedBalances)});
+                    next = lastSequence + 1;
+                    snapshotNeeded = false;
+                }
+
+                while (next <= lastSequence && batch.size() < MAX_BATCH_SIZE) {
+                    batch.add(records[(int) (next % records.length)]);
+                    next++;
+                }
+
+                heartbeat = new long[]{lastSequence, System.currentTimeMillis()};
+            }
+
+            // write outside the monitor, so a slow follower never blocks committing transactions
+            if (snapshot != null) {
+                writeToNet.writeObject(snapshot);
+            }
+            for (CommitRecord record : batch) {
+                writeToNet.writeObject(new Message(recordType, record));
+            }
+            writeToNet.writeObject(new Message(heartbeatType, heartbeat));
+
+            // forget the written objects, they are never sent again
+            writeToNet.reset();
+            writeToNet.flush();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package transaction.server.replication;
+
+import java.io.Serializable;
+
+/**
+ * Class [CommitRecord] describes the writes of one committed transaction, in the order of commit.
+ * Account numbers are sorted, and for each account the balance before and after the transaction is kept.
+ * Accounts the transaction closed are among them, with a balance of 0, and are listed as closed as well.
+ */
+public class CommitRecord implements Serializable {
+
+    // version of the serialized form, shared by primaries, replicas and subscribers built separately
+    private static final long serialVersionUID = 1L;
+
+    // position of this record in the commit order, starting with 1
+    private final long sequence;
+
+    // the transaction that committed the writes
+    private final int transactionId;
+
+    // time of the commit on the primary, in milliseconds
+    private final long commitTime;
+
+    // the written accounts with their balances before and after the transaction
+    private final int[] accountNumbers;
+    private final int[] oldBalances;
+    private final int[] newBalances;
+
+    // the accounts closed by the transaction, sorted
+    private final int[] closedAccounts;
+
+    /**
+     * Creates a new commit record.
+     *
+     * @param sequence the position of the record in the commit order
+     * @param transactionId the id of the committed transaction
+     * @param commitTime the commit time in milliseconds
+     * @param accountNumbers the written accounts, sorted
+     * @param oldBalances the balances before the transaction
+     * @param newBalances the balances after the transaction
+     * @param closedAccounts the accounts closed by the transaction, sorted
+     */
+    public CommitRecord(long sequence, int transactionId, long commitTime,
+                        int[] accountNumbers, int[] oldBalances, int[] newBalances, int[] closedAccounts) {
+        this.sequence = sequence;
+        this.transactionId = transactionId;
+        this.commitTime = commitTime;
+        this.accountNumbers = accountNumbers;
+        this.oldBalances = oldBalances;
+        this.newBalances = newBalances;
+        this.closedAccounts = closedAccounts;
+    }
+
+    // getters
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getTransactionId() {
+        return transactionId;
+    }
+
+    public long getCommitTime() {
+        return commitTime;
+    }
+
+    public int[] getAccountNumbers() {
+        return accountNumbers;
+    }
+
+    public int[] getOldBalances() {
+        return oldBalances;
+    }
+
+    public int[] getNewBalances() {
+        return newBalances;
+    }
+
+    public int[] getClosedAccounts() {
+        return closedAccounts;
+    }
+}
@@ -0,0 +1,210 @@
+package transaction.server.replication;
+
+import transaction.comm.Message;
+import transaction.comm.MessageTypes;
+import transaction.server.TransactionServer;
+import transaction.server.lock.TransactionAbortedException;
+import transaction.server.transaction.Transaction;
+import transaction.server.transaction.TransactionManager;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class [ReplicaApplier] is the thread of a replica server that follows the commit log of the primary.
+ * Records are applied in commit order, each one as a local transaction holding write locks, so read-only
+ * transactions on the replica only see committed states. After a lost connection the replica reconnects
+ * and continues from the last applied record.
+ */
+public class ReplicaApplier extends Thread implements MessageTypes {
+
+    // time in milliseconds to wait before reconnecting to the primary
+    private static final long RECONNECT_DELAY = 1000;
+
+    // time in milliseconds to wait before the first retry of an aborted install, doubling up to the maximum
+    private static final long INSTALL_RETRY_DELAY = 1;
+    private static final long INSTALL_RETRY_MAX_DELAY = 100;
+
+    // network related fields
+    private final String primaryIP;
+    private final int primaryPort;
+
+    // sequence number of the last applied record
+    private volatile long lastAppliedSequence = 0;
+
+    // time on the primary up to which this replica is known to be complete, 0 if never
+    private volatile long upToDateTime = 0;
+
+    /**
+     * Creates a new replica applier following the given primary.
+     *
+     * @param primaryIP the IP of the primary server
+     * @param primaryPort the port of the primary server
+     */
+    public ReplicaApplier(String primaryIP, int primaryPort) {
+        this.primaryIP = primaryIP;
+        this.primaryPort = primaryPort;
+        setDaemon(true);
+    }
+
+    /**
+     * Returns the sequence number of the last applied record.
+     *
+     * @return the last applied sequence number
+     */
+    public long getLastAppliedSequence() {
+        return lastAppliedSequence;
+    }
+
+    /**
+     * Returns how far this replica may lag behind the primary, in milliseconds.
+     *
+     * @return the staleness in milliseconds, or Long.MAX_VALUE if the replica never caught up
+     */
+    public long getStaleness() {
+        return upToDateTime == 0 ? Long.MAX_VALUE : System.currentTimeMillis() - upToDateTime;
+    }
+
+    /**
+     * Thread entry point, follows the primary for the lifetime of the server.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try (Socket primary = new Socket(primaryIP, primaryPort)) {
+                ObjectOutputStream writeToNet = new ObjectOutputStream(primary.getOutputStream());
+                ObjectInputStream readFromNet = new ObjectInputStream(primary.getInputStream());
+
+                System.out.println("[ReplicaApplier.run] following primary from sequence #" + lastAppliedSequence);
+                writeToNet.writeObject(new Message(REPLICATE, lastAppliedSequence));
+                writeToNet.flush();
+
+                while (true) {
+                    process((Message) readFromNet.readObject());
+                }
+            } catch (IOException | ClassNotFoundException ex) {
+                System.out.println("[ReplicaApplier.run] lost connection to primary, reconnecting ...");
+            }
+
+            try {
+                Thread.sleep(RECONNECT_DELAY);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Processes one message of the primary's log stream.
+     *
+     * @param message a snapshot, record or heartbeat message
+     */
+    @SuppressWarnings("unchecked")
+    private void process(Message message) {
+        switch (message.getType()) {
+            case REPLICATION_SNAPSHOT:
+                Object[] content = (Object[]) message.getContent();
+                Map<Integer, Integer> balances = new TreeMap<>((Map<Integer, Integer>) content[1]);
+
+                int[] accountNumbers = new int[balances.size()];
+                int[] newBalances = new int[balances.size()];
+                int index = 0;
+                for (Map.Entry<Integer, Integer> entry : balances.entrySet()) {
+                    accountNumbers[index] = entry.getKey();
+                    newBalances[index] = entry.getValue();
+                    index++;
+                }
+
+                // accounts missing from the snapshot were closed on the primary meanwhile
+                List<Integer> closedAccounts = new ArrayList<>();
+                for (int accountNumber = 1; accountNumber <= TransactionServer.accountManager.getHighestAccountNumber();
+                     accountNumber++) {
+                    if (!balances.containsKey(accountNumber)
+                            && TransactionServer.accountManager.getAccountByAccountNumber(accountNumber) != null) {
+                        closedAccounts.add(accountNumber);
+                    }
+                }
+
+                install(accountNumbers, newBalances, closedAccounts.stream().mapToInt(Integer::intValue).toArray());
+                lastAppliedSequence = (long) content[0];
+                System.out.println("[ReplicaApplier.process] installed snapshot at sequence #" + lastAppliedSequence);
+                break;
+
+            case REPLICATION_RECORD:
+                CommitRecord record = (CommitRecord) message.getContent();
+
+                // records arrive in commit order, skip anything already covered by a snapshot
+                if (record.getSequence() <= lastAppliedSequence) {
+                    break;
+                }
+                install(record.getAccountNumbers(), record.getNewBalances(), record.getClosedAccounts());
+                lastAppliedSequence = record.getSequence();
+                break;
+
+            case REPLICATION_HEARTBEAT:
+                long[] heartbeat = (long[]) message.getContent();
+                long primarySequence = heartbeat[0];
+
+                if (lastAppliedSequence >= primarySequence) {
+                    upToDateTime = heartbeat[1];
+                } else {
+                    System.out.println("[ReplicaApplier.process] replication lag " + (primarySequence - lastAppliedSequence)
+                            + " records, " + getStaleness() + "ms");
+                }
+                break;
+        }
+    }
+
+    /**
+     * Installs the given balances as one local transaction, retrying if it is aborted by a deadlock
+     * with a read-only transaction. Accounts are sorted, so lock order is the same for all installs.
+     * Accounts the primary created since are created here as well, and the ones it closed are emptied and
+     * closed. Retries keep the timestamp of the first attempt, so the install ages past the readers it
+     * conflicts with, and back off exponentially.
+     *
+     * @param accountNumbers the accounts to write, sorted
+     * @param balances the balances to install
+     * @param closedAccounts the accounts to close, sorted
+     */
+    private void install(int[] accountNumbers, int[] balances, int[] closedAccounts) {
+        Integer timestamp = null;
+        long retryDelay = INSTALL_RETRY_DELAY;
+
+        while (true) {
+            Transaction transaction = TransactionManager.openTransaction(timestamp);
+            timestamp = transaction.getTimestamp();
+
+            try {
+                for (int i = 0; i < accountNumbers.length; i++) {
+                    if (TransactionServer.accountManager.getAccountByAccountNumber(accountNumbers[i]) == null) {
+                        TransactionServer.accountManager.createAccount(accountNumbers[i], balances[i], transaction);
+                    } else {
+                        TransactionServer.accountManager.write(accountNumbers[i], balances[i], transaction);
+                    }
+                }
+                for (int accountNumber : closedAccounts) {
+                    if (TransactionServer.accountManager.write(accountNumber, 0, transaction)) {
+                        TransactionServer.accountManager.closeAccount(accountNumber, transaction);
+                    }
+                }
+                TransactionManager.commitTransaction(transaction);
+                return;
+            } catch (TransactionAbortedException ex) {
+                TransactionManager.abortTransaction(transaction);
+            }
+
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException ex) {
+                // ignore
+            }
+            retryDelay = Math.min(retryDelay * 2, INSTALL_RETRY_MAX_DELAY);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package transaction.server.trace;
+
+import transaction.comm.Message;
+import transaction.comm.MessageTypes;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Class [TraceRecord] is one entry of a workload trace: a request read from a client connection, or the
+ * response written to it. Records are written in a fixed size binary format of 29 bytes.
+ */
+public class TraceRecord implements MessageTypes {
+
+    // marks the start of a trace file, "TRC1"
+    public static final int MAGIC = 0x54524331;
+
+    // directions of a record
+    public static final byte REQUEST = 0;
+    public static final byte RESPONSE = 1;
+
+    // time since the start of the recording in microseconds
+    private final long time;
+
+    // the connection the message was sent on, a client transaction uses one connection
+    private final int connectionId;
+
+    // the server side transaction id, 0 before the transaction is opened
+    private final int transactionId;
+
+    // REQUEST or RESPONSE
+    private final byte direction;
+
+    // the type of the message, for plain responses the type of the request they answer
+    private final int messageType;
+
+    // the account number of a request, 0 if it has none
+    private final int accountNumber;
+
+    // the balance written, the amount incremented, the timestamp a restart is opened with,
+    // or the value of a plain response, 0 otherwise
+    private final int value;
+
+    /**
+     * Creates a new trace record.
+     *
+     * @param time the time since the start of the recording in microseconds
+     * @param connectionId the connection the message was sent on
+     * @param transactionId the server side transaction id, 0 if none
+     * @param direction REQUEST or RESPONSE
+     * @param messageType the message type
+     * @param accountNumber the account number, 0 if none
+     * @param value the balance, amount or response value, 0 if none
+     */
+    public TraceRecord(long time, int connectionId, int transactionId, byte direction, int messageType,
+                       int accountNumber, int value) {
+        this.time = time;
+        this.connectionId = connectionId;
+        this.transactionId = transactionId;
+        this.direction = direction;
+        this.messageType = messageType;
+        this.accountNumber = accountNumber;
+        this.value = value;
+    }
+
+    /**
+     * Creates the record of a request, taking the account number and value from the message content.
+     *
+     * @param time the time since the start of the recording in microseconds
+     * @param connectionId the connection the request was read from
+     * @param transactionId the server side transaction id, 0 if none
+     * @param request the request
+     * @return the trace record
+     */
+    public static TraceRecord ofRequest(long time, int connectionId, int transactionId, Message request) {
+        int accountNumber = 0;
+        int value = 0;
+
+        switch (request.getType()) {
+            case OPEN_TRANSACTION:
+                Object timestamp = request.getContent() instanceof Object[]
+                        ? ((Object[]) request.getContent())[0] : request.getContent();
+                value = timestamp != null ? (int) timestamp : 0;
+                break;
+            case READ_REQUEST:
+            case READ_LEASE_REQUEST:
+                accountNumber = (int) request.getContent();
+                break;
+            case WRITE_REQUEST:
+            case INCREMENT_REQUEST:
+                Object[] content = (Object[]) request.getContent();
+                accountNumber = (int) content[0];
+                value = (int) content[1];
+                break;
+            default:
+                break;
+        }
+        return new TraceRecord(time, connectionId, transactionId, REQUEST, request.getType(), accountNumber, value);
+    }
+
+    /**
+     * Creates the record of a response.
+     *
+     * @param time the time since the start of the recording in microseconds
+     * @param connectionId the connection the response was written to
+     * @param transactionId the server side transaction id, 0 if none
+     * @param requestType the type of the request the response answers
+     * @param response the response, a message or a plain value
+     * @return the trace record
+     */
+    public static TraceRecord ofResponse(long time, int connectionId, int transactionId, int requestType, Object response) {
+        if (response instanceof Message) {
+            return new TraceRecord(time, connectionId, transactionId, RESPONSE, ((Message) response).getType(), 0, 0);
+        }
+        // an opened transaction is answered with its id and timestamp, the id is recorded
+        int value = response instanceof Integer ? (Integer) response
+                : response instanceof int[] ? ((int[]) response)[0] : 0;
+        return new TraceRecord(time, connectionId, transactionId, RESPONSE, requestType, 0, value);
+    }
+
+    /**
+     * Writes this record to a trace.
+     *
+     * @param out the trace stream
+     * @throws IOException if the trace cannot be written
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(time);
+        out.writeInt(connectionId);
+        out.writeInt(transactionId);
+        out.writeByte(direction);
+        out.writeInt(messageType);
+        out.writeInt(accountNumber);
+        out.writeInt(value);
+    }
+
+    /**
+     * Reads the next record from a trace.
+     *
+     * @param in the trace stream
+     * @return the record
+     * @throws IOException if the trace cannot be read, EOFException at its end
+     */
+    public static TraceRecord read(DataInputStream in) throws IOException {
+        return new TraceRecord(in.readLong(), in.readInt(), in.readInt(), in.readByte(), in.readInt(),
+                in.readInt(), in.readInt());
+    }
+
+    // getters
+    public long getTime() {
+        return time;
+    }
+
+    public int getConnectionId() {
+        return connectionId;
+    }
+
+    public int getTransactionId() {
+        return transactionId;
+    }
+
+    public boolean isRequest() {
+        return direction == REQUEST;
+    }
+
+    public int getMessageType() {
+        return messageType;
+    }
+
+    public int getAccountNumber() {
+        return accountNumber;
+    }
+
+    public int getValue() {
+        return value;
+    }
+}
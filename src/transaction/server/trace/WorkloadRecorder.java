@@ -0,0 +1,111 @@
+package transaction.server.trace;
+
+import transaction.comm.Message;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Class [WorkloadRecorder] records the requests a server reads from its clients, and the responses it writes,
+ * to a binary trace that {@link transaction.client.WorkloadReplayer} feeds back to a server.
+ * Only the messages of client transactions are recorded, not replication, range queries or deterministic transfers.
+ * The trace is buffered and flushed when the server exits.
+ */
+public class WorkloadRecorder {
+
+    // the trace file
+    private final DataOutputStream out;
+
+    // time the recording started, record times are relative to it
+    private final long startNanos = System.nanoTime();
+
+    // flag for stopping after a write error, so a full disk doesn't stop the server
+    private boolean failed = false;
+
+    /**
+     * Creates a new recorder writing to the given file, replacing it if it exists.
+     *
+     * @param traceFile the path of the trace file
+     * @throws IOException if the file cannot be created
+     */
+    public WorkloadRecorder(String traceFile) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(traceFile), 1 << 16));
+        out.writeInt(TraceRecord.MAGIC);
+        out.writeLong(System.currentTimeMillis());
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Records a request read from a client connection.
+     *
+     * @param connectionId the connection the request was read from
+     * @param transactionId the server side transaction id, 0 if none
+     * @param request the request
+     */
+    public void recordRequest(int connectionId, int transactionId, Message request) {
+        if (isRecorded(request.getType())) {
+            write(TraceRecord.ofRequest(now(), connectionId, transactionId, request));
+        }
+    }
+
+    /**
+     * Records a response written to a client connection.
+     *
+     * @param connectionId the connection the response was written to
+     * @param transactionId the server side transaction id, 0 if none
+     * @param requestType the type of the request the response answers
+     * @param response the response, a message or a plain value
+     */
+    public void recordResponse(int connectionId, int transactionId, int requestType, Object response) {
+        if (isRecorded(requestType)) {
+            write(TraceRecord.ofResponse(now(), connectionId, transactionId, requestType, response));
+        }
+    }
+
+    /**
+     * Flushes and closes the trace.
+     */
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // we don't care
+        }
+    }
+
+    private long now() {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    private synchronized void write(TraceRecord record) {
+        if (failed) {
+            return;
+        }
+        try {
+            record.write(out);
+        } catch (IOException e) {
+            System.out.println("[WorkloadRecorder.write] couldn't write trace, recording stopped");
+            failed = true;
+        }
+    }
+
+    private static boolean isRecorded(int messageType) {
+        switch (messageType) {
+            case Message.OPEN_TRANSACTION:
+            case Message.CLOSE_TRANSACTION:
+            case Message.READ_REQUEST:
+            case Message.READ_LEASE_REQUEST:
+            case Message.WRITE_REQUEST:
+            case Message.INCREMENT_REQUEST:
+            case Message.PREPARE:
+            case Message.COMMIT:
+            case Message.ABORT:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
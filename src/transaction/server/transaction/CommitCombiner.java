@@ -0,0 +1,140 @@
+package transaction.server.transaction;
+
+import transaction.server.TransactionServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class [CommitCombiner] applies commits in flat-combining style. A committing thread publishes its transaction
+ * to a queue instead of blocking on the commit monitor. Whichever committing thread gets the combiner role
+ * drains the queue and commits the whole batch in one pass: installs the writes, sums the increments of the
+ * batch per sub-balance, updates the balance index once and appends the commit records. The other threads
+ * park until their commit is applied, or until the batch failed, which each of them then fails with. All
+ * transactions in the queue still hold their locks, so hot accounts receive one increment per batch instead of
+ * one per transaction. Each transaction still releases its own locks once its commit is applied.
+ * <p>
+ * There is one combiner for the server, not one per hot account: commits are applied in one global order,
+ * which the commit log and the balance index follow, and a transaction may write several hot accounts at
+ * once, so per-account queues would meet at the same commit monitor again.
+ */
+public class CommitCombiner {
+
+    // time a publishing thread parks before checking whether it can combine itself, in nanoseconds
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    // commits published and not yet applied
+    private final Queue<PendingCommit> pendingCommits = new ConcurrentLinkedQueue<>();
+
+    // held by the thread acting as combiner
+    private final ReentrantLock combinerLock = new ReentrantLock();
+
+    // maximum number of commits applied in one batch
+    private final int batchSize;
+
+    /**
+     * Creates a new combiner.
+     *
+     * @param batchSize the maximum number of commits applied in one batch
+     */
+    public CommitCombiner(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Publishes the commit of a transaction and returns once it is applied, by this thread or by another one.
+     *
+     * @param transaction the committing transaction, still holding its locks
+     * @throws IllegalStateException if applying the batch of the transaction failed
+     */
+    void commit(Transaction transaction) {
+        PendingCommit pendingCommit = new PendingCommit(transaction, Thread.currentThread());
+        pendingCommits.add(pendingCommit);
+
+        while (!pendingCommit.applied) {
+            if (combinerLock.tryLock()) {
+                try {
+                    while (!pendingCommit.applied) {
+                        combine();
+                    }
+                } finally {
+                    combinerLock.unlock();
+                }
+            } else {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+        }
+
+        if (pendingCommit.failure != null) {
+            throw new IllegalStateException("[CommitCombiner.commit] #" + transaction.getTransactionId()
+                    + " failed to commit", pendingCommit.failure);
+        }
+    }
+
+    /**
+     * Applies the next batch of published commits and wakes up their threads. Called by the combiner only.
+     * Whatever happens, every commit of the batch is completed, with the failure if applying it failed,
+     * so no committing thread is left parked.
+     */
+    private void combine() {
+        List<PendingCommit> batch = new ArrayList<>();
+        PendingCommit pendingCommit;
+        while (batch.size() < batchSize && (pendingCommit = pendingCommits.poll()) != null) {
+            batch.add(pendingCommit);
+        }
+
+        List<Transaction> transactions = new ArrayList<>(batch.size());
+        for (PendingCommit commit : batch) {
+            transactions.add(commit.transaction);
+        }
+
+        Throwable failure = null;
+        try {
+            // the same order for the balances and the commit log, so the log replays the batch as it was applied
+            TransactionServer.accountManager.commit(transactions);
+            if (TransactionServer.commitLog != null) {
+                for (Transaction transaction : transactions) {
+                    TransactionServer.commitLog.append(transaction);
+                }
+            }
+        } catch (Throwable ex) {
+            System.out.println("[CommitCombiner.combine] batch of " + batch.size() + " commits failed: " + ex);
+            failure = ex;
+        } finally {
+            for (PendingCommit commit : batch) {
+                if (failure == null) {
+                    commit.transaction.log("[CommitCombiner.combine] #" + commit.transaction.getTransactionId()
+                            + " committed in a batch of " + batch.size());
+                }
+                commit.failure = failure;
+                commit.applied = true;
+                LockSupport.unpark(commit.thread);
+            }
+        }
+    }
+
+    /**
+     * A published commit and the thread waiting for it.
+     */
+    private static class PendingCommit {
+
+        private final Transaction transaction;
+        private final Thread thread;
+
+        // the failure of the batch, if any, set by the combiner before it marks the commit applied
+        private Throwable failure;
+
+        // set by the combiner once the commit is applied or failed
+        private volatile boolean applied = false;
+
+        PendingCommit(Transaction transaction, Thread thread) {
+            this.transaction = transaction;
+            this.thread = thread;
+        }
+    }
+}
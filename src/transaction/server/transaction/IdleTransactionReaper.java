@@ -0,0 +1,73 @@
+package transaction.server.transaction;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class [IdleTransactionReaper] aborts transactions whose client has not sent a request for longer than the
+ * idle timeout, so a stalled client doesn't hold its locks and block every waiter forever. The reaper only
+ * disconnects the client of an idle transaction; its worker then aborts the transaction as for any other broken
+ * connection, so the transaction is only ever touched by its own worker. Transactions waiting for a lock are
+ * not idle, and prepared transactions are left to their coordinator.
+ */
+public class IdleTransactionReaper extends Thread {
+
+    // workers serving an open transaction
+    private static final Set<TransactionManagerWorker> workers = ConcurrentHashMap.newKeySet();
+
+    // time in milliseconds a transaction may wait for its client's next request
+    private final long idleTimeout;
+
+    /**
+     * Creates a new reaper.
+     *
+     * @param idleTimeout the time in milliseconds a transaction may wait for its client's next request
+     */
+    public IdleTransactionReaper(long idleTimeout) {
+        super("idle-transaction-reaper");
+        this.idleTimeout = idleTimeout;
+        setDaemon(true);
+    }
+
+    /**
+     * Registers the worker of a newly opened transaction.
+     *
+     * @param worker the worker
+     */
+    static void register(TransactionManagerWorker worker) {
+        workers.add(worker);
+    }
+
+    /**
+     * Unregisters a worker once its transaction ended.
+     *
+     * @param worker the worker
+     */
+    static void unregister(TransactionManagerWorker worker) {
+        workers.remove(worker);
+    }
+
+    /**
+     * Thread entry point, checks the workers for idle transactions a few times per idle timeout.
+     */
+    @Override
+    public void run() {
+        long checkInterval = Math.max(1, idleTimeout / 4);
+
+        while (true) {
+            try {
+                Thread.sleep(checkInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            for (TransactionManagerWorker worker : workers) {
+                if (worker.reapIfIdle(now, idleTimeout)) {
+                    System.out.println("[IdleTransactionReaper.run] disconnected a client idle for more than "
+                            + idleTimeout + "ms");
+                }
+            }
+        }
+    }
+}
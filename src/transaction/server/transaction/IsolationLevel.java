@@ -0,0 +1,28 @@
+package transaction.server.transaction;
+
+/**
+ * Enum [IsolationLevel] represents how long a transaction holds its read locks, chosen when it is opened.
+ * Write and increment locks are always held until the transaction completes.
+ */
+public enum IsolationLevel {
+
+    // Read locks are released right after the read. Only committed balances are read,
+    // but reading an account twice may return different balances.
+    READ_COMMITTED,
+
+    // Read locks are held until the transaction completes, so rereads return the same balance.
+    REPEATABLE_READ,
+
+    // Read locks are held until the transaction completes. Transactions only read single accounts, there are
+    // no predicate reads that could see phantoms, so this is locked like REPEATABLE_READ.
+    SERIALIZABLE;
+
+    /**
+     * Returns whether read locks are held until the transaction completes.
+     *
+     * @return true if read locks are held until commit or abort, false if they are released after the read
+     */
+    public boolean holdsReadLocks() {
+        return this != READ_COMMITTED;
+    }
+}
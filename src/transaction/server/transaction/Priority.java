@@ -0,0 +1,27 @@
+package transaction.server.transaction;
+
+/**
+ * Enum [Priority] represents the lane of a transaction in the lock scheduler, chosen when it is opened.
+ * A waiting lock request is granted before incompatible requests of lower priority waiting for the same lock.
+ * Waiting requests age into higher priorities, so low priority transactions are delayed but never starved.
+ */
+public enum Priority {
+
+    // Short interactive transactions, e.g. balance lookups.
+    HIGH,
+
+    // The default lane.
+    NORMAL,
+
+    // Long running batch transactions.
+    LOW;
+
+    /**
+     * Returns the rank of this priority, higher ranks are served first.
+     *
+     * @return the rank, 0 for the lowest priority
+     */
+    public int getRank() {
+        return values().length - 1 - ordinal();
+    }
+}
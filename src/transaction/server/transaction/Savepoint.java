@@ -0,0 +1,65 @@
+package transaction.server.transaction;
+
+import transaction.server.account.Account;
+import transaction.server.lock.Lock;
+import transaction.server.lock.LockType;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class [Savepoint] is a snapshot of the state of a transaction it can be rolled back to: its buffered writes,
+ * its pending increments, the accounts it created and closed, and the modes of the locks it held when the
+ * savepoint was set.
+ */
+public class Savepoint {
+
+    // balances written by the transaction before the savepoint
+    private final Map<Integer, Integer> workspace;
+
+    // pending increments of the transaction before the savepoint
+    private final Map<Account, Integer> increments;
+
+    // accounts created and closed by the transaction before the savepoint
+    private final Set<Integer> createdAccounts;
+    private final Set<Integer> closedAccounts;
+
+    // the locks held by the transaction before the savepoint, with the modes they were held in
+    private final Map<Lock, Set<LockType>> lockTypes;
+
+    /**
+     * Takes a snapshot of the state of a transaction.
+     *
+     * @param transaction the transaction
+     * @param lockTypes the locks held by the transaction with the modes they are held in
+     */
+    Savepoint(Transaction transaction, Map<Lock, Set<LockType>> lockTypes) {
+        this.workspace = new HashMap<>(transaction.getWorkspace());
+        this.increments = new HashMap<>(transaction.getIncrements());
+        this.createdAccounts = new HashSet<>(transaction.getCreatedAccounts());
+        this.closedAccounts = new HashSet<>(transaction.getClosedAccounts());
+        this.lockTypes = lockTypes;
+    }
+
+    public Map<Integer, Integer> getWorkspace() {
+        return workspace;
+    }
+
+    public Map<Account, Integer> getIncrements() {
+        return increments;
+    }
+
+    public Set<Integer> getCreatedAccounts() {
+        return createdAccounts;
+    }
+
+    public Set<Integer> getClosedAccounts() {
+        return closedAccounts;
+    }
+
+    public Map<Lock, Set<LockType>> getLockTypes() {
+        return lockTypes;
+    }
+}
@@ -1,16 +1,19 @@
 package transaction.server.transaction;
 
 import transaction.server.TransactionServer;
+import transaction.server.account.Account;
 import transaction.server.lock.Lock;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The class [Transaction] represents a transaction with a unique ID, a list of locks that it is holding,
- * and a before-image of account balances
+ * a private workspace buffering its writes until commit, and a before-image of account balances
  *
  * @author manoj
  */
@@ -19,11 +22,44 @@ public class Transaction {
     // unique ID of the transaction
     int transactionId;
 
+    // age of the transaction for deadlock prevention, a restarted transaction keeps the timestamp of its first run
+    int timestamp;
+
+    // how long the transaction holds its read locks
+    IsolationLevel isolationLevel;
+
+    // the lane of the transaction in the lock scheduler
+    Priority priority;
+
     // locks that the transaction is holding
     List<Lock> locks;
 
-    // before-image of account balances
+    // balances written by the transaction, installed at commit and simply discarded on abort
+    Map<Integer, Integer> workspace;
+
+    // balances of the accounts the transaction changes, before and after it, recorded when it commits
     Map<Integer, Integer> beforeImage;
+    Map<Integer, Integer> afterImage;
+
+    // pending increments of account balances by (sub-)account, applied at commit
+    Map<Account, Integer> increments;
+
+    // accounts created and closed by the transaction, by account number, taking effect at commit
+    Set<Integer> createdAccounts;
+    Set<Integer> closedAccounts;
+
+    // savepoints the transaction can be rolled back to, savepoint ids count from 1
+    List<Savepoint> savepoints;
+
+    // whether the transaction runs in a global order fixed before it started, it then waits for every lock
+    // instead of dying
+    boolean sequenced = false;
+
+    // set once the transaction voted to commit in a two-phase commit, from then on only its coordinator may abort it
+    volatile boolean prepared = false;
+
+    // set once the transaction started to commit or abort, it can no longer be prepared then
+    boolean completing = false;
 
     // log of actions performed during the transaction
     StringBuffer log = new StringBuffer("");
@@ -34,9 +70,51 @@ public class Transaction {
      * @param transactionId the unique ID of the transaction
      */
     Transaction(int transactionId) {
+        this(transactionId, transactionId);
+    }
+
+    /**
+     * Constructs a new Transaction object with a given ID and timestamp.
+     *
+     * @param transactionId the unique ID of the transaction
+     * @param timestamp the timestamp used to decide which of two conflicting transactions is older
+     */
+    Transaction(int transactionId, int timestamp) {
+        this(transactionId, timestamp, IsolationLevel.SERIALIZABLE);
+    }
+
+    /**
+     * Constructs a new Transaction object with a given ID, timestamp and isolation level.
+     *
+     * @param transactionId the unique ID of the transaction
+     * @param timestamp the timestamp used to decide which of two conflicting transactions is older
+     * @param isolationLevel the isolation level deciding how long read locks are held
+     */
+    Transaction(int transactionId, int timestamp, IsolationLevel isolationLevel) {
+        this(transactionId, timestamp, isolationLevel, Priority.NORMAL);
+    }
+
+    /**
+     * Constructs a new Transaction object with a given ID, timestamp, isolation level and priority.
+     *
+     * @param transactionId the unique ID of the transaction
+     * @param timestamp the timestamp used to decide which of two conflicting transactions is older
+     * @param isolationLevel the isolation level deciding how long read locks are held
+     * @param priority the lane of the transaction in the lock scheduler
+     */
+    Transaction(int transactionId, int timestamp, IsolationLevel isolationLevel, Priority priority) {
         this.transactionId = transactionId;
+        this.timestamp = timestamp;
+        this.isolationLevel = isolationLevel;
+        this.priority = priority;
         this.locks = new ArrayList<>();
+        this.workspace = new HashMap<>();
         this.beforeImage = new HashMap<>();
+        this.afterImage = new HashMap<>();
+        this.increments = new HashMap<>();
+        this.createdAccounts = new HashSet<>();
+        this.closedAccounts = new HashSet<>();
+        this.savepoints = new ArrayList<>();
     }
 
     /**
@@ -47,6 +125,30 @@ public class Transaction {
         return transactionId;
     }
 
+    /**
+     * Gets the timestamp of the transaction, lower timestamps are older.
+     * @return the timestamp of the transaction
+     */
+    public int getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the isolation level of the transaction.
+     * @return the isolation level
+     */
+    public IsolationLevel getIsolationLevel() {
+        return isolationLevel;
+    }
+
+    /**
+     * Gets the priority of the transaction in the lock scheduler.
+     * @return the priority
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
     /**
      * Gets the locks that the transaction is holding.
      * @return a list of Lock objects held by the transaction
@@ -64,6 +166,27 @@ public class Transaction {
         this.locks.add(lock);
     }
 
+    /**
+     * Gets the balances written by the transaction, not yet visible to other transactions.
+     *
+     * @return a Map object from account numbers to the written balances
+     */
+    public Map<Integer, Integer> getWorkspace() {
+        return workspace;
+    }
+
+    /**
+     * Buffers a written balance in the workspace, replacing an earlier write to the same account.
+     *
+     * @param account the account number written
+     * @param balance the written balance
+     */
+    public void addToWorkspace(int account, int balance) {
+        this.workspace.put(account, balance);
+        this.log("[Transaction.addToWorkspace] " + transactionId + " | buffered balance " + balance +
+                " for account #" + account);
+    }
+
     /**
      * Gets the before-image of account balances.
      *
@@ -75,16 +198,157 @@ public class Transaction {
 
     /**
      * Adds an account and its balance to the before-image of account balances.
+     * Only the first write to an account is recorded, later writes keep the original balance.
      *
      * @param account the account number to be added to the before-image
      * @param balance the balance to be associated with the account in the before-image
      */
     public void addBeforeImage(int account, int balance) {
+        if (this.beforeImage.containsKey(account)) {
+            return;
+        }
         this.beforeImage.put(account, balance);
         this.log("[Transaction.addBeforeImage] " + transactionId + " | set before image for account #" +
                 account + " with balance " + balance);
     }
 
+    /**
+     * Gets the after-image of account balances, the balances the transaction committed.
+     *
+     * @return a Map object representing the after-image of account balances
+     */
+    public Map<Integer, Integer> getAfterImage() {
+        return afterImage;
+    }
+
+    /**
+     * Adds an account and the balance the transaction committed for it to the after-image of account balances.
+     *
+     * @param account the account number to be added to the after-image
+     * @param balance the committed balance of the account
+     */
+    public void addAfterImage(int account, int balance) {
+        this.afterImage.put(account, balance);
+    }
+
+    /**
+     * Gets the pending increments of account balances.
+     *
+     * @return a Map object from accounts, or sub-balances of split accounts, to the net amount they are incremented by
+     */
+    public Map<Account, Integer> getIncrements() {
+        return increments;
+    }
+
+    /**
+     * Sets the net amount an account is incremented by at commit.
+     *
+     * @param account the account, or the sub-balance of a split account
+     * @param amount the net increment, 0 removes the pending increment
+     */
+    public void setIncrement(Account account, int amount) {
+        if (amount == 0) {
+            this.increments.remove(account);
+        } else {
+            this.increments.put(account, amount);
+        }
+        this.log("[Transaction.setIncrement] " + transactionId + " | set pending increment for account #" +
+                account.getAccountNumber() + " to " + amount);
+    }
+
+    /**
+     * Gets the net pending increment of an account, summed over its sub-balances if it is split.
+     *
+     * @param accountNumber the account number
+     * @return the net pending increment, 0 if there is none
+     */
+    public int getIncrement(int accountNumber) {
+        int increment = 0;
+        for (Map.Entry<Account, Integer> entry : increments.entrySet()) {
+            if (entry.getKey().getAccountNumber() == accountNumber) {
+                increment += entry.getValue();
+            }
+        }
+        return increment;
+    }
+
+    /**
+     * Gets the accounts created by the transaction. They exist from their creation on, locked by the
+     * transaction, and are removed again if it aborts.
+     *
+     * @return a Set of the created account numbers
+     */
+    public Set<Integer> getCreatedAccounts() {
+        return createdAccounts;
+    }
+
+    /**
+     * Gets the accounts closed by the transaction, removed when it commits.
+     *
+     * @return a Set of the closed account numbers
+     */
+    public Set<Integer> getClosedAccounts() {
+        return closedAccounts;
+    }
+
+    /**
+     * Adds a savepoint after the existing ones.
+     *
+     * @param savepoint the snapshot of the transaction
+     * @return the id of the savepoint
+     */
+    int addSavepoint(Savepoint savepoint) {
+        savepoints.add(savepoint);
+        return savepoints.size();
+    }
+
+    /**
+     * Gets a savepoint of the transaction.
+     *
+     * @param savepointId the id of the savepoint
+     * @return the savepoint, or null if the transaction has no savepoint with that id
+     */
+    Savepoint getSavepoint(int savepointId) {
+        return savepointId >= 1 && savepointId <= savepoints.size() ? savepoints.get(savepointId - 1) : null;
+    }
+
+    /**
+     * Discards the savepoints set after the given one, which stays valid.
+     *
+     * @param savepointId the id of the savepoint
+     */
+    void discardSavepointsAfter(int savepointId) {
+        savepoints.subList(savepointId, savepoints.size()).clear();
+    }
+
+    /**
+     * Gets the id of the latest savepoint of the transaction.
+     *
+     * @return the id of the latest savepoint, 0 if the transaction has none
+     */
+    public int getLatestSavepointId() {
+        return savepoints.size();
+    }
+
+    /**
+     * Checks whether the transaction runs in a global order fixed before it started. Sequenced transactions are
+     * older than all others and never conflict with each other, so they can wait for every lock.
+     *
+     * @return true if the transaction is sequenced, false otherwise
+     */
+    public boolean isSequenced() {
+        return sequenced;
+    }
+
+    /**
+     * Checks whether the transaction voted to commit in a two-phase commit and awaits the coordinator's decision.
+     *
+     * @return true if the transaction is prepared, false otherwise
+     */
+    public boolean isPrepared() {
+        return prepared;
+    }
+
     /**
      * Logs a message related to the transaction.
      *
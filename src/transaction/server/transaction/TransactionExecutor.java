@@ -0,0 +1,418 @@
+package transaction.server.transaction;
+
+import transaction.server.TransactionServer;
+import transaction.server.events.TransactionEvent;
+import transaction.server.lock.LockType;
+import transaction.server.lock.TransactionAbortedException;
+import transaction.server.lock.TransactionRolledBackException;
+import utils.TerminalColors;
+
+import java.util.Map;
+
+/**
+ * Class [TransactionExecutor] executes the requests of one client's transactions on the account, lock and
+ * transaction managers, one transaction at a time. It is shared by the {@link TransactionManagerWorker}, which
+ * reads the requests from a connection and writes back the responses, and by the proxy of an embedded server,
+ * which calls it directly, so a transaction behaves the same whichever way its requests arrive. Conflicts roll
+ * the transaction back to its latest savepoint, or abort it, before the exception reaches the caller.
+ */
+public class TransactionExecutor implements TerminalColors {
+
+    // the transaction served, kept once it completed until the next one is opened
+    private Transaction transaction = null;
+
+    // flight recorder event spanning the transaction, null if it wasn't opened here
+    private TransactionEvent transactionEvent = null;
+
+    /**
+     * Returns the transaction served.
+     *
+     * @return the open transaction, the last one if it completed, or null if none was opened yet
+     */
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * Tells whether the transaction served is still open.
+     *
+     * @return true if a transaction is open, false otherwise
+     */
+    public boolean isOpen() {
+        return transaction != null && !transaction.completing;
+    }
+
+    /**
+     * Opens a new transaction that declares the accounts and lock types it will use, all of them are acquired
+     * before returning. A transaction still open is aborted first.
+     *
+     * @param restartTimestamp the timestamp of the first run of a restarted transaction, or null for a new one
+     * @param declaredLocks the account numbers and lock types, or null to lock on access
+     * @param isolationLevel the isolation level deciding how long read locks are held
+     * @param priority the lane of the transaction in the lock scheduler
+     * @return the opened transaction
+     */
+    public Transaction open(Integer restartTimestamp, Map<Integer, LockType> declaredLocks,
+                            IsolationLevel isolationLevel, Priority priority) {
+        if (isOpen()) {
+            abort("OPEN_TRANSACTION", false);
+        }
+
+        // create new transaction and add it to running transactions, keeping the timestamp of a restart
+        transaction = TransactionManager.openTransaction(
+                TransactionManager.claimRestartTimestamp(restartTimestamp), isolationLevel, priority);
+        transactionEvent = new TransactionEvent();
+        transactionEvent.begin();
+
+        // conservative 2PL: acquire all declared locks at once, in account order
+        if (declaredLocks != null && !declaredLocks.isEmpty()) {
+            TransactionServer.accountManager.lock(declaredLocks, transaction);
+        }
+
+        transaction.log("[TransactionExecutor.open] " + OPEN_COLOR + "OPEN_TRANSACTION" + RESET_COLOR
+                + " #" + transaction.getTransactionId());
+        return transaction;
+    }
+
+    /**
+     * Takes over a prepared transaction whose coordinator sends its decision on a new connection.
+     *
+     * @param prepared the prepared transaction
+     */
+    public void attach(Transaction prepared) {
+        transaction = prepared;
+        transactionEvent = null;
+    }
+
+    /**
+     * Reads the balance of the account with the specified account number.
+     *
+     * @param accountNumber the account number to read from
+     * @return the balance of the account
+     * @throws TransactionAbortedException if the transaction was rolled back or aborted
+     */
+    public int read(int accountNumber) throws TransactionAbortedException {
+        checkOpen();
+
+        try {
+            // a replica only serves reads within the configured staleness bound
+            if (TransactionServer.replicaApplier != null && TransactionServer.maxStaleness > 0
+                    && TransactionServer.replicaApplier.getStaleness() > TransactionServer.maxStaleness) {
+                transaction.log("[TransactionExecutor.read] " + ABORT_COLOR + "READ_TRANSACTION" + RESET_COLOR
+                        + " #" + transaction.getTransactionId() + " - replica is too stale");
+                throw new TransactionAbortedException();
+            }
+
+            // get the balance by acquiring the Read lock
+            Integer balance = TransactionServer.accountManager.read(accountNumber, transaction);
+            if (balance == null) {
+                transaction.log("[TransactionExecutor.read] " + ABORT_COLOR + "READ_TRANSACTION" + RESET_COLOR
+                        + " #" + transaction.getTransactionId() + " - account #" + accountNumber + " doesn't exist");
+                throw new TransactionAbortedException();
+            }
+
+            transaction.log("[TransactionExecutor.read] " + READ_COLOR + "READ_TRANSACTION" + RESET_COLOR
+                    + " #" + transaction.getTransactionId() + " for account #" + accountNumber
+                    + " with balance " + balance + " - successful");
+            return balance;
+        } catch (TransactionAbortedException e) {
+            throw rollbackOrAbort("READ_TRANSACTION", e.getConflictingTransactionId());
+        }
+    }
+
+    /**
+     * Writes the specified amount to the account with the given account number.
+     *
+     * @param accountNumber the account number to write to
+     * @param amount the amount to write
+     * @throws TransactionAbortedException if the transaction was rolled back or aborted
+     */
+    public void write(int accountNumber, int amount) throws TransactionAbortedException {
+        checkOpen();
+
+        try {
+            checkWritable("WRITE_TRANSACTION");
+            if (!TransactionServer.accountManager.write(accountNumber, amount, transaction)) {
+                transaction.log("[TransactionExecutor.write] " + ABORT_COLOR + "WRITE_TRANSACTION" + RESET_COLOR
+                        + " #" + transaction.getTransactionId() + " - account #" + accountNumber + " doesn't exist");
+                throw new TransactionAbortedException();
+            }
+
+            transaction.log("[TransactionExecutor.write] " + WRITE_COLOR + "WRITE_TRANSACTION" + RESET_COLOR
+                    + " #" + transaction.getTransactionId() + " for account #" + accountNumber
+                    + " and balance " + amount + " - successful");
+        } catch (TransactionAbortedException e) {
+            throw rollbackOrAbort("WRITE_TRANSACTION", e.getConflictingTransactionId());
+        }
+    }
+
+    /**
+     * Adds the specified amount to the balance of the account with the given account number at commit.
+     *
+     * @param accountNumber the account number to increment
+     * @param amount the amount to add, negative to withdraw
+     * @return true if the increment is pending, false if the balance doesn't cover the withdrawal
+     * @throws TransactionAbortedException if the transaction was rolled back or aborted
+     */
+    public boolean increment(int accountNumber, int amount) throws TransactionAbortedException {
+        checkOpen();
+
+        try {
+            checkWritable("INCREMENT_TRANSACTION");
+            boolean accepted = TransactionServer.accountManager.increment(accountNumber, amount, transaction);
+
+            transaction.log("[TransactionExecutor.increment] " + WRITE_COLOR + "INCREMENT_TRANSACTION" + RESET_COLOR
+                    + " #" + transaction.getTransactionId() + " for account #" + accountNumber
+                    + " and amount " + amount + (accepted ? " - successful" : " - rejected"));
+            return accepted;
+        } catch (TransactionAbortedException e) {
+            throw rollbackOrAbort("INCREMENT_TRANSACTION", e.getConflictingTransactionId());
+        }
+    }
+
+    /**
+     * Creates an account with the given initial balance, visible to others once the transaction committed.
+     *
+     * @param initialBalance the initial balance, not negative
+     * @return the number of the new account, or null if the initial balance was rejected
+     * @throws TransactionAbortedException if the transaction was rolled back or aborted
+     */
+    public Integer createAccount(int initialBalance) throws TransactionAbortedException {
+        checkOpen();
+
+        try {
+            checkWritable("CREATE_ACCOUNT");
+            Integer createdAccount = TransactionServer.accountManager.createAccount(initialBalance, transaction);
+
+            transaction.log("[TransactionExecutor.createAccount] " + WRITE_COLOR + "CREATE_ACCOUNT" + RESET_COLOR
+                    + " #" + transaction.getTransactionId() + " with balance " + initialBalance
+                    + (createdAccount != null ? " - created account #" + createdAccount : " - rejected"));
+            return createdAccount;
+        } catch (TransactionAbortedException e) {
+            throw rollbackOrAbort("CREATE_ACCOUNT", e.getConflictingTransactionId());
+        }
+    }
+
+    /**
+     * Closes the account with the given account number, removed once the transaction committed.
+     *
+     * @param accountNumber the account number to close
+     * @return true if the account is closed at commit, false if it doesn't exist or has a balance
+     * @throws TransactionAbortedException if the transaction was rolled back or aborted
+     */
+    public boolean closeAccount(int accountNumber) throws TransactionAbortedException {
+        checkOpen();
+
+        try {
+            checkWritable("CLOSE_ACCOUNT");
+            boolean closed = TransactionServer.accountManager.closeAccount(accountNumber, transaction);
+
+            transaction.log("[TransactionExecutor.closeAccount] " + WRITE_COLOR + "CLOSE_ACCOUNT" + RESET_COLOR
+                    + " #" + transaction.getTransactionId() + " for account #" + accountNumber
+                    + (closed ? " - successful" : " - rejected"));
+            return closed;
+        } catch (TransactionAbortedException e) {
+            throw rollbackOrAbort("CLOSE_ACCOUNT", e.getConflictingTransactionId());
+        }
+    }
+
+    /**
+     * Sets a savepoint in the open transaction.
+     *
+     * @return the id of the savepoint, 0 if no transaction is open
+     */
+    public int setSavepoint() {
+        return isOpen() ? TransactionManager.setSavepoint(transaction) : 0;
+    }
+
+    /**
+     * Rolls the open transaction back to a savepoint, aborting it if that fails.
+     *
+     * @param savepointId the id of the savepoint
+     * @return true if the transaction was rolled back, false if it was aborted instead
+     */
+    public boolean rollbackTo(int savepointId) {
+        if (!isOpen()) {
+            return false;
+        }
+
+        if (!TransactionManager.rollbackTransaction(transaction, savepointId, null)) {
+            abort("ROLLBACK_TO", false);
+            return false;
+        }
+        transaction.log("[TransactionExecutor.rollbackTo] " + ABORT_COLOR + "ROLLBACK_TO" + RESET_COLOR
+                + " #" + transaction.getTransactionId() + " - savepoint " + savepointId);
+        return true;
+    }
+
+    /**
+     * Prepares the open transaction, the first phase of a two-phase commit. All locks are held and installing
+     * the workspace cannot fail, so a running transaction can always commit, once the balances the client served
+     * from its lease cache turn out to be current.
+     *
+     * @param cachedBalances the cached balances by account number, or null if the client served none from its cache
+     * @return true if the transaction votes to commit, false if it was aborted
+     */
+    public boolean prepare(Map<Integer, Integer> cachedBalances) {
+        boolean prepared = isOpen() && validateCachedBalances(cachedBalances, "PREPARE")
+                && TransactionManager.prepareTransaction(transaction);
+
+        if (transaction != null) {
+            transaction.log("[TransactionExecutor.prepare] " + COMMIT_COLOR + "PREPARE" + RESET_COLOR
+                    + " #" + transaction.getTransactionId() + " - " + (prepared ? "VOTE_COMMIT" : "VOTE_ABORT"));
+        }
+
+        // a vote to abort ends the transaction here, the coordinator sends no decision for it
+        if (!prepared) {
+            abort("PREPARE", false);
+        }
+        return prepared;
+    }
+
+    /**
+     * Checks the balances the client served from its lease cache against the committed ones, reading them under
+     * read locks held until the transaction completes. Leases expire by the clock of the client, which may lag
+     * behind the server's or see the lease late, so only the server can tell whether a cached balance is still
+     * current. Aborts the transaction if one is not.
+     *
+     * @param cachedBalances the cached balances by account number, or null if the client served none from its cache
+     * @param operation the name of the operation validating the balances, used for logging
+     * @return true if all cached balances are current, false if the transaction was aborted
+     */
+    public boolean validateCachedBalances(Map<Integer, Integer> cachedBalances, String operation) {
+        if (cachedBalances == null) {
+            return true;
+        }
+
+        try {
+            for (Map.Entry<Integer, Integer> cachedBalance : cachedBalances.entrySet()) {
+                Integer balance = TransactionServer.accountManager.read(cachedBalance.getKey(), transaction);
+                if (!cachedBalance.getValue().equals(balance)) {
+                    transaction.log("[TransactionExecutor.validateCachedBalances] " + ABORT_COLOR + operation
+                            + RESET_COLOR + " #" + transaction.getTransactionId() + " - cached balance of account #"
+                            + cachedBalance.getKey() + " is stale");
+                    abort(operation, false);
+                    return false;
+                }
+            }
+        } catch (TransactionAbortedException e) {
+            abort(operation, false);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Commits the open transaction. All locks are held and installing the workspace cannot fail, deadlocks were
+     * resolved in the requests before, so a running transaction always commits.
+     *
+     * @param operation the name of the operation committing the transaction, used for logging
+     * @return true if the transaction committed, false if none was open
+     */
+    public boolean commit(String operation) {
+        if (!isOpen()) {
+            return false;
+        }
+
+        // unlock transaction, remove it from running transactions and add it to committed transactions
+        TransactionManager.commitTransaction(transaction);
+        commitTransactionEvent("COMMITTED", operation);
+
+        transaction.log("[TransactionExecutor.commit] " + COMMIT_COLOR + operation + RESET_COLOR
+                + " #" + transaction.getTransactionId());
+        System.out.println(transaction.getLog());
+        return true;
+    }
+
+    /**
+     * Aborts the open transaction, after which requests fail until the next one is opened.
+     *
+     * @param operation the name of the operation that caused the abort, used for logging
+     * @param decided whether the coordinator of a two-phase commit decided to abort the transaction
+     * @return true if the transaction was aborted, false if none was open or it is prepared and not decided
+     */
+    public boolean abort(String operation, boolean decided) {
+        if (!isOpen()) {
+            return false;
+        }
+
+        // only the coordinator aborts a prepared transaction
+        if (!TransactionManager.abortTransaction(transaction, decided)) {
+            transaction.log("[TransactionExecutor.abort] " + ABORT_COLOR + operation + RESET_COLOR
+                    + " #" + transaction.getTransactionId() + " - not aborted");
+            return false;
+        }
+        commitTransactionEvent("ABORTED", operation);
+
+        transaction.log("[TransactionExecutor.abort] " + ABORT_COLOR + operation + RESET_COLOR
+                + " #" + transaction.getTransactionId() + " - ABORTED");
+        System.out.println(transaction.getLog());
+        return true;
+    }
+
+    /**
+     * Fails a request when no transaction is open, like a request of a transaction aborted before.
+     *
+     * @throws TransactionAbortedException if no transaction is open
+     */
+    private void checkOpen() throws TransactionAbortedException {
+        if (!isOpen()) {
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Refuses updates on a replica, which is read-only.
+     *
+     * @param operation the name of the operation, used for logging
+     * @throws TransactionAbortedException if the update is refused
+     */
+    private void checkWritable(String operation) throws TransactionAbortedException {
+        if (TransactionServer.replicaApplier != null) {
+            transaction.log("[TransactionExecutor.checkWritable] " + ABORT_COLOR + operation + RESET_COLOR
+                    + " #" + transaction.getTransactionId() + " - replica is read-only");
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Resolves a conflict of the open transaction by rolling it back to its latest savepoint, or by aborting
+     * it if it has none or the rollback doesn't resolve the conflict.
+     *
+     * @param operation the name of the operation that caused the conflict, used for logging
+     * @param conflictingTransactionId the id of the conflicting transaction, null if unknown
+     * @return the exception to throw, a {@link TransactionRolledBackException} if the transaction is still open
+     */
+    private TransactionAbortedException rollbackOrAbort(String operation, Integer conflictingTransactionId) {
+        int savepointId = transaction.getLatestSavepointId();
+        if (savepointId > 0 && TransactionManager.rollbackTransaction(transaction, savepointId, conflictingTransactionId)) {
+            transaction.log("[TransactionExecutor.rollbackOrAbort] " + ABORT_COLOR + operation + RESET_COLOR
+                    + " #" + transaction.getTransactionId() + " - ROLLED BACK to savepoint " + savepointId);
+            return new TransactionRolledBackException(savepointId, conflictingTransactionId);
+        }
+
+        abort(operation, false);
+        return new TransactionAbortedException(conflictingTransactionId);
+    }
+
+    /**
+     * Ends and records the event of the transaction, if it was opened here and recording is enabled.
+     *
+     * @param outcome COMMITTED or ABORTED
+     * @param operation the name of the operation that completed the transaction
+     */
+    private void commitTransactionEvent(String outcome, String operation) {
+        if (transactionEvent == null) {
+            return;
+        }
+        transactionEvent.end();
+        if (transactionEvent.shouldCommit()) {
+            transactionEvent.transactionId = transaction.getTransactionId();
+            transactionEvent.timestamp = transaction.getTimestamp();
+            transactionEvent.outcome = outcome;
+            transactionEvent.operation = operation;
+            transactionEvent.commit();
+        }
+        transactionEvent = null;
+    }
+}
@@ -1,8 +1,15 @@
 package transaction.server.transaction;
 
-import java.net.Socket;
+import transaction.comm.Connection;
+import transaction.server.TransactionServer;
+
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The TransactionManager class manages transactions.
@@ -14,11 +21,29 @@ public class TransactionManager {
     // counter for transaction IDs
     static int transactionIdCounter = 0;
 
+    // counters for the timestamps of the server's own transactions, below the timestamps of client transactions:
+    // sequenced transactions are the oldest, then the other internal ones
+    static int sequencedTimestampCounter = Integer.MIN_VALUE;
+    static int internalTimestampCounter = Integer.MIN_VALUE / 2;
+
     // list of transactions
     static final List<Transaction> runningTransactions = new ArrayList<>();
     static final List<Transaction> abortedTransactions = new ArrayList<>();
     static final List<Transaction> committedTransactions = new ArrayList<>();
 
+    // prepared transactions by id, awaiting the decision of their coordinator, which may arrive on a new connection
+    static final Map<Integer, Transaction> preparedTransactions = new HashMap<>();
+
+    // timestamps of aborted transactions a client restarting one of them may claim, oldest first
+    static final Set<Integer> restartableTimestamps = new LinkedHashSet<>();
+
+    // the number of restartable timestamps kept, those of clients that gave up are forgotten eventually
+    static final int MAX_RESTARTABLE_TIMESTAMPS = 10000;
+
+    // serializes applying commits, so concurrent incrementers of an account reach the balances,
+    // the balance index and the commit log in one order
+    static final Object commitMonitor = new Object();
+
     /**
      * Default constructor for TransactionManager class.
      */
@@ -51,13 +76,328 @@ public class TransactionManager {
         return abortedTransactions;
     }
 
+    /**
+     * Creates a new transaction and adds it to the running transactions.
+     *
+     * @return the new transaction
+     */
+    public static Transaction openTransaction() {
+        return openTransaction(null);
+    }
+
+    /**
+     * Creates a new transaction and adds it to the running transactions. A transaction restarted after an abort
+     * passes the timestamp of its first run, so it ages and eventually wins its conflicts instead of starving.
+     *
+     * @param timestamp the timestamp of the first run, or null for a new transaction
+     * @return the new transaction
+     */
+    public static Transaction openTransaction(Integer timestamp) {
+        return openTransaction(timestamp, IsolationLevel.SERIALIZABLE);
+    }
+
+    /**
+     * Creates a new transaction with the given isolation level and adds it to the running transactions.
+     *
+     * @param timestamp the timestamp of the first run, or null for a new transaction
+     * @param isolationLevel the isolation level deciding how long read locks are held
+     * @return the new transaction
+     */
+    public static Transaction openTransaction(Integer timestamp, IsolationLevel isolationLevel) {
+        return openTransaction(timestamp, isolationLevel, Priority.NORMAL);
+    }
+
+    /**
+     * Validates the timestamp a client restarts an aborted transaction with. Only timestamps of transactions this
+     * server aborted are accepted, once per abort, so a client cannot make its transactions older than they are
+     * and win every conflict.
+     *
+     * @param timestamp the timestamp of the first run claimed by the client, or null for a new transaction
+     * @return the timestamp if it is accepted, null to open the transaction with a new one
+     */
+    public static Integer claimRestartTimestamp(Integer timestamp) {
+        if (timestamp == null) {
+            return null;
+        }
+
+        synchronized (runningTransactions) {
+            if (restartableTimestamps.remove(timestamp)) {
+                return timestamp;
+            }
+        }
+        System.out.println("[TransactionManager.claimRestartTimestamp] timestamp " + timestamp
+                + " wasn't issued to an aborted transaction, a new one is used");
+        return null;
+    }
+
+    /**
+     * Creates a new transaction with the given isolation level and priority and adds it to the running transactions.
+     *
+     * @param timestamp the timestamp of the first run, or null for a new transaction
+     * @param isolationLevel the isolation level deciding how long read locks are held
+     * @param priority the lane of the transaction in the lock scheduler
+     * @return the new transaction
+     */
+    public static Transaction openTransaction(Integer timestamp, IsolationLevel isolationLevel, Priority priority) {
+        synchronized (runningTransactions) {
+            int transactionId = ++transactionIdCounter;
+            Transaction transaction = new Transaction(transactionId, timestamp != null ? timestamp : transactionId,
+                    isolationLevel, priority);
+            runningTransactions.add(transaction);
+            return transaction;
+        }
+    }
+
+    /**
+     * Creates a new transaction of the server itself and adds it to the running transactions. Each one gets
+     * a timestamp of its own that is older than those of client transactions, so under wait-die internal
+     * transactions wait for client transactions instead of dying. Sequenced transactions are older still
+     * and skip wait-die altogether: they wait for every lock, as nothing waits for them.
+     *
+     * @param sequenced whether the transaction runs in a global order fixed before it started
+     * @return the new transaction
+     */
+    public static Transaction openInternalTransaction(boolean sequenced) {
+        synchronized (runningTransactions) {
+            int transactionId = ++transactionIdCounter;
+            int timestamp = sequenced ? ++sequencedTimestampCounter : ++internalTimestampCounter;
+            Transaction transaction = new Transaction(transactionId, timestamp);
+            transaction.sequenced = sequenced;
+            runningTransactions.add(transaction);
+            return transaction;
+        }
+    }
+
+    /**
+     * Commits the given transaction: installs its workspace, applies its increments, appends its writes and
+     * increments to the balance index and to the commit log, if any, releases its locks and moves it from the
+     * running to the committed transactions.
+     *
+     * @param transaction the transaction to commit
+     */
+    public static void commitTransaction(Transaction transaction) {
+        synchronized (runningTransactions) {
+            transaction.completing = true;
+        }
+
+        if (TransactionServer.commitCombiner != null) {
+            // publish the commit, it is applied together with the other commits pending at the time
+            TransactionServer.commitCombiner.commit(transaction);
+        } else {
+            synchronized (commitMonitor) {
+                // install the writes, apply the increments and make the changes visible to range queries
+                TransactionServer.accountManager.commit(transaction);
+
+                // the commit log is appended while the locks are held, so its order is the serialization order
+                if (TransactionServer.commitLog != null) {
+                    TransactionServer.commitLog.append(transaction);
+                }
+            }
+        }
+
+        // release the locks, a transaction without any never entered the lock manager
+        if (!transaction.getLocks().isEmpty()) {
+            TransactionServer.lockManager.unlock(transaction);
+        }
+
+        synchronized (runningTransactions) {
+            runningTransactions.remove(transaction);
+            committedTransactions.add(transaction);
+            runningTransactions.notifyAll();
+        }
+    }
+
+    /**
+     * Prepares the given transaction, the first phase of a two-phase commit. A running transaction holds all its
+     * locks and installing its workspace cannot fail, so it can always vote to commit. Once prepared, it can only
+     * be aborted by its coordinator.
+     *
+     * @param transaction the transaction to prepare
+     * @return true if the transaction votes to commit, false if it already completed
+     */
+    public static boolean prepareTransaction(Transaction transaction) {
+        synchronized (runningTransactions) {
+            if (transaction.completing || !runningTransactions.contains(transaction)) {
+                return false;
+            }
+            transaction.prepared = true;
+            preparedTransactions.put(transaction.getTransactionId(), transaction);
+            return true;
+        }
+    }
+
+    /**
+     * Claims a prepared transaction to carry out the decision of its coordinator. A coordinator that lost its
+     * connection sends the decision again on a new one, so it may arrive twice, but it is only carried out once.
+     *
+     * @param transactionId the id of the prepared transaction
+     * @return the transaction, or null if it is not prepared or its decision was claimed before
+     */
+    public static Transaction claimPreparedTransaction(int transactionId) {
+        synchronized (runningTransactions) {
+            return preparedTransactions.remove(transactionId);
+        }
+    }
+
+    /**
+     * Waits until the transaction with the given id is no longer running and tells whether it committed.
+     *
+     * @param transactionId the id of the transaction
+     * @return true if the transaction committed, false if it aborted or is unknown
+     */
+    public static boolean awaitCommitted(int transactionId) {
+        synchronized (runningTransactions) {
+            while (runningTransactions.stream().anyMatch(running -> running.getTransactionId() == transactionId)) {
+                try {
+                    runningTransactions.wait();
+                } catch (InterruptedException ex) {
+                    return false;
+                }
+            }
+            return committedTransactions.stream().anyMatch(committed -> committed.getTransactionId() == transactionId);
+        }
+    }
+
+    /**
+     * Aborts the given transaction, unless it is prepared.
+     *
+     * @param transaction the transaction to abort
+     * @return true if the transaction was aborted, false if it is prepared or already completed
+     */
+    public static boolean abortTransaction(Transaction transaction) {
+        return abortTransaction(transaction, false);
+    }
+
+    /**
+     * Aborts the given transaction: discards its workspace and its pending increments, releases its locks
+     * and moves it from the running to the aborted transactions. Writes are only installed at commit,
+     * so there is nothing to roll back. A prepared transaction is only aborted on the decision of its coordinator.
+     *
+     * @param transaction the transaction to abort
+     * @param decided whether the coordinator of a two-phase commit decided to abort the transaction
+     * @return true if the transaction was aborted, false if it is prepared or already completed
+     */
+    public static boolean abortTransaction(Transaction transaction, boolean decided) {
+        synchronized (runningTransactions) {
+            if (transaction.completing || (transaction.prepared && !decided)) {
+                transaction.log("[TransactionManager.abortTransaction] #" + transaction.getTransactionId()
+                        + (transaction.completing ? " - already completing" : " - prepared, awaiting the coordinator"));
+                return false;
+            }
+            transaction.completing = true;
+        }
+
+        transaction.log("[TransactionManager.abortTransaction] #" + transaction.getTransactionId()
+                + " - discarding " + transaction.getWorkspace().size() + " buffered writes");
+
+        // Buffered writes were never installed and pending increments never applied, only their escrow is given back
+        TransactionServer.accountManager.abort(transaction);
+
+        // Unlock the transaction, remove it from the running list, and add it to the aborted list
+        TransactionServer.lockManager.unlock(transaction);
+
+        synchronized (runningTransactions) {
+            runningTransactions.remove(transaction);
+            abortedTransactions.add(transaction);
+
+            // the restart of a client transaction may claim its timestamp
+            if (transaction.getTimestamp() > 0) {
+                restartableTimestamps.add(transaction.getTimestamp());
+                if (restartableTimestamps.size() > MAX_RESTARTABLE_TIMESTAMPS) {
+                    Iterator<Integer> oldest = restartableTimestamps.iterator();
+                    oldest.next();
+                    oldest.remove();
+                }
+            }
+            runningTransactions.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Sets a savepoint the given transaction can later be rolled back to.
+     *
+     * @param transaction the transaction
+     * @return the id of the savepoint
+     */
+    public static int setSavepoint(Transaction transaction) {
+        int savepointId = transaction.addSavepoint(
+                new Savepoint(transaction, TransactionServer.lockManager.getLockTypes(transaction)));
+
+        transaction.log("[TransactionManager.setSavepoint] #" + transaction.getTransactionId()
+                + " - savepoint " + savepointId + " with " + transaction.getWorkspace().size() + " buffered writes");
+        return savepointId;
+    }
+
+    /**
+     * Rolls the given transaction back to a savepoint instead of aborting it: discards the writes and increments
+     * made after the savepoint and releases the locks acquired after it. The savepoint stays valid, later ones
+     * are discarded. A conflict with another transaction is only resolved this way if that transaction doesn't
+     * wait for one of the locks kept, otherwise the two could keep running into each other.
+     *
+     * @param transaction the transaction to roll back
+     * @param savepointId the id of the savepoint
+     * @param conflictingTransactionId the id of the transaction the conflict was with, null if none
+     * @return true if the transaction was rolled back, false if it must be aborted instead
+     */
+    public static boolean rollbackTransaction(Transaction transaction, int savepointId, Integer conflictingTransactionId) {
+        Savepoint savepoint = transaction.getSavepoint(savepointId);
+        if (savepoint == null) {
+            return false;
+        }
+
+        if (conflictingTransactionId != null && TransactionServer.lockManager.isAnyRequestedBy(
+                savepoint.getLockTypes(), conflictingTransactionId)) {
+            transaction.log("[TransactionManager.rollbackTransaction] #" + transaction.getTransactionId()
+                    + " - #" + conflictingTransactionId + " waits for a lock held at savepoint " + savepointId);
+            return false;
+        }
+
+        if (!TransactionServer.accountManager.rollback(transaction, savepoint)) {
+            return false;
+        }
+        TransactionServer.lockManager.rollback(transaction, savepoint.getLockTypes());
+        transaction.discardSavepointsAfter(savepointId);
+
+        transaction.log("[TransactionManager.rollbackTransaction] #" + transaction.getTransactionId()
+                + " - rolled back to savepoint " + savepointId);
+        return true;
+    }
+
+    /**
+     * Waits until the transaction with the given id is no longer running, or the timeout elapses.
+     *
+     * @param transactionId the id of the transaction to wait for
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true if the transaction completed, false if the timeout elapsed first
+     */
+    public static boolean awaitTransaction(int transactionId, long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        synchronized (runningTransactions) {
+            while (runningTransactions.stream().anyMatch(running -> running.getTransactionId() == transactionId)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                try {
+                    runningTransactions.wait(remaining);
+                } catch (InterruptedException ex) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Runs a transaction by creating a new TransactionManagerWorker thread and
      * starting it.
      *
-     * @param client The client socket that initiated the transaction.
+     * @param client The client connection that initiated the transaction.
      */
-    public void runTransaction(Socket client) {
+    public void runTransaction(Connection client) {
         (new TransactionManagerWorker(client)).start();
     }
 
@@ -1,16 +1,19 @@
 package transaction.server.transaction;
 
+import transaction.comm.Connection;
 import transaction.comm.Message;
 import transaction.comm.MessageTypes;
 import transaction.server.TransactionServer;
-import transaction.server.account.Account;
+import transaction.server.deterministic.DeterministicTransfer;
+import transaction.server.events.MessageEvent;
+import transaction.server.lock.LockType;
 import transaction.server.lock.TransactionAbortedException;
+import transaction.server.lock.TransactionRolledBackException;
 import utils.TerminalColors;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.util.Map;
 
 import static transaction.server.transaction.TransactionManager.*;
@@ -24,26 +27,38 @@ import static transaction.server.transaction.TransactionManager.*;
 public class TransactionManagerWorker extends Thread implements MessageTypes, TerminalColors {
 
     // network communication related fields
-    Socket client;
+    Connection client;
     ObjectInputStream readFromNet;
     ObjectOutputStream writeToNet;
     Message message;
 
+    // type of the request being served, message is replaced by the response
+    int requestType;
+
+    // executes the requests, see TransactionExecutor
+    final TransactionExecutor executor = new TransactionExecutor();
+
     // transaction related properties
     Transaction transaction = null;
     int accountNumber = 0;
-    int balance = 0;
+    Integer balance = 0;
 
     // flag for jumping out of while loop after this transaction closed
     boolean keepGoing = true;
 
+    // time since the open transaction waits for the client's next request, 0 while serving a request
+    private long idleSince = 0;
+
+    // flag set once the idle client was disconnected
+    private boolean reaped = false;
+
     /**
-     * Constructs a new TransactionManagerWorker with the given client socket.
+     * Constructs a new TransactionManagerWorker with the given client connection.
      * Initializes object streams for communication with the client.
      *
-     * @param client the client socket to communicate with
+     * @param client the client connection to communicate with
      */
-    public TransactionManagerWorker(Socket client) {
+    public TransactionManagerWorker(Connection client) {
         this.client = client;
 
         try {
@@ -62,17 +77,36 @@ public class TransactionManagerWorker extends Thread implements MessageTypes, Te
      * Handles incoming messages from the client Socket and responds accordingly.
      */
     @Override
+    @SuppressWarnings("unchecked")
     public void run() {
 
         // loop is left when transaction closes
         while(keepGoing) {
             // reading message
             try {
+                MessageEvent readEvent = new MessageEvent();
+                readEvent.begin();
+                setIdle(true);
                 message = (Message) readFromNet.readObject();
+                if (!setIdle(false)) {
+                    throw new IOException("idle client disconnected");
+                }
+                requestType = message.getType();
+                commitMessageEvent(readEvent, "READ", requestType);
+
+                if (TransactionServer.workloadRecorder != null) {
+                    TransactionServer.workloadRecorder.recordRequest((int) getId(),
+                            transaction != null ? transaction.getTransactionId() : 0, message);
+                }
             } catch (IOException | ClassNotFoundException ex) {
-                System.out.println("[TransactionManagerWorker.run] Client shut down, shutting down as well ...");
-                TransactionServer.shutDown();
-                return;
+                // a broken connection only aborts the transaction of this client, releasing its locks. A prepared
+                // transaction keeps its locks until its coordinator decides, on a new connection if need be
+                if (transaction != null) {
+                    transaction.log("[TransactionManagerWorker.run] #" + transaction.getTransactionId() + " - "
+                            + (reaped ? "client idle for too long" : "client disconnected"));
+                    executor.abort(reaped ? "IDLE_TIMEOUT" : "DISCONNECT", false);
+                }
+                break;
             }
 
             // processing message
@@ -81,104 +115,111 @@ public class TransactionManagerWorker extends Thread implements MessageTypes, Te
                 // =====================================================================================================
                 case OPEN_TRANSACTION:
                 // =====================================================================================================
-                    synchronized (runningTransactions) {
-                        // create new transaction and add it to running transactions
-                        transaction = new Transaction(++TransactionManager.transactionIdCounter);
-                        runningTransactions.add(transaction);
+                    // the content is the timestamp of a restart, or that timestamp, the declared locks
+                    // and optionally the isolation level and the priority
+                    Integer restartTimestamp = null;
+                    Map<Integer, LockType> declaredLocks = null;
+                    IsolationLevel isolationLevel = IsolationLevel.SERIALIZABLE;
+                    Priority priority = Priority.NORMAL;
+                    if (message.getContent() instanceof Object[]) {
+                        Object[] openContent = (Object[]) message.getContent();
+                        restartTimestamp = (Integer) openContent[0];
+                        declaredLocks = (Map<Integer, LockType>) openContent[1];
+                        if (openContent.length > 2) {
+                            isolationLevel = (IsolationLevel) openContent[2];
+                        }
+                        if (openContent.length > 3) {
+                            priority = (Priority) openContent[3];
+                        }
+                    } else {
+                        restartTimestamp = (Integer) message.getContent();
+                    }
+
+                    transaction = executor.open(restartTimestamp, declaredLocks, isolationLevel, priority);
+                    if (TransactionServer.idleTransactionReaper != null) {
+                        IdleTransactionReaper.register(this);
                     }
 
+                    // the timestamp tells the client whether its claimed restart timestamp was accepted
                     try {
-                        writeToNet.writeObject(transaction.getTransactionId());
+                        writeMessage(new int[]{transaction.getTransactionId(), transaction.getTimestamp()});
                     } catch (IOException e) {
                         System.err.println("[TransactionManagerWorker.run] OPEN_TRANSACTION #"
                                 + transaction.getTransactionId() + " - Error writing transactionID to the client");
                     }
-
-                    // log transaction event
-                    transaction.log("[TransactionManagerWorker.run] " + OPEN_COLOR + "OPEN_TRANSACTION" + RESET_COLOR
-                            + " #" + transaction.getTransactionId());
                     break;
 
                 // =====================================================================================================
                 case CLOSE_TRANSACTION:
+                case COMMIT:
                 // =====================================================================================================
-                    // unlock transaction, remove it from running transactions and add it to committed transactions
-                    TransactionServer.lockManager.unlock(transaction);
-                    runningTransactions.remove(transaction);
-                    committedTransactions.add(transaction);
+                    // the decision on a prepared transaction may arrive on a new connection of its coordinator
+                    if (requestType == COMMIT && !claimDecision()) {
+                        break;
+                    }
+
+                    // balances the client served from its lease cache must still be current, see PREPARE for COMMIT
+                    if (requestType == CLOSE_TRANSACTION && !executor.validateCachedBalances(
+                            (Map<Integer, Integer>) message.getContent(), "CLOSE_TRANSACTION")) {
+                        keepGoing = false;
+                        try {
+                            writeMessage(TRANSACTION_ABORTED);
+
+                            readFromNet.close();
+                            writeToNet.close();
+                            client.close();
+                        } catch (IOException e) {
+                            System.err.println("[TransactionManagerWorker.run] CLOSE_TRANSACTION #"
+                                    + transaction.getTransactionId() + " - Error when closing connection to client");
+                        }
+                        break;
+                    }
+
+                    boolean committed = executor.commit(requestType == COMMIT ? "COMMIT" : "CLOSE_TRANSACTION");
 
                     try {
-                        // just commit, deadlocks were resolved in the read and write requests
-                        writeToNet.writeObject(TRANSACTION_COMMITTED);
+                        writeMessage(committed ? TRANSACTION_COMMITTED : TRANSACTION_ABORTED);
 
                         readFromNet.close();
                         writeToNet.close();
                         client.close();
-                        // bail out
-                        keepGoing = false;
                     } catch (IOException e) {
                         System.err.println("[TransactionManagerWorker.run] CLOSE_TRANSACTION #"
                                 + transaction.getTransactionId() + " - Error when closing connection to client");
                     }
 
-                    // log the action
-                    transaction.log("[TransactionManagerWorker.run] " + COMMIT_COLOR + "CLOSE_TRANSACTION" + RESET_COLOR
-                            + " #" + transaction.getTransactionId());
-
-                    System.out.println(transaction.getLog());
+                    // bail out
                     keepGoing = false;
                     break;
 
-                // READ_REQUEST case: Reads the balance of the specified account
+                // READ_REQUEST case: Reads the balance of the specified account, granting a lease on it if asked to
                 // =====================================================================================================
                 case READ_REQUEST:
+                case READ_LEASE_REQUEST:
                 // =====================================================================================================
                     // read request
                     accountNumber = (int) message.getContent();
                     try {
-                        // get the balance by acquiring the Read lock
-                        balance = TransactionServer.accountManager.read(accountNumber, transaction);
+                        balance = executor.read(accountNumber);
                         message = new Message(READ_REQUEST_RESPONSE, balance);
 
-                        transaction.log("[TransactionManagerWorker.run] " + READ_COLOR + "READ_TRANSACTION" + RESET_COLOR
-                                + " #" + transaction.getTransactionId() + " for account #" + accountNumber
-                                + " with balance " + balance + " - successful");
-
-//                        transaction.log("[TransactionManagerWorker.run] " + READ_COLOR + "READ_TRANSACTION" + RESET_COLOR
-//                                + " #" + transaction.getTransactionId() + " - READ");
-
-                    } catch (TransactionAbortedException e) {
-                        message = new Message(TRANSACTION_ABORTED, null);
-
-                        synchronized (TransactionServer.accountManager) {
-                            // Roll back changes made to the accounts in the Before Image
-                            for(Map.Entry<Integer, Integer> entry :  transaction.getBeforeImage().entrySet()) {
-                                int accNumber = entry.getKey();
-                                int bal = entry.getValue();
-
-                                transaction.log("[TransactionManagerWorker.run] " + ABORT_COLOR + "READ_TRANSACTION" + RESET_COLOR
-                                        + " #" + transaction.getTransactionId() +  "values are reset for account " + accNumber
-                                        + " with balance " + balance);
-                                Account account = TransactionServer.accountManager.getAccountByAccountNumber(accNumber);
-                                account.setBalance(bal);
+                        // a lease is only granted on a committed balance still under the read lock
+                        if (requestType == READ_LEASE_REQUEST) {
+                            long leaseDuration = 0;
+                            if (TransactionServer.leaseManager != null
+                                    && transaction.getIsolationLevel().holdsReadLocks()
+                                    && !transaction.getWorkspace().containsKey(accountNumber)
+                                    && transaction.getIncrement(accountNumber) == 0) {
+                                leaseDuration = TransactionServer.leaseManager.grant(accountNumber);
                             }
+                            message = new Message(READ_LEASE_RESPONSE, new Object[]{balance, leaseDuration});
                         }
-
-                        transaction.log("[TransactionManagerWorker.run] " + ABORT_COLOR + "READ_TRANSACTION" + RESET_COLOR
-                                + " #" + transaction.getTransactionId() + " - ABORTED");
-
-                        // Unlock the transaction, remove it from the running list, and add it to the aborted list
-                        TransactionServer.lockManager.unlock(transaction);
-
-                        runningTransactions.remove(transaction);
-                        abortedTransactions.add(transaction);
-
-                        System.out.println(transaction.getLog());
-                        keepGoing = false;
+                    } catch (TransactionAbortedException e) {
+                        message = abortedResponse(e);
                     }
 
                     try {
-                        writeToNet.writeObject(message);
+                        writeMessage(message);
                     } catch (IOException e) {
                         System.err.println("[TransactionManagerWorker.run] READ_TRANSACTION #"
                                 + transaction.getTransactionId() + " - Error writing Account Balance to the client");
@@ -196,55 +237,280 @@ public class TransactionManagerWorker extends Thread implements MessageTypes, Te
                     balance = (int) content[1];
 
                     try {
-                        TransactionServer.accountManager.write(accountNumber, balance, transaction);
-                        transaction.log("[TransactionManagerWorker.run] " + WRITE_COLOR + "WRITE_TRANSACTION" + RESET_COLOR
-                                + " #" + transaction.getTransactionId() + " for account #" + accountNumber +
-                                " and balance " + balance + " - successful");
-//                        transaction.log("[TransactionManagerWorker.run] " + WRITE_COLOR + "WRITE_TRANSACTION" + RESET_COLOR
-//                                + " #" + transaction.getTransactionId() + " - WRITE");
+                        executor.write(accountNumber, balance);
                     } catch (TransactionAbortedException e) {
+                        message = abortedResponse(e);
+                    }
 
+                    try {
+                        writeMessage(message);
+                    } catch (IOException e) {
+                        System.err.println("[TransactionManagerWorker.run] READ_TRANSACTION #"
+                                + transaction.getTransactionId() + " - Error writing WRITE RESPONSE to the client");
+                    }
+                    break;
+
+                // INCREMENT_REQUEST case: Adds an amount to the balance of the specified account at commit
+                // =====================================================================================================
+                case INCREMENT_REQUEST:
+                // =====================================================================================================
+                    content = (Object[]) message.getContent();
+                    // get the account number and the amount to add
+                    accountNumber = (int) content[0];
+                    int amount = (int) content[1];
+
+                    try {
+                        message = new Message(INCREMENT_RESPONSE, executor.increment(accountNumber, amount));
+                    } catch (TransactionAbortedException e) {
+                        message = abortedResponse(e);
+                    }
+
+                    try {
+                        writeMessage(message);
+                    } catch (IOException e) {
+                        System.err.println("[TransactionManagerWorker.run] INCREMENT_TRANSACTION #"
+                                + transaction.getTransactionId() + " - Error writing INCREMENT RESPONSE to the client");
+                    }
+                    break;
+
+                // CREATE_ACCOUNT case: Creates an account with an initial balance, visible to others once committed
+                // =====================================================================================================
+                case CREATE_ACCOUNT:
+                // =====================================================================================================
+                    int initialBalance = (int) message.getContent();
+
+                    try {
+                        message = new Message(CREATE_ACCOUNT_RESPONSE, executor.createAccount(initialBalance));
+                    } catch (TransactionAbortedException e) {
+                        message = abortedResponse(e);
+                    }
+
+                    try {
+                        writeMessage(message);
+                    } catch (IOException e) {
+                        System.err.println("[TransactionManagerWorker.run] CREATE_ACCOUNT #"
+                                + transaction.getTransactionId() + " - Error writing CREATE RESPONSE to the client");
+                    }
+                    break;
+
+                // CLOSE_ACCOUNT case: Closes an account with a balance of 0, removed once committed
+                // =====================================================================================================
+                case CLOSE_ACCOUNT:
+                // =====================================================================================================
+                    accountNumber = (int) message.getContent();
+
+                    try {
+                        message = new Message(CLOSE_ACCOUNT_RESPONSE, executor.closeAccount(accountNumber));
+                    } catch (TransactionAbortedException e) {
+                        message = abortedResponse(e);
+                    }
+
+                    try {
+                        writeMessage(message);
+                    } catch (IOException e) {
+                        System.err.println("[TransactionManagerWorker.run] CLOSE_ACCOUNT #"
+                                + transaction.getTransactionId() + " - Error writing CLOSE RESPONSE to the client");
+                    }
+                    break;
+
+                // PREPARE case: first phase of a two-phase commit across shards
+                // =====================================================================================================
+                case PREPARE:
+                // =====================================================================================================
+                    int vote = executor.prepare((Map<Integer, Integer>) message.getContent()) ? VOTE_COMMIT : VOTE_ABORT;
+                    if (!executor.isOpen()) {
+                        keepGoing = false;
+                    }
+
+                    try {
+                        writeMessage(vote);
+                    } catch (IOException e) {
+                        System.err.println("[TransactionManagerWorker.run] PREPARE #"
+                                + transaction.getTransactionId() + " - Error writing vote to the client");
+                    }
+                    break;
+
+                // ABORT case: the coordinator aborts a transaction spanning several shards
+                // =====================================================================================================
+                case ABORT:
+                // =====================================================================================================
+                    if (!claimDecision()) {
+                        break;
+                    }
+                    executor.abort("ABORT", true);
+                    keepGoing = false;
+
+                    try {
+                        writeMessage(TRANSACTION_ABORTED);
+
+                        readFromNet.close();
+                        writeToNet.close();
+                        client.close();
+                    } catch (IOException e) {
+                        System.err.println("[TransactionManagerWorker.run] ABORT #"
+                                + transaction.getTransactionId() + " - Error when closing connection to client");
+                    }
+                    break;
+
+                // SAVEPOINT case: sets a savepoint the transaction can be rolled back to
+                // =====================================================================================================
+                case SAVEPOINT:
+                // =====================================================================================================
+                    int savepointId = executor.setSavepoint();
+
+                    try {
+                        writeMessage(savepointId);
+                    } catch (IOException e) {
+                        System.err.println("[TransactionManagerWorker.run] SAVEPOINT #"
+                                + transaction.getTransactionId() + " - Error writing savepoint to the client");
+                    }
+                    break;
+
+                // ROLLBACK_TO case: undoes the work of the transaction after a savepoint, keeping it open
+                // =====================================================================================================
+                case ROLLBACK_TO:
+                // =====================================================================================================
+                    savepointId = (int) message.getContent();
+
+                    if (executor.rollbackTo(savepointId)) {
+                        message = new Message(TRANSACTION_ROLLED_BACK, new Object[]{savepointId, null});
+                    } else {
                         message = new Message(TRANSACTION_ABORTED, null);
+                        keepGoing = false;
+                    }
+
+                    try {
+                        writeMessage(message);
+                    } catch (IOException e) {
+                        System.err.println("[TransactionManagerWorker.run] ROLLBACK_TO #"
+                                + transaction.getTransactionId() + " - Error writing rollback to the client");
+                    }
+                    break;
 
-                        synchronized (TransactionServer.accountManager) {
-                            // Roll back changes made to the accounts in the Before Image
-                            for(Map.Entry<Integer, Integer> entry :  transaction.getBeforeImage().entrySet()) {
-                                int accNumber = entry.getKey();
-                                int bal = entry.getValue();
+                // REPLICATE case: a replica follows this primary's commit log on this connection
+                // =====================================================================================================
+                case REPLICATE:
+                // =====================================================================================================
+                    if (TransactionServer.commitLog == null) {
+                        System.err.println("[TransactionManagerWorker.run] REPLICATE - no commit log kept");
+                    } else {
+                        try {
+                            TransactionServer.commitLog.serve(writeToNet, (long) message.getContent());
+                        } catch (IOException e) {
+                            System.out.println("[TransactionManagerWorker.run] REPLICATE - replica disconnected");
+                        }
+                    }
 
-                                transaction.log("[TransactionManagerWorker.run] " + ABORT_COLOR + "WRITE_TRANSACTION" + RESET_COLOR
-                                        + " #" + transaction.getTransactionId() +  " - values are reset for account " + accNumber
-                                        + " with balance " + bal);
+                    try {
+                        client.close();
+                    } catch (IOException e) {
+                        // we don't care
+                    }
+                    keepGoing = false;
+                    break;
 
-                                Account account = TransactionServer.accountManager.getAccountByAccountNumber(accNumber);
-                                account.setBalance(bal);
-                            }
+                // SUBSCRIBE_CHANGES case: streams the committed changes to a downstream subscriber on this connection
+                // =====================================================================================================
+                case SUBSCRIBE_CHANGES:
+                // =====================================================================================================
+                    if (TransactionServer.commitLog == null) {
+                        System.err.println("[TransactionManagerWorker.run] SUBSCRIBE_CHANGES - no commit log kept");
+                    } else {
+                        try {
+                            TransactionServer.commitLog.serveChanges(writeToNet, (long) message.getContent());
+                        } catch (IOException e) {
+                            System.out.println("[TransactionManagerWorker.run] SUBSCRIBE_CHANGES - subscriber disconnected");
                         }
+                    }
+
+                    try {
+                        client.close();
+                    } catch (IOException e) {
+                        // we don't care
+                    }
+                    keepGoing = false;
+                    break;
 
-                        transaction.log("[TransactionManagerWorker.run] " + ABORT_COLOR + "WRITE_TRANSACTION" + RESET_COLOR
-                                + " #" + transaction.getTransactionId() + " - ABORTED");
+                // AWAIT_TRANSACTION case: blocks until the given transaction completed, before a client restarts
+                // =====================================================================================================
+                case AWAIT_TRANSACTION:
+                // =====================================================================================================
+                    Object[] awaitContent = (Object[]) message.getContent();
+                    boolean completed = TransactionManager.awaitTransaction((int) awaitContent[0], (long) awaitContent[1]);
 
-                        // Unlock the transaction, remove it from the running list, and add it to the aborted list
-                        TransactionServer.lockManager.unlock(transaction);
+                    try {
+                        writeMessage(completed);
 
-                        runningTransactions.remove(transaction);
-                        abortedTransactions.add(transaction);
-                        System.out.println(transaction.getLog());
-                        keepGoing = false;
+                        readFromNet.close();
+                        writeToNet.close();
+                        client.close();
+                    } catch (IOException e) {
+                        System.err.println("[TransactionManagerWorker.run] AWAIT_TRANSACTION #"
+                                + awaitContent[0] + " - Error when closing connection to client");
+                    }
+                    keepGoing = false;
+                    break;
+
+                // DETERMINISTIC_TRANSFER case: a predeclared transfer, sequenced and executed without aborts
+                // =====================================================================================================
+                case DETERMINISTIC_TRANSFER:
+                // =====================================================================================================
+                    int[] transferContent = (int[]) message.getContent();
+                    int status = TRANSACTION_ABORTED;
+
+                    if (TransactionServer.partitionedScheduler != null) {
+                        status = TransactionServer.partitionedScheduler.submit(
+                                new DeterministicTransfer(transferContent[0], transferContent[1], transferContent[2]));
+                    } else if (TransactionServer.sequencer == null) {
+                        System.err.println("[TransactionManagerWorker.run] DETERMINISTIC_TRANSFER - not supported by a replica");
+                    } else {
+                        status = TransactionServer.sequencer.submit(
+                                new DeterministicTransfer(transferContent[0], transferContent[1], transferContent[2]));
                     }
 
                     try {
-                        writeToNet.writeObject(message);
+                        writeMessage(status);
+
+                        readFromNet.close();
+                        writeToNet.close();
+                        client.close();
                     } catch (IOException e) {
-                        System.err.println("[TransactionManagerWorker.run] READ_TRANSACTION #"
-                                + transaction.getTransactionId() + " - Error writing WRITE RESPONSE to the client");
+                        System.err.println("[TransactionManagerWorker.run] DETERMINISTIC_TRANSFER"
+                                + " - Error when closing connection to client");
                     }
+                    keepGoing = false;
+                    break;
+
+                // RANGE_QUERY case: sum and count of the committed balances in an account number range
+                // =====================================================================================================
+                case RANGE_QUERY:
+                // =====================================================================================================
+                    int[] range = (int[]) message.getContent();
+                    long[] sumAndCount = TransactionServer.accountManager.rangeQuery(range[0], range[1]);
+
+                    try {
+                        writeMessage(new Message(RANGE_QUERY_RESPONSE, sumAndCount));
+
+                        readFromNet.close();
+                        writeToNet.close();
+                        client.close();
+                    } catch (IOException e) {
+                        System.err.println("[TransactionManagerWorker.run] RANGE_QUERY"
+                                + " - Error when closing connection to client");
+                    }
+                    keepGoing = false;
                     break;
 
                 case SHUTDOWN:
                     int sumOfAllAccounts = 0;
 
-                    for(int i=1; i <= TransactionServer.numberOfAccounts; i++) {
+                    int highestAccountNumber = TransactionServer.accountManager.getHighestAccountNumber();
+                    for(int i=1; i <= highestAccountNumber; i++) {
+                        // skip accounts owned by other shards
+                        if (TransactionServer.accountManager.getAccountByAccountNumber(i) == null) {
+                            continue;
+                        }
+
                         int accountBalance = TransactionServer.accountManager._read(i);
                         sumOfAllAccounts += accountBalance;
                         System.out.println("[TransactionManagerWorker.run]" + "After all the Transactions" +
@@ -253,9 +519,163 @@ public class TransactionManagerWorker extends Thread implements MessageTypes, Te
 
                     System.out.println("[TransactionManagerWorker.run]" + " After all the Transactions" +
                             " sum of all accounts balance " + sumOfAllAccounts);
+                    System.out.println("[TransactionManagerWorker.run]" + " After all the Transactions" +
+                            " sum of all accounts balance from the range index " +
+                            TransactionServer.accountManager.rangeQuery(1, highestAccountNumber)[0]);
+
+                    if (TransactionServer.replicaApplier != null) {
+                        System.out.println("[TransactionManagerWorker.run]" + " Replica applied sequence #" +
+                                TransactionServer.replicaApplier.getLastAppliedSequence() +
+                                ", staleness " + TransactionServer.replicaApplier.getStaleness() + "ms");
+                    } else if (TransactionServer.commitLog != null) {
+                        System.out.println("[TransactionManagerWorker.run]" + " Primary committed sequence #" +
+                                TransactionServer.commitLog.getLastSequence());
+                    }
 
+                    TransactionServer.shutDown();
                     break;
             }
         }
+
+        if (TransactionServer.idleTransactionReaper != null) {
+            IdleTransactionReaper.unregister(this);
+        }
+
+        // the connection is closed already unless the transaction aborted or the client broke it
+        try {
+            client.close();
+        } catch (IOException e) {
+            // we don't care
+        }
+    }
+
+    /**
+     * Marks the worker as waiting for the client's next request, or as serving one.
+     *
+     * @param idle true before waiting for the next request, false once it arrived
+     * @return false if the idle client was disconnected meanwhile, true otherwise
+     */
+    private synchronized boolean setIdle(boolean idle) {
+        idleSince = idle && transaction != null ? System.currentTimeMillis() : 0;
+        return !reaped;
+    }
+
+    /**
+     * Disconnects the client if its open transaction has waited for the next request longer than the timeout.
+     * The worker then aborts the transaction when reading the request fails.
+     *
+     * @param now the current time in milliseconds
+     * @param idleTimeout the time in milliseconds a transaction may wait for the next request
+     * @return true if the client was disconnected, false otherwise
+     */
+    synchronized boolean reapIfIdle(long now, long idleTimeout) {
+        if (idleSince == 0 || transaction.isPrepared() || reaped || now - idleSince <= idleTimeout) {
+            return false;
+        }
+
+        reaped = true;
+        try {
+            client.close();
+        } catch (IOException e) {
+            // we don't care
+        }
+        return true;
+    }
+
+    /**
+     * Writes a response to the client, recorded as a flight recorder event.
+     *
+     * @param response the response to write
+     * @throws IOException if the connection to the client breaks
+     */
+    private void writeMessage(Object response) throws IOException {
+        MessageEvent writeEvent = new MessageEvent();
+        writeEvent.begin();
+        writeToNet.writeObject(response);
+        commitMessageEvent(writeEvent, "WRITE",
+                response instanceof Message ? ((Message) response).getType() : requestType);
+
+        if (TransactionServer.workloadRecorder != null) {
+            TransactionServer.workloadRecorder.recordResponse((int) getId(),
+                    transaction != null ? transaction.getTransactionId() : 0, requestType, response);
+        }
+    }
+
+    /**
+     * Ends and records a message event, if recording is enabled.
+     *
+     * @param event the event started before the message was read or written
+     * @param direction READ for requests, WRITE for responses
+     * @param messageType the type of the message, for plain responses the type of the request
+     */
+    private void commitMessageEvent(MessageEvent event, String direction, int messageType) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.direction = direction;
+            event.messageType = messageType;
+            event.transactionId = transaction != null ? transaction.getTransactionId() : 0;
+            event.commit();
+        }
+    }
+
+    /**
+     * Turns the exception of a request that conflicted into the response telling the client, TRANSACTION_ROLLED_BACK
+     * if the transaction was rolled back to a savepoint and stays open, TRANSACTION_ABORTED otherwise. Both hint the
+     * client at the conflicting transaction, so it can restart once that one completes.
+     *
+     * @param e the exception thrown by the executor
+     * @return the response
+     */
+    private Message abortedResponse(TransactionAbortedException e) {
+        if (e instanceof TransactionRolledBackException) {
+            return new Message(TRANSACTION_ROLLED_BACK, new Object[]{
+                    ((TransactionRolledBackException) e).getSavepointId(), e.getConflictingTransactionId()});
+        }
+
+        keepGoing = false;
+        return new Message(TRANSACTION_ABORTED, e.getConflictingTransactionId());
+    }
+
+    /**
+     * Claims the prepared transaction the coordinator's COMMIT or ABORT is about, so its decision is carried out
+     * once. On a new connection, the message carries the id of the transaction, whose connection broke. If the
+     * decision was carried out already, or the transaction is not prepared, it is answered with the outcome.
+     * Transactions that are not prepared are served on their own connection as before.
+     *
+     * @return true if the decision is to be carried out on the current transaction, false if it was answered
+     */
+    private boolean claimDecision() {
+        if (transaction != null && !transaction.isPrepared()) {
+            return true;
+        }
+
+        Integer transactionId = transaction != null ? transaction.getTransactionId() : (Integer) message.getContent();
+        Transaction prepared = transactionId != null ? TransactionManager.claimPreparedTransaction(transactionId) : null;
+        if (prepared != null) {
+            if (transaction == null) {
+                prepared.log("[TransactionManagerWorker.run] #" + transactionId
+                        + " - coordinator reconnected with its decision");
+            }
+            transaction = prepared;
+            executor.attach(prepared);
+            return true;
+        }
+
+        // the decision arrived twice, answer with the outcome of the first one
+        int status = transactionId != null && TransactionManager.awaitCommitted(transactionId)
+                ? TRANSACTION_COMMITTED : TRANSACTION_ABORTED;
+        System.out.println("[TransactionManagerWorker.run] #" + transactionId + " - decision already carried out");
+        try {
+            writeMessage(status);
+
+            readFromNet.close();
+            writeToNet.close();
+            client.close();
+        } catch (IOException e) {
+            System.err.println("[TransactionManagerWorker.run] #" + transactionId
+                    + " - Error when closing connection to client");
+        }
+        keepGoing = false;
+        return false;
     }
 }